@@ -8,6 +8,7 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.data.domain.Page;
 import org.springframework.http.HttpHeaders;
@@ -24,6 +25,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.batchprompt.common.services.ServiceAuthenticationService;
 import com.batchprompt.files.core.model.FileEntity;
@@ -34,6 +36,7 @@ import com.batchprompt.files.model.FileStatus;
 import com.batchprompt.files.model.FileType;
 import com.batchprompt.files.model.dto.FileDto;
 import com.batchprompt.files.model.dto.FileRecordDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import lombok.RequiredArgsConstructor;
 
@@ -45,6 +48,10 @@ public class FileController {
     private final FileService fileService;
     private final FileMapper fileMapper;
     private final ServiceAuthenticationService serviceAuthenticationService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${files.records.stream-chunk-size:1000}")
+    private int recordStreamChunkSize;
     
     // In-memory token store - in production, use a distributed cache like Redis
     private static final Map<String, FileDownloadToken> downloadTokens = new ConcurrentHashMap<>();
@@ -199,6 +206,48 @@ public class FileController {
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    /**
+     * Stream a file's records as newline-delimited JSON, in record number order, from
+     * fromRecordNumber up to and including toRecordNumber. Records are read in keyset chunks and written as they are read, so a
+     * whole file is sent in one request without holding it in memory on either side.
+     */
+    @GetMapping(value = "/{fileUuid}/records/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamFileRecords(
+            @PathVariable UUID fileUuid,
+            @RequestParam(defaultValue = "1") int fromRecordNumber,
+            @RequestParam(defaultValue = "" + Integer.MAX_VALUE) int toRecordNumber,
+            @AuthenticationPrincipal Jwt jwt) {
+
+        return fileService.getFileById(fileUuid)
+                .map(file -> {
+                    if (!serviceAuthenticationService.canAccessUserData(jwt, file.getUserId())) {
+                        return ResponseEntity.status(HttpStatus.FORBIDDEN).<StreamingResponseBody>build();
+                    }
+                    StreamingResponseBody body = outputStream -> {
+                        int afterRecordNumber = fromRecordNumber - 1;
+                        while (afterRecordNumber < toRecordNumber) {
+                            List<FileRecordDto> records = fileService.getRecordsAfter(fileUuid, afterRecordNumber, recordStreamChunkSize);
+                            for (FileRecordDto record : records) {
+                                if (record.getRecordNumber() > toRecordNumber) {
+                                    break;
+                                }
+                                outputStream.write(objectMapper.writeValueAsBytes(record));
+                                outputStream.write('\n');
+                            }
+                            outputStream.flush();
+                            if (records.size() < recordStreamChunkSize) {
+                                break;
+                            }
+                            afterRecordNumber = records.get(records.size() - 1).getRecordNumber();
+                        }
+                    };
+                    return ResponseEntity.ok()
+                            .contentType(MediaType.APPLICATION_NDJSON)
+                            .body(body);
+                })
+                .orElse(ResponseEntity.notFound().build());
+    }
+
     @GetMapping("/records/{recordUuid}")
     public ResponseEntity<FileRecordDto> getFileRecordById(
             @PathVariable UUID recordUuid,
@@ -1,6 +1,8 @@
 package com.batchprompt.files.client;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.util.List;
 import java.util.UUID;
 
@@ -13,6 +15,8 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.stereotype.Component;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
@@ -22,6 +26,8 @@ import com.batchprompt.common.client.ClientAuthenticationService;
 import com.batchprompt.files.model.dto.FileDto;
 import com.batchprompt.files.model.dto.FileFieldDto;
 import com.batchprompt.files.model.dto.FileRecordDto;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -33,6 +39,7 @@ public class FileClient {
 
     private final RestTemplate restTemplate;
     private final ClientAuthenticationService authService;
+    private final ObjectMapper objectMapper;
     
     @Value("${services.files.url}")
     private String filesServiceUrl;
@@ -129,6 +136,53 @@ public class FileClient {
         }
     }
     
+    /**
+     * Stream the records of a file in record number order, starting at a record number.
+     * The whole file is read through one request and records are only deserialized as the
+     * iterator reaches them.
+     * 
+     * @param fileUuid The UUID of the file to get records for
+     * @param fromRecordNumber The first record number to return
+     * @param authToken The user's auth token, or null for service-to-service call
+     * @return The records; must be closed to release the connection
+     */
+    public FileRecordStream streamFileRecords(UUID fileUuid, int fromRecordNumber, String authToken) {
+        return streamFileRecords(fileUuid, fromRecordNumber, Integer.MAX_VALUE, authToken);
+    }
+
+    /**
+     * Stream the records of a file in a record number range, in record number order
+     * 
+     * @param fileUuid The UUID of the file to get records for
+     * @param fromRecordNumber The first record number to return
+     * @param toRecordNumber The last record number to return
+     * @param authToken The user's auth token, or null for service-to-service call
+     * @return The records; must be closed to release the connection
+     */
+    public FileRecordStream streamFileRecords(UUID fileUuid, int fromRecordNumber, int toRecordNumber, String authToken) {
+        URI uri = URI.create(filesServiceUrl + "/api/files/" + fileUuid + "/records/stream?fromRecordNumber=" + fromRecordNumber
+                + "&toRecordNumber=" + toRecordNumber);
+        ClientHttpResponse response = null;
+        try {
+            ClientHttpRequest request = restTemplate.getRequestFactory().createRequest(uri, HttpMethod.GET);
+            request.getHeaders().addAll(authService.createAuthHeaders(authToken));
+            request.getHeaders().setAccept(List.of(MediaType.APPLICATION_NDJSON));
+
+            response = request.execute();
+            if (!response.getStatusCode().is2xxSuccessful()) {
+                throw new IOException("Unexpected status " + response.getStatusCode());
+            }
+            MappingIterator<FileRecordDto> records = objectMapper.readerFor(FileRecordDto.class).readValues(response.getBody());
+            return new FileRecordStream(response, records);
+        } catch (IOException e) {
+            if (response != null) {
+                response.close();
+            }
+            log.error("Error streaming file records for file {}: {}", fileUuid, e.getMessage(), e);
+            throw new RuntimeException("Failed to stream records for file " + fileUuid + ": " + e.getMessage(), e);
+        }
+    }
+    
     /**
      * Get a file record by UUID
      * 
@@ -0,0 +1,44 @@
+package com.batchprompt.files.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.springframework.http.client.ClientHttpResponse;
+
+import com.batchprompt.files.model.dto.FileRecordDto;
+import com.fasterxml.jackson.databind.MappingIterator;
+
+/**
+ * Lazily reads the records of a file from a streaming response, one record at a time.
+ * The response stays open until the stream is closed, so use it in try-with-resources.
+ */
+public class FileRecordStream implements Iterator<FileRecordDto>, Closeable {
+
+    private final ClientHttpResponse response;
+    private final MappingIterator<FileRecordDto> records;
+
+    FileRecordStream(ClientHttpResponse response, MappingIterator<FileRecordDto> records) {
+        this.response = response;
+        this.records = records;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return records.hasNext();
+    }
+
+    @Override
+    public FileRecordDto next() {
+        return records.next();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            records.close();
+        } finally {
+            response.close();
+        }
+    }
+}
@@ -7,6 +7,8 @@ import java.util.UUID;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.batchprompt.files.core.model.FileEntity;
@@ -18,4 +20,19 @@ public interface FileRecordRepository extends JpaRepository<FileRecord, UUID> {
     List<FileRecord> findByFileFileUuid(UUID fileUuid);
     Page<FileRecord> findByFileFileUuid(UUID fileUuid, Pageable pageable);
     void deleteByFileFileUuid(UUID fileUuid);
+
+    /**
+     * Get the next chunk of a file's records in record number order. Keyset paging on the
+     * record number keeps every chunk an index range scan, however far into the file it is.
+     * 
+     * @param fileUuid The file UUID
+     * @param afterRecordNumber Only records with a higher record number are returned
+     * @param pageable The chunk size; the page number is always 0
+     * @return The records of the chunk
+     */
+    @Query("SELECT r FROM FileRecord r WHERE r.file.fileUuid = :fileUuid AND r.recordNumber > :afterRecordNumber " +
+           "ORDER BY r.recordNumber")
+    List<FileRecord> findRecordsAfter(@Param("fileUuid") UUID fileUuid,
+                                      @Param("afterRecordNumber") int afterRecordNumber,
+                                      Pageable pageable);
 }
\ No newline at end of file
@@ -8,6 +8,7 @@ import java.util.UUID;
 
 import org.springframework.core.io.Resource;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -22,14 +23,17 @@ import com.batchprompt.files.core.repository.FileFieldRepository;
 import com.batchprompt.files.core.repository.FileRecordRepository;
 import com.batchprompt.files.core.repository.FileRepository;
 import com.batchprompt.files.core.service.validation.ExcelValidator;
+import com.batchprompt.files.model.FileFormat;
 import com.batchprompt.files.model.FileStatus;
 import com.batchprompt.files.model.FileType;
 import com.batchprompt.files.model.dto.FileDto;
 import com.batchprompt.files.model.dto.FileFieldDto;
+import com.batchprompt.files.model.dto.FileRecordDto;
 
 import io.minio.GetObjectArgs;
 import io.minio.MinioClient;
 import io.minio.PutObjectArgs;
+import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -48,6 +52,7 @@ public class FileService {
     private final MinioConfig minioConfig;
     private final ExcelValidator excelValidator;
     private final JobClient jobClient;
+    private final EntityManager entityManager;
 
     public List<FileEntity> getAllFiles() {
         return fileRepository.findAll();
@@ -103,7 +108,7 @@ public class FileService {
             
             // For upload type files, enforce Excel format
             if (type == FileType.UPLOAD && 
-                !file.getContentType().equals("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet")) {
+                FileFormat.fromContentType(file.getContentType()) != FileFormat.XLSX) {
                 throw new IllegalArgumentException("Uploaded data files must be Excel spreadsheets (.xlsx)");
             }
 
@@ -180,8 +185,9 @@ public class FileService {
                                 .build()
                 );
                 
-                // Only validate upload and result files
-                if (file.getFileType() == FileType.UPLOAD || file.getFileType() == FileType.RESULT) {
+                // Only validate upload and result files; CSV, NDJSON and Parquet results are not parsed into records
+                boolean isExcel = FileFormat.fromContentType(file.getContentType()) == FileFormat.XLSX;
+                if (isExcel && (file.getFileType() == FileType.UPLOAD || file.getFileType() == FileType.RESULT)) {
                     // Delete any existing records for this file
                     fileRecordRepository.deleteByFileFileUuid(file.getFileUuid());
                     
@@ -210,7 +216,7 @@ public class FileService {
                         fileRepository.save(file);
                     }
                 } else {
-                    // For non-upload files, just mark as Ready
+                    // For other files, just mark as Ready
                     file.setStatus(FileStatus.READY);
                     file.setUpdatedAt(LocalDateTime.now());
                     fileRepository.save(file);
@@ -310,6 +316,23 @@ public class FileService {
     public Page<FileRecord> getRecordsByFileIdPaginated(UUID fileUuid, Pageable pageable) {
         return fileRecordRepository.findByFileFileUuid(fileUuid, pageable);
     }
+
+    /**
+     * Get the next chunk of records for a file, in record number order. The records are
+     * detached once mapped, so a stream reading a whole file through one persistence
+     * context (e.g. with open-in-view) does not keep every record it has read.
+     * 
+     * @param fileUuid The UUID of the file to get records for
+     * @param afterRecordNumber Only records with a higher record number are returned
+     * @param limit The maximum number of records to return
+     * @return The records of the chunk
+     */
+    public List<FileRecordDto> getRecordsAfter(UUID fileUuid, int afterRecordNumber, int limit) {
+        List<FileRecord> records = fileRecordRepository.findRecordsAfter(fileUuid, afterRecordNumber, PageRequest.of(0, limit));
+        List<FileRecordDto> dtos = records.stream().map(FileMapper::toDto).toList();
+        records.forEach(entityManager::detach);
+        return dtos;
+    }
     
     public Optional<FileRecord> getFileRecordById(UUID recordUuid) {
         return fileRecordRepository.findById(recordUuid);
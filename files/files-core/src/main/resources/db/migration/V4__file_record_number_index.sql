@@ -0,0 +1,5 @@
+-- Use the files schema
+SET search_path TO files;
+
+-- Records are streamed in record number order, resuming after the last record number sent
+CREATE INDEX IF NOT EXISTS idx_file_record_file_uuid_record_number ON file_record(file_uuid, record_number);
@@ -0,0 +1,47 @@
+package com.batchprompt.files.model;
+
+/**
+ * The formats files are stored in. Only Excel files are parsed into records; files in the other
+ * formats are stored and downloaded as they are.
+ */
+public enum FileFormat {
+    XLSX("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "xlsx"),
+    CSV("text/csv", "csv"),
+    NDJSON("application/x-ndjson", "ndjson"),
+    PARQUET("application/vnd.apache.parquet", "parquet");
+
+    private final String contentType;
+    private final String extension;
+
+    FileFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Get the format of a file from its content type
+     * 
+     * @param contentType The content type, possibly with parameters such as a charset
+     * @return The format, or null if the content type is not a known format
+     */
+    public static FileFormat fromContentType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        String mediaType = contentType.split(";")[0].trim();
+        for (FileFormat format : values()) {
+            if (format.contentType.equalsIgnoreCase(mediaType)) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
@@ -1,9 +1,13 @@
 package com.batchprompt.jobs.core;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
 import org.springframework.amqp.core.DirectExchange;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
 import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.stereotype.Component;
 
@@ -20,6 +24,15 @@ public class QueueHelper {
     private final DirectExchange exchange;
     private final WorkerConfig workerConfig;
 
+    /*
+     * Delay queues hold messages for a fixed TTL and then dead-letter them back to their
+     * work queue. RabbitMQ only expires messages at the head of a queue, so each queue has
+     * one TTL and a message is parked in the smallest tier that covers the requested delay.
+     */
+    private static final long[] DELAY_TIERS_SECONDS = { 1, 2, 5, 10, 30, 60, 300, 900 };
+    private final Set<String> declaredQueues = ConcurrentHashMap.newKeySet();
+
+    private static final String DEAD_LETTER_QUEUE_SUFFIX = ".dlq";
 
     public QueueHelper(
         RabbitAdmin rabbitAdmin, 
@@ -45,6 +58,53 @@ public class QueueHelper {
         return queue;
     }
 
+    /**
+     * Get the delay queue to park a message for a work queue, declaring it on first use.
+     * Messages published to the delay queue (through the default exchange) are routed
+     * back to the work queue once the tier's TTL expires.
+     *
+     * @param queueName The work queue the message should return to
+     * @param delayMs The requested delay in milliseconds
+     * @return The name of the delay queue
+     */
+    public String getDelayQueue(String queueName, long delayMs) {
+        long delaySeconds = DELAY_TIERS_SECONDS[DELAY_TIERS_SECONDS.length - 1];
+        for (long tier : DELAY_TIERS_SECONDS) {
+            if (tier * 1000 >= delayMs) {
+                delaySeconds = tier;
+                break;
+            }
+        }
+
+        String delayQueueName = queueName + ".delay-" + delaySeconds + "s";
+        if (!declaredQueues.contains(delayQueueName)) {
+            Queue delayQueue = QueueBuilder.durable(delayQueueName)
+                    .ttl((int) (delaySeconds * 1000))
+                    .deadLetterExchange(exchange.getName())
+                    .deadLetterRoutingKey(queueName)
+                    .build();
+            rabbitAdmin.declareQueue(delayQueue);
+            declaredQueues.add(delayQueueName);
+        }
+        return delayQueueName;
+    }
+
+    /**
+     * Get the dead-letter queue for a work queue, declaring it on first use. Tasks that
+     * exhaust their retries are parked here for inspection; nothing consumes it.
+     *
+     * @param queueName The work queue
+     * @return The name of the dead-letter queue
+     */
+    public String getDeadLetterQueue(String queueName) {
+        String deadLetterQueueName = queueName + DEAD_LETTER_QUEUE_SUFFIX;
+        if (!declaredQueues.contains(deadLetterQueueName)) {
+            rabbitAdmin.declareQueue(QueueBuilder.durable(deadLetterQueueName).build());
+            declaredQueues.add(deadLetterQueueName);
+        }
+        return deadLetterQueueName;
+    }
+
     @PostConstruct
     public void initializeQueues() {
         if (workerConfig.getConfigurations() == null) {
@@ -1,9 +1,6 @@
 package com.batchprompt.jobs.core.config;
 
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
@@ -14,9 +11,6 @@ public class WorkerConfig {
     
     private List<WorkerConfiguration> configurations;
     
-    // In-memory map to track request rates per queue
-    private final Map<String, QueueRateTracker> queueRateTrackers = new ConcurrentHashMap<>();
-    
     public List<WorkerConfiguration> getConfigurations() {
         return configurations;
     }
@@ -43,19 +37,27 @@ public class WorkerConfig {
     }
     
     /**
-     * Get or create a rate tracker for a specific queue
-     * 
-     * @param queueName The name of the queue
-     * @return The queue rate tracker
+     * How a listener container runs job tasks
      */
-    public QueueRateTracker getRateTracker(String queueName) {
-        return queueRateTrackers.computeIfAbsent(queueName, key -> new QueueRateTracker());
+    public enum ExecutionMode {
+        /** One platform consumer thread per concurrent request */
+        PLATFORM,
+        /** A single consumer hands each task to a virtual thread, bounded by maxInFlight */
+        VIRTUAL
     }
-    
+
     public static class WorkerConfiguration {
         private String queue;
         private int concurrentRequests;
         private int rateLimit;
+        private int tokensPerMinute;
+        private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+        private int maxInFlight;
+        private boolean adaptiveConcurrency;
+        private int maxRetries = 3;
+        private long retryBaseDelayMs = 1000;
+        private long retryMaxDelayMs = 300_000;
+        private int retryBudgetPercent = 20;
         
         public String getQueue() {
             return queue;
@@ -80,62 +82,92 @@ public class WorkerConfig {
         public void setRateLimit(int rateLimit) {
             this.rateLimit = rateLimit;
         }
-    }
-    
-    /**
-     * Helper class to track request rates for a queue
-     */
-    public static class QueueRateTracker {
-        private final ConcurrentHashMap<Long, Integer> requestsPerMinute = new ConcurrentHashMap<>();
-        private final Object lockObject = new Object();
-        
+
         /**
-         * Check if adding a request would exceed the rate limit
-         * 
-         * @param rateLimit The maximum number of requests per minute
-         * @return true if the rate limit would be exceeded, false otherwise
+         * Provider tokens per minute (prompt plus completion) allowed for the queue, 0 for no limit
          */
-        public boolean wouldExceedRateLimit(int rateLimit) {
-            long currentMinute = System.currentTimeMillis() / (60 * 1000);
-            int currentCount = requestsPerMinute.getOrDefault(currentMinute, 0);
-            return currentCount >= rateLimit;
+        public int getTokensPerMinute() {
+            return tokensPerMinute;
         }
-        
+
+        public void setTokensPerMinute(int tokensPerMinute) {
+            this.tokensPerMinute = tokensPerMinute;
+        }
+
+        public ExecutionMode getExecutionMode() {
+            return executionMode;
+        }
+
+        public void setExecutionMode(ExecutionMode executionMode) {
+            this.executionMode = executionMode;
+        }
+
+        /**
+         * Maximum number of tasks in flight in {@link ExecutionMode#VIRTUAL} mode.
+         * Also used as the consumer prefetch, so the broker never hands out more
+         * unacknowledged messages than the worker is willing to run.
+         */
+        public int getMaxInFlight() {
+            return maxInFlight > 0 ? maxInFlight : concurrentRequests;
+        }
+
+        public void setMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+
         /**
-         * Record a request and wait if necessary to avoid exceeding the rate limit
-         * 
-         * @param rateLimit The maximum number of requests per minute
-         * @throws InterruptedException If the waiting thread is interrupted
+         * Whether calls to each model are limited by an AIMD limiter that starts at
+         * concurrentRequests and adapts between 1 and maxInFlight from the provider's
+         * throttling responses
          */
-        public void recordRequestAndWaitIfNecessary(int rateLimit) throws InterruptedException {
-            synchronized (lockObject) {
-                AtomicLong currentMinute = new AtomicLong(System.currentTimeMillis() / (60 * 1000));
-                
-                // Clean up old entries
-                requestsPerMinute.keySet().removeIf(minute -> minute < currentMinute.get());
-                
-                // Get the current count
-                int currentCount = requestsPerMinute.getOrDefault(currentMinute, 0);
-                
-                // Wait if necessary
-                while (currentCount >= rateLimit) {
-                    // Calculate time to wait until the next minute
-                    long nextMinuteMs = (currentMinute.get() + 1) * 60 * 1000;
-                    long waitMs = nextMinuteMs - System.currentTimeMillis();
-                    
-                    if (waitMs > 0) {
-                        lockObject.wait(waitMs);
-                    }
-                    
-                    // Recalculate after waiting
-                    currentMinute.set(System.currentTimeMillis() / (60 * 1000));
-                    requestsPerMinute.keySet().removeIf(minute -> minute < currentMinute.get());
-                    currentCount = requestsPerMinute.getOrDefault(currentMinute, 0);
-                }
-                
-                // Record the request
-                requestsPerMinute.put(currentMinute.get(), currentCount + 1);
-            }
+        public boolean isAdaptiveConcurrency() {
+            return adaptiveConcurrency;
+        }
+
+        public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+            this.adaptiveConcurrency = adaptiveConcurrency;
+        }
+
+        /**
+         * Maximum number of times a task that failed with a transient error is retried
+         */
+        public int getMaxRetries() {
+            return maxRetries;
+        }
+
+        public void setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+        }
+
+        /**
+         * Delay before the first retry; doubled for each further retry
+         */
+        public long getRetryBaseDelayMs() {
+            return retryBaseDelayMs;
+        }
+
+        public void setRetryBaseDelayMs(long retryBaseDelayMs) {
+            this.retryBaseDelayMs = retryBaseDelayMs;
+        }
+
+        public long getRetryMaxDelayMs() {
+            return retryMaxDelayMs;
+        }
+
+        public void setRetryMaxDelayMs(long retryMaxDelayMs) {
+            this.retryMaxDelayMs = retryMaxDelayMs;
+        }
+
+        /**
+         * Retries allowed per model as a percentage of calls, so a failing provider
+         * is not hit with a multiple of the normal load
+         */
+        public int getRetryBudgetPercent() {
+            return retryBudgetPercent;
+        }
+
+        public void setRetryBudgetPercent(int retryBudgetPercent) {
+            this.retryBudgetPercent = retryBudgetPercent;
         }
     }
 }
\ No newline at end of file
@@ -50,6 +50,9 @@ public class JobMapper {
                 .costEstimate(job.getCostEstimate())
                 .promptName(promptDto.getName())
                 .errorMessage(job.getErrorMessage())
+                .batchMode(job.isBatchMode())
+                .useResponseCache(job.isUseResponseCache())
+                .outputFormat(job.getOutputFormat())
                 .build();
     }
 
@@ -0,0 +1,24 @@
+package com.batchprompt.jobs.core.model;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A single request within a provider batch. The custom id is echoed back by the
+ * provider so results can be mapped onto the originating job task.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatModelBatchRequest {
+    private String customId;
+    private String prompt;
+    private JsonNode outputSchema;
+    private Integer maxTokens;
+    private Double temperature;
+}
@@ -0,0 +1,49 @@
+package com.batchprompt.jobs.core.model;
+
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * State of a provider batch. Once the batch is completed, responses holds one
+ * entry per custom id that the provider returned a result (or error) for.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatModelBatchResult {
+
+    public enum Status {
+        IN_PROGRESS,
+        COMPLETED,
+        FAILED
+    }
+
+    private Status status;
+    private String errorMessage;
+    private Map<String, ChatModelResponse> responses;
+
+    public static ChatModelBatchResult inProgress() {
+        return ChatModelBatchResult.builder()
+                .status(Status.IN_PROGRESS)
+                .build();
+    }
+
+    public static ChatModelBatchResult failed(String errorMessage) {
+        return ChatModelBatchResult.builder()
+                .status(Status.FAILED)
+                .errorMessage(errorMessage)
+                .build();
+    }
+
+    public static ChatModelBatchResult completed(Map<String, ChatModelResponse> responses) {
+        return ChatModelBatchResult.builder()
+                .status(Status.COMPLETED)
+                .responses(responses)
+                .build();
+    }
+}
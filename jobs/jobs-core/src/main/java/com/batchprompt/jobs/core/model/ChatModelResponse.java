@@ -20,6 +20,15 @@ public class ChatModelResponse {
     private Integer completionTokens;
     private Integer thinkingTokens;
     private Integer totalTokens;
+
+    // Provider throttling signals, used by the worker to adapt concurrency
+    private Integer httpStatus;
+    private Long retryAfterMillis;
+    private Integer rateLimitRemainingRequests;
+    private Integer rateLimitRemainingTokens;
+
+    // True for transient failures (throttling, provider errors, timeouts) that may succeed if retried
+    private boolean retryable;
     
     public static ChatModelResponse of(String responseText) {
         return ChatModelResponse.builder()
@@ -0,0 +1,38 @@
+package com.batchprompt.jobs.core.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A model response shared between jobs, keyed by a hash of the model, the
+ * request parameters and the rendered prompt
+ */
+@Data
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "chat_response_cache")
+public class ChatResponseCacheEntry {
+
+    @Id
+    @Column(name = "cache_key")
+    private String cacheKey;
+
+    @Column(name = "model_id", nullable = false)
+    private String modelId;
+
+    @Column(name = "response_text", nullable = false)
+    private String responseText;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
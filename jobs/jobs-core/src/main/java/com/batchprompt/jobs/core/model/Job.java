@@ -4,6 +4,7 @@ import java.time.LocalDateTime;
 import java.util.UUID;
 
 import com.batchprompt.jobs.model.JobStatus;
+import com.batchprompt.jobs.model.OutputFormat;
 
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
@@ -51,9 +52,16 @@ public class Job {
     @Column(name = "task_count", nullable = false)
     private Integer taskCount;
     
-    @Column(name = "completed_task_count", nullable = false)
+    // The task counters and credit usage are only written by the counter updates in JobRepository
+    @Column(name = "completed_task_count", nullable = false, updatable = false)
     private Integer completedTaskCount;
 
+    @Column(name = "failed_task_count", nullable = false, updatable = false)
+    private Integer failedTaskCount;
+
+    @Column(name = "insufficient_credits_task_count", nullable = false, updatable = false)
+    private Integer insufficientCreditsTaskCount;
+
     @Column(name = "result_file_uuid")
     private UUID resultFileUuid;
     
@@ -69,7 +77,7 @@ public class Job {
     @Column(name = "start_record_number")
     private Integer startRecordNumber;
     
-    @Column(name = "credit_usage")
+    @Column(name = "credit_usage", updatable = false)
     private Double creditUsage;
 
     @Column(name = "cost_estimate")
@@ -87,6 +95,16 @@ public class Job {
     @Column(name = "error_message")
     private String errorMessage;
 
+    @Column(name = "batch_mode", nullable = false)
+    private boolean batchMode;
+
+    @Column(name = "use_response_cache", nullable = false)
+    private boolean useResponseCache;
+
+    @Column(name = "output_format", nullable = false)
+    @Enumerated(EnumType.STRING)
+    private OutputFormat outputFormat;
+
     @Version
     @Column(name = "version")
     private Integer version;
@@ -92,4 +92,10 @@ public class JobTask {
 
     @Column(name = "prompt_text")
     private String promptText;
+
+    @Column(name = "job_task_batch_uuid")
+    private UUID jobTaskBatchUuid;
+
+    @Column(name = "retry_count", nullable = false)
+    private int retryCount;
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+package com.batchprompt.jobs.core.model;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A group of job tasks submitted together to a provider batch API
+ */
+@Data
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "job_task_batch")
+public class JobTaskBatch {
+
+    public enum BatchStatus {
+        // Tasks claimed, provider batch not yet created
+        PENDING,
+        SUBMITTED,
+        COMPLETED,
+        FAILED
+    }
+
+    @Id
+    @Column(name = "job_task_batch_uuid")
+    private UUID jobTaskBatchUuid;
+
+    @Column(name = "job_uuid", nullable = false)
+    private UUID jobUuid;
+
+    @Column(name = "model_id", nullable = false)
+    private String modelId;
+
+    @Column(name = "provider_batch_id")
+    private String providerBatchId;
+
+    @Column(name = "status", nullable = false)
+    @Enumerated(EnumType.STRING)
+    private BatchStatus status;
+
+    @Column(name = "task_count", nullable = false)
+    private Integer taskCount;
+
+    @Column(name = "error_message")
+    private String errorMessage;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+}
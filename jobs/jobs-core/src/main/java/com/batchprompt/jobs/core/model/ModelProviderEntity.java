@@ -30,4 +30,11 @@ public class ModelProviderEntity {
     @Column(name = "display_order")
     private Integer displayOrder;
 
+    /**
+     * Maximum number of pooled HTTP connections shared by all models of this provider.
+     * Falls back to {@link com.batchprompt.jobs.core.service.ModelProviderHttpClient#DEFAULT_MAX_CONNECTIONS} when null.
+     */
+    @Column(name = "max_connections")
+    private Integer maxConnections;
+
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.batchprompt.jobs.core.model;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A message waiting in the outbox table to be published to RabbitMQ
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class OutboxMessage {
+
+    private Long outboxMessageId;
+
+    private String exchange;
+
+    private String routingKey;
+
+    // The Jackson type id header the listener uses to pick the message class
+    private String typeId;
+
+    // The JSON message body
+    private String payload;
+
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,34 @@
+package com.batchprompt.jobs.core.repository;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.batchprompt.jobs.core.model.ChatResponseCacheEntry;
+
+@Repository
+public interface ChatResponseCacheRepository extends JpaRepository<ChatResponseCacheEntry, String> {
+
+    /**
+     * Insert an entry unless another worker has already cached a response for the key
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO {h-schema}chat_response_cache (cache_key, model_id, response_text, created_at) " +
+                   "VALUES (:cacheKey, :modelId, :responseText, :createdAt) ON CONFLICT (cache_key) DO NOTHING",
+           nativeQuery = true)
+    int insertIfAbsent(@Param("cacheKey") String cacheKey,
+                       @Param("modelId") String modelId,
+                       @Param("responseText") String responseText,
+                       @Param("createdAt") LocalDateTime createdAt);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ChatResponseCacheEntry e WHERE e.createdAt < :cutoff")
+    int deleteByCreatedAtBefore(@Param("cutoff") LocalDateTime cutoff);
+}
@@ -1,5 +1,6 @@
 package com.batchprompt.jobs.core.repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
@@ -7,9 +8,13 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.batchprompt.jobs.core.model.Job;
+import com.batchprompt.jobs.model.JobStatus;
 
 @Repository
 public interface JobRepository extends JpaRepository<Job, UUID>, JpaSpecificationExecutor<Job> {
@@ -17,4 +22,89 @@ public interface JobRepository extends JpaRepository<Job, UUID>, JpaSpecificatio
     Page<Job> findByUserId(String userId, Pageable pageable);
     List<Job> findByFileUuid(UUID fileUuid);
     List<Job> findByPromptUuid(UUID promptUuid);
+    List<Job> findByBatchModeTrueAndStatusIn(Collection<JobStatus> statuses);
+
+    @Query("SELECT j.jobUuid FROM Job j WHERE j.status IN :statuses")
+    List<UUID> findJobUuidsByStatusIn(@Param("statuses") Collection<JobStatus> statuses);
+
+    /**
+     * Add the finished tasks of a job that have not been counted yet to the job's counters,
+     * marking them counted in the same statement. Safe to run any number of times and from
+     * any number of workers: each task is only ever counted once.
+     * 
+     * @param jobUuid The job UUID
+     * @return 1 if any tasks were counted, otherwise 0
+     */
+    @Modifying
+    @Query(value = "WITH counted AS (" +
+           "UPDATE {h-schema}job_task SET counted = true " +
+           "WHERE job_uuid = :jobUuid AND NOT counted AND status IN ('COMPLETED', 'FAILED', 'INSUFFICIENT_CREDITS') " +
+           "RETURNING status, credit_usage) " +
+           "UPDATE {h-schema}job j SET completed_task_count = j.completed_task_count + c.completed, " +
+           "failed_task_count = j.failed_task_count + c.failed, " +
+           "insufficient_credits_task_count = j.insufficient_credits_task_count + c.insufficient_credits, " +
+           "credit_usage = COALESCE(j.credit_usage, 0) + c.credit_usage, updated_at = now() " +
+           "FROM (SELECT COUNT(*) FILTER (WHERE status IN ('COMPLETED', 'FAILED')) AS completed, " +
+           "COUNT(*) FILTER (WHERE status = 'FAILED') AS failed, " +
+           "COUNT(*) FILTER (WHERE status = 'INSUFFICIENT_CREDITS') AS insufficient_credits, " +
+           "COALESCE(SUM(credit_usage), 0) AS credit_usage FROM counted) c " +
+           "WHERE j.job_uuid = :jobUuid AND c.completed + c.insufficient_credits > 0", nativeQuery = true)
+    int countFinishedTasks(@Param("jobUuid") UUID jobUuid);
+
+    /**
+     * Overwrite a job's counters, used to recount a job whose tasks are resubmitted
+     * 
+     * @return The number of jobs updated
+     */
+    @Modifying
+    @Query(value = "UPDATE {h-schema}job SET completed_task_count = :completed, failed_task_count = :failed, " +
+           "insufficient_credits_task_count = :insufficientCredits, credit_usage = :creditUsage, updated_at = now() " +
+           "WHERE job_uuid = :jobUuid", nativeQuery = true)
+    int setTaskCounts(@Param("jobUuid") UUID jobUuid,
+                      @Param("completed") int completed,
+                      @Param("failed") int failed,
+                      @Param("insufficientCredits") int insufficientCredits,
+                      @Param("creditUsage") double creditUsage);
+
+    /**
+     * Move a job to a new status if it is still in one of the given statuses. The version
+     * is bumped so a concurrent read-modify-write of the job fails instead of undoing it.
+     * 
+     * @param jobUuid The job UUID
+     * @param currentStatuses The statuses the job may be moved from
+     * @param newStatus The new status
+     * @return 1 if the job was moved, 0 if it was in another status
+     */
+    @Modifying
+    @Query(value = "UPDATE {h-schema}job SET status = :newStatus, updated_at = now(), version = COALESCE(version, 0) + 1 " +
+           "WHERE job_uuid = :jobUuid AND status IN (:currentStatuses)", nativeQuery = true)
+    int transitionStatus(@Param("jobUuid") UUID jobUuid,
+                         @Param("currentStatuses") Collection<String> currentStatuses,
+                         @Param("newStatus") String newStatus);
+
+    /**
+     * Move a job to a new status if any of its tasks ran out of credits
+     * 
+     * @return 1 if the job was moved, 0 if no task ran out of credits or the job was in another status
+     */
+    @Modifying
+    @Query(value = "UPDATE {h-schema}job SET status = :newStatus, updated_at = now(), version = COALESCE(version, 0) + 1 " +
+           "WHERE job_uuid = :jobUuid AND status IN (:currentStatuses) AND insufficient_credits_task_count > 0", nativeQuery = true)
+    int transitionStatusIfInsufficientCredits(@Param("jobUuid") UUID jobUuid,
+                                              @Param("currentStatuses") Collection<String> currentStatuses,
+                                              @Param("newStatus") String newStatus);
+
+    /**
+     * Move a job to a new status once all of its tasks have completed or failed and none
+     * ran out of credits. Only the caller that finishes the last task gets 1 back.
+     * 
+     * @return 1 if the job was moved, 0 if it has tasks left or was in another status
+     */
+    @Modifying
+    @Query(value = "UPDATE {h-schema}job SET status = :newStatus, updated_at = now(), version = COALESCE(version, 0) + 1 " +
+           "WHERE job_uuid = :jobUuid AND status IN (:currentStatuses) " +
+           "AND completed_task_count >= task_count AND insufficient_credits_task_count = 0", nativeQuery = true)
+    int transitionStatusIfAllTasksFinished(@Param("jobUuid") UUID jobUuid,
+                                           @Param("currentStatuses") Collection<String> currentStatuses,
+                                           @Param("newStatus") String newStatus);
 }
\ No newline at end of file
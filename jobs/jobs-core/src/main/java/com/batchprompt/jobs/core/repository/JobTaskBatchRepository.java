@@ -0,0 +1,51 @@
+package com.batchprompt.jobs.core.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.batchprompt.jobs.core.model.JobTaskBatch;
+import com.batchprompt.jobs.core.model.JobTaskBatch.BatchStatus;
+
+@Repository
+public interface JobTaskBatchRepository extends JpaRepository<JobTaskBatch, UUID> {
+    List<JobTaskBatch> findByStatus(BatchStatus status);
+    List<JobTaskBatch> findByStatusAndUpdatedAtBefore(BatchStatus status, LocalDateTime updatedAt);
+    void deleteByJobUuid(UUID jobUuid);
+
+    /**
+     * Atomically move a batch from one status to another. Used to make sure only one
+     * worker collects the results of a finished batch.
+     *
+     * @return The number of rows affected (1 if the transition was made, 0 if another worker got there first)
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE JobTaskBatch b SET b.status = :newStatus, b.errorMessage = :errorMessage, b.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE b.jobTaskBatchUuid = :jobTaskBatchUuid AND b.status = :currentStatus")
+    int transitionStatus(@Param("jobTaskBatchUuid") UUID jobTaskBatchUuid,
+                         @Param("currentStatus") BatchStatus currentStatus,
+                         @Param("newStatus") BatchStatus newStatus,
+                         @Param("errorMessage") String errorMessage);
+
+    /**
+     * Record the provider's id for a PENDING batch and move it to SUBMITTED
+     *
+     * @return 1 if the batch was updated, 0 if it is no longer PENDING
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE JobTaskBatch b SET b.providerBatchId = :providerBatchId, " +
+           "b.status = com.batchprompt.jobs.core.model.JobTaskBatch.BatchStatus.SUBMITTED, b.updatedAt = CURRENT_TIMESTAMP " +
+           "WHERE b.jobTaskBatchUuid = :jobTaskBatchUuid " +
+           "AND b.status = com.batchprompt.jobs.core.model.JobTaskBatch.BatchStatus.PENDING")
+    int markSubmitted(@Param("jobTaskBatchUuid") UUID jobTaskBatchUuid,
+                      @Param("providerBatchId") String providerBatchId);
+}
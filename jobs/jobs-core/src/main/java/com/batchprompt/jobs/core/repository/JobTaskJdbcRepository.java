@@ -0,0 +1,58 @@
+package com.batchprompt.jobs.core.repository;
+
+import java.sql.Types;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.batchprompt.jobs.core.model.JobTask;
+
+/**
+ * JDBC access for creating job tasks in bulk. Tasks are inserted in JDBC batches, which
+ * the PostgreSQL driver rewrites into multi-row inserts when reWriteBatchedInserts is set,
+ * instead of one INSERT round trip per task through the entity manager. The table is
+ * qualified with the same schema Hibernate uses for the entities.
+ */
+@Repository
+public class JobTaskJdbcRepository {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String insertSql;
+
+    public JobTaskJdbcRepository(
+            JdbcTemplate jdbcTemplate,
+            @Value("${spring.jpa.properties.hibernate.default_schema}") String schema) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.insertSql = "INSERT INTO " + schema + ".job_task (job_task_uuid, job_uuid, file_record_uuid, record_number, " +
+                "model_id, status, prompt_text, estimated_prompt_tokens, estimated_completion_tokens, " +
+                "estimated_thinking_tokens, cost_estimate, credit_estimate, retry_count) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    }
+
+    /**
+     * Insert new tasks using JDBC batches. Joins the caller's transaction, if any.
+     *
+     * @param jobTasks The tasks to insert
+     */
+    public void insertAll(List<JobTask> jobTasks) {
+        jdbcTemplate.batchUpdate(insertSql, jobTasks, BATCH_SIZE, (ps, jobTask) -> {
+            ps.setObject(1, jobTask.getJobTaskUuid());
+            ps.setObject(2, jobTask.getJobUuid());
+            ps.setObject(3, jobTask.getFileRecordUuid());
+            ps.setInt(4, jobTask.getRecordNumber());
+            ps.setString(5, jobTask.getModelId());
+            ps.setString(6, jobTask.getStatus().name());
+            ps.setString(7, jobTask.getPromptText());
+            ps.setObject(8, jobTask.getEstimatedPromptTokens(), Types.INTEGER);
+            ps.setObject(9, jobTask.getEstimatedCompletionTokens(), Types.INTEGER);
+            ps.setObject(10, jobTask.getEstimatedThinkingTokens(), Types.INTEGER);
+            ps.setObject(11, jobTask.getCostEstimate(), Types.DOUBLE);
+            ps.setObject(12, jobTask.getCreditEstimate(), Types.DOUBLE);
+            ps.setInt(13, jobTask.getRetryCount());
+        });
+    }
+}
@@ -1,17 +1,23 @@
 package com.batchprompt.jobs.core.repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.batchprompt.jobs.core.model.JobTask;
 import com.batchprompt.jobs.core.repository.dto.TaskStatusCount;
+import com.batchprompt.jobs.core.repository.dto.TaskSubmission;
+import com.batchprompt.jobs.model.TaskStatus;
 
 @Repository
 public interface JobTaskRepository extends JpaRepository<JobTask, UUID> {
@@ -37,4 +43,246 @@ public interface JobTaskRepository extends JpaRepository<JobTask, UUID> {
      */
     @Query("SELECT COUNT(t) FROM JobTask t WHERE t.jobUuid = :jobUuid")
     Long countByJobUuid(@Param("jobUuid") UUID jobUuid);
+
+    /**
+     * Get all tasks that were submitted together in a provider batch
+     * 
+     * @param jobTaskBatchUuid The batch UUID
+     * @return The tasks in the batch
+     */
+    List<JobTask> findByJobTaskBatchUuid(UUID jobTaskBatchUuid);
+
+    /**
+     * Claim up to limit SUBMITTED tasks of a job that are not yet part of a provider batch.
+     * Rows locked by another worker are skipped, so concurrent workers never claim the same task.
+     * 
+     * @param jobUuid The job UUID
+     * @param jobTaskBatchUuid The batch the claimed tasks are assigned to
+     * @param limit The maximum number of tasks to claim
+     * @return The number of tasks claimed
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE {h-schema}job_task SET job_task_batch_uuid = :jobTaskBatchUuid, status = 'PROCESSING', begin_timestamp = now() " +
+           "WHERE job_task_uuid IN (SELECT job_task_uuid FROM {h-schema}job_task " +
+           "WHERE job_uuid = :jobUuid AND status = 'SUBMITTED' AND job_task_batch_uuid IS NULL " +
+           "ORDER BY record_number LIMIT :limit FOR UPDATE SKIP LOCKED)", nativeQuery = true)
+    int claimTasksForBatch(@Param("jobUuid") UUID jobUuid,
+                           @Param("jobTaskBatchUuid") UUID jobTaskBatchUuid,
+                           @Param("limit") int limit);
+
+    /**
+     * Return the PROCESSING tasks of a provider batch to SUBMITTED so they can be claimed again
+     *
+     * @param jobTaskBatchUuid The batch UUID
+     * @return The number of tasks released
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE JobTask t SET t.status = com.batchprompt.jobs.model.TaskStatus.SUBMITTED, t.jobTaskBatchUuid = null, " +
+           "t.beginTimestamp = null WHERE t.jobTaskBatchUuid = :jobTaskBatchUuid " +
+           "AND t.status = com.batchprompt.jobs.model.TaskStatus.PROCESSING")
+    int releaseBatchTasks(@Param("jobTaskBatchUuid") UUID jobTaskBatchUuid);
+
+    /**
+     * Return PROCESSING tasks that point at a provider batch with no job_task_batch row to SUBMITTED
+     *
+     * @return The number of tasks released
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE {h-schema}job_task t SET status = 'SUBMITTED', job_task_batch_uuid = NULL, begin_timestamp = NULL " +
+           "WHERE t.status = 'PROCESSING' AND t.job_task_batch_uuid IS NOT NULL AND NOT EXISTS " +
+           "(SELECT 1 FROM {h-schema}job_task_batch b WHERE b.job_task_batch_uuid = t.job_task_batch_uuid)", nativeQuery = true)
+    int releaseOrphanedBatchTasks();
+
+    /**
+     * Move a task to a final status unless it already finished. Used to make sure each
+     * task is only finished (and debited) once, even if its message is redelivered.
+     * 
+     * @param jobTaskUuid The task UUID
+     * @param currentStatuses The statuses the task may be moved from
+     * @param newStatus The final status
+     * @return 1 if the task was moved, 0 if it was in another status
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE JobTask t SET t.status = :newStatus WHERE t.jobTaskUuid = :jobTaskUuid AND t.status IN :currentStatuses")
+    int transitionStatus(@Param("jobTaskUuid") UUID jobTaskUuid,
+                         @Param("currentStatuses") List<TaskStatus> currentStatuses,
+                         @Param("newStatus") TaskStatus newStatus);
+
+    /**
+     * Move a task to a final status together with its response, token usage and cost, unless it
+     * already finished. Status and results are written in one statement, so a finished task is
+     * never counted or output without its credit usage.
+     *
+     * @param jobTaskUuid The task UUID
+     * @param currentStatuses The statuses the task may be moved from
+     * @param newStatus The final status
+     * @return 1 if the task was finished, 0 if it was in another status
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE JobTask t SET t.status = :newStatus, t.responseText = :responseText, t.errorMessage = :errorMessage, " +
+           "t.endTimestamp = :endTimestamp, t.promptTokens = :promptTokens, t.completionTokens = :completionTokens, " +
+           "t.totalTokens = :totalTokens, t.calculatedCostUsd = :calculatedCostUsd, t.creditUsage = :creditUsage " +
+           "WHERE t.jobTaskUuid = :jobTaskUuid AND t.status IN :currentStatuses")
+    int finishTask(@Param("jobTaskUuid") UUID jobTaskUuid,
+                   @Param("currentStatuses") List<TaskStatus> currentStatuses,
+                   @Param("newStatus") TaskStatus newStatus,
+                   @Param("responseText") String responseText,
+                   @Param("errorMessage") String errorMessage,
+                   @Param("endTimestamp") LocalDateTime endTimestamp,
+                   @Param("promptTokens") Integer promptTokens,
+                   @Param("completionTokens") Integer completionTokens,
+                   @Param("totalTokens") Integer totalTokens,
+                   @Param("calculatedCostUsd") Double calculatedCostUsd,
+                   @Param("creditUsage") Double creditUsage);
+
+    /**
+     * Move a task to a final status with an error message and no response, unless it already finished
+     *
+     * @param jobTaskUuid The task UUID
+     * @param currentStatuses The statuses the task may be moved from
+     * @param newStatus The final status
+     * @param errorMessage Why the task did not complete
+     * @param endTimestamp The time the task finished
+     * @return 1 if the task was moved, 0 if it was in another status
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE JobTask t SET t.status = :newStatus, t.errorMessage = :errorMessage, t.endTimestamp = :endTimestamp " +
+           "WHERE t.jobTaskUuid = :jobTaskUuid AND t.status IN :currentStatuses")
+    int endTask(@Param("jobTaskUuid") UUID jobTaskUuid,
+                @Param("currentStatuses") List<TaskStatus> currentStatuses,
+                @Param("newStatus") TaskStatus newStatus,
+                @Param("errorMessage") String errorMessage,
+                @Param("endTimestamp") LocalDateTime endTimestamp);
+
+    /**
+     * Return a PROCESSING task to SUBMITTED for a retry, recording the retry count and the
+     * transient error. A task cancelled or finished in the meantime is left alone.
+     *
+     * @param jobTaskUuid The task UUID
+     * @param retryCount The new retry count
+     * @param errorMessage The error that caused the retry
+     * @return 1 if the task was returned to SUBMITTED, 0 if it is no longer PROCESSING
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE JobTask t SET t.status = com.batchprompt.jobs.model.TaskStatus.SUBMITTED, t.retryCount = :retryCount, " +
+           "t.errorMessage = :errorMessage WHERE t.jobTaskUuid = :jobTaskUuid " +
+           "AND t.status = com.batchprompt.jobs.model.TaskStatus.PROCESSING")
+    int retryTask(@Param("jobTaskUuid") UUID jobTaskUuid,
+                  @Param("retryCount") int retryCount,
+                  @Param("errorMessage") String errorMessage);
+
+    /**
+     * Move a task to PROCESSING unless it already finished. The task row itself is not
+     * read, so workers can load it in bulk beforehand.
+     *
+     * @param jobTaskUuid The task UUID
+     * @param currentStatuses The statuses the task may be started from
+     * @param beginTimestamp The time processing began
+     * @return 1 if the task was started, 0 if it was in another status
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE JobTask t SET t.status = com.batchprompt.jobs.model.TaskStatus.PROCESSING, t.beginTimestamp = :beginTimestamp " +
+           "WHERE t.jobTaskUuid = :jobTaskUuid AND t.status IN :currentStatuses")
+    int startTask(@Param("jobTaskUuid") UUID jobTaskUuid,
+                  @Param("currentStatuses") List<TaskStatus> currentStatuses,
+                  @Param("beginTimestamp") LocalDateTime beginTimestamp);
+
+    /**
+     * Move the tasks of a job in any of the given statuses back to SUBMITTED in a single statement,
+     * clearing their provider batch and retry count
+     * 
+     * @param jobUuid The job UUID
+     * @param statuses The statuses of the tasks to submit
+     * @return The number of tasks submitted
+     */
+    @Modifying
+    @Query("UPDATE JobTask t SET t.status = com.batchprompt.jobs.model.TaskStatus.SUBMITTED, t.jobTaskBatchUuid = null, t.retryCount = 0 " +
+           "WHERE t.jobUuid = :jobUuid AND t.status IN :statuses")
+    int submitTasks(@Param("jobUuid") UUID jobUuid, @Param("statuses") Collection<TaskStatus> statuses);
+
+    /**
+     * Get the next chunk of a job's tasks in a status, in record order, for building task messages.
+     * Keyset paging on the record number keeps every chunk an index range scan.
+     * 
+     * @param jobUuid The job UUID
+     * @param status The task status
+     * @param afterRecordNumber Only tasks with a higher record number are returned
+     * @param pageable The chunk size; the page number is always 0
+     * @return The tasks of the chunk
+     */
+    @Query("SELECT new com.batchprompt.jobs.core.repository.dto.TaskSubmission(t.jobTaskUuid, t.recordNumber, t.modelId) " +
+           "FROM JobTask t WHERE t.jobUuid = :jobUuid AND t.status = :status AND t.recordNumber > :afterRecordNumber " +
+           "ORDER BY t.recordNumber")
+    List<TaskSubmission> findTaskSubmissions(@Param("jobUuid") UUID jobUuid,
+                                             @Param("status") TaskStatus status,
+                                             @Param("afterRecordNumber") int afterRecordNumber,
+                                             Pageable pageable);
+
+    /**
+     * Get the next chunk of a job's tasks in a record number range, in record order, for writing
+     * the job's output. Keyset paging on the record number keeps every chunk an index range scan,
+     * however far into the job it is, and avoids the count query of a page.
+     * 
+     * @param jobUuid The job UUID
+     * @param afterRecordNumber Only tasks with a higher record number are returned
+     * @param toRecordNumber Only tasks with this record number or a lower one are returned
+     * @param pageable The chunk size; the page number is always 0
+     * @return The tasks of the chunk
+     */
+    @Query("SELECT t FROM JobTask t WHERE t.jobUuid = :jobUuid AND t.recordNumber > :afterRecordNumber " +
+           "AND t.recordNumber <= :toRecordNumber ORDER BY t.recordNumber")
+    List<JobTask> findTasksBetween(@Param("jobUuid") UUID jobUuid,
+                                   @Param("afterRecordNumber") int afterRecordNumber,
+                                   @Param("toRecordNumber") int toRecordNumber,
+                                   Pageable pageable);
+
+    /**
+     * Get the lowest record number of a job's tasks
+     * 
+     * @param jobUuid The job UUID
+     * @return The lowest record number, or null if the job has no tasks
+     */
+    @Query("SELECT MIN(t.recordNumber) FROM JobTask t WHERE t.jobUuid = :jobUuid")
+    Integer findMinRecordNumber(@Param("jobUuid") UUID jobUuid);
+
+    /**
+     * Get the highest record number of a job's tasks
+     * 
+     * @param jobUuid The job UUID
+     * @return The highest record number, or null if the job has no tasks
+     */
+    @Query("SELECT MAX(t.recordNumber) FROM JobTask t WHERE t.jobUuid = :jobUuid")
+    Integer findMaxRecordNumber(@Param("jobUuid") UUID jobUuid);
+
+    /**
+     * Mark all tasks of a job as not yet added to the job's counters, so they are counted again
+     * 
+     * @param jobUuid The job UUID
+     * @return The number of tasks updated
+     */
+    @Modifying
+    @Query(value = "UPDATE {h-schema}job_task SET counted = false WHERE job_uuid = :jobUuid AND counted", nativeQuery = true)
+    int resetCounted(@Param("jobUuid") UUID jobUuid);
+
+    /**
+     * Move all tasks of a job in one status that are not part of a provider batch to another status
+     * 
+     * @return The number of tasks updated
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE JobTask t SET t.status = :newStatus, t.errorMessage = :errorMessage " +
+           "WHERE t.jobUuid = :jobUuid AND t.status = :currentStatus AND t.jobTaskBatchUuid IS NULL")
+    int updateUnbatchedTaskStatus(@Param("jobUuid") UUID jobUuid,
+                                  @Param("currentStatus") TaskStatus currentStatus,
+                                  @Param("newStatus") TaskStatus newStatus,
+                                  @Param("errorMessage") String errorMessage);
 }
\ No newline at end of file
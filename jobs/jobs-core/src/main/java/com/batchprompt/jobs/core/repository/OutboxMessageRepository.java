@@ -0,0 +1,95 @@
+package com.batchprompt.jobs.core.repository;
+
+import java.sql.Array;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.batchprompt.jobs.core.model.OutboxMessage;
+
+/**
+ * JDBC access to the outbox table. Messages are inserted in JDBC batches and claimed
+ * with SKIP LOCKED, so any number of relays can drain the table concurrently. The table
+ * is qualified with the same schema Hibernate uses for the entities.
+ */
+@Repository
+public class OutboxMessageRepository {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String insertSql;
+    private final String claimSql;
+    private final String deleteSql;
+    private final String countSql;
+
+    public OutboxMessageRepository(
+            JdbcTemplate jdbcTemplate,
+            @Value("${spring.jpa.properties.hibernate.default_schema}") String schema) {
+        this.jdbcTemplate = jdbcTemplate;
+        String table = schema + ".outbox_message";
+        this.insertSql = "INSERT INTO " + table + " (exchange, routing_key, type_id, payload) VALUES (?, ?, ?, ?)";
+        this.claimSql = "SELECT outbox_message_id, exchange, routing_key, type_id, payload, created_at FROM " + table +
+                " ORDER BY outbox_message_id LIMIT ? FOR UPDATE SKIP LOCKED";
+        this.deleteSql = "DELETE FROM " + table + " WHERE outbox_message_id = ANY (?)";
+        this.countSql = "SELECT COUNT(*) FROM " + table;
+    }
+
+    /**
+     * Insert messages using JDBC batches. Joins the caller's transaction.
+     *
+     * @param messages The messages to insert
+     */
+    public void insertAll(List<OutboxMessage> messages) {
+        jdbcTemplate.batchUpdate(insertSql, messages, BATCH_SIZE, (ps, message) -> {
+            ps.setString(1, message.getExchange());
+            ps.setString(2, message.getRoutingKey());
+            ps.setString(3, message.getTypeId());
+            ps.setString(4, message.getPayload());
+        });
+    }
+
+    /**
+     * Lock the oldest messages not locked by another relay. Must be called in a transaction;
+     * the messages stay locked until it ends.
+     *
+     * @param limit The maximum number of messages to claim
+     * @return The claimed messages, oldest first
+     */
+    public List<OutboxMessage> claim(int limit) {
+        return jdbcTemplate.query(claimSql, (rs, rowNum) -> OutboxMessage.builder()
+                .outboxMessageId(rs.getLong("outbox_message_id"))
+                .exchange(rs.getString("exchange"))
+                .routingKey(rs.getString("routing_key"))
+                .typeId(rs.getString("type_id"))
+                .payload(rs.getString("payload"))
+                .createdAt(rs.getTimestamp("created_at").toLocalDateTime())
+                .build(), limit);
+    }
+
+    /**
+     * Delete relayed messages
+     *
+     * @param outboxMessageIds The ids of the messages to delete
+     * @return The number of messages deleted
+     */
+    public int deleteAll(List<Long> outboxMessageIds) {
+        if (outboxMessageIds.isEmpty()) {
+            return 0;
+        }
+        return jdbcTemplate.update(deleteSql, ps -> {
+            Array ids = ps.getConnection().createArrayOf("bigint", outboxMessageIds.toArray());
+            ps.setArray(1, ids);
+        });
+    }
+
+    /**
+     * @return The number of messages waiting to be relayed
+     */
+    public long count() {
+        Long count = jdbcTemplate.queryForObject(countSql, Long.class);
+        return count != null ? count : 0;
+    }
+}
@@ -0,0 +1,30 @@
+package com.batchprompt.jobs.core.repository.dto;
+
+import java.util.UUID;
+
+/**
+ * DTO for the task fields needed to queue a task message, without the prompt text and results
+ */
+public class TaskSubmission {
+    private UUID jobTaskUuid;
+    private Integer recordNumber;
+    private String modelId;
+
+    public TaskSubmission(UUID jobTaskUuid, Integer recordNumber, String modelId) {
+        this.jobTaskUuid = jobTaskUuid;
+        this.recordNumber = recordNumber;
+        this.modelId = modelId;
+    }
+
+    public UUID getJobTaskUuid() {
+        return jobTaskUuid;
+    }
+
+    public Integer getRecordNumber() {
+        return recordNumber;
+    }
+
+    public String getModelId() {
+        return modelId;
+    }
+}
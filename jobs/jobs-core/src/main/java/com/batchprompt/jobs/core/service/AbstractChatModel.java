@@ -1,8 +1,33 @@
 package com.batchprompt.jobs.core.service;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hc.core5.http.io.EofSensorInputStream;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import com.batchprompt.jobs.core.model.ChatModelBatchRequest;
+import com.batchprompt.jobs.core.model.ChatModelBatchResult;
 import com.batchprompt.jobs.core.model.ChatModelResponse;
 import com.batchprompt.jobs.core.model.Model;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import jakarta.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
@@ -10,6 +35,13 @@ import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public abstract class AbstractChatModel {
+
+    private static final int DEFAULT_STREAMING_TIMEOUT_SECONDS = 300;
+    private static final ObjectMapper STREAM_MAPPER = new ObjectMapper();
+
+    // Aborts streams that are still open when their time budget runs out
+    private static final ScheduledExecutorService STREAM_DEADLINES = createStreamDeadlineExecutor();
+
     private final Model model;
 
     public AbstractChatModel(Model model) {
@@ -19,6 +51,189 @@ public abstract class AbstractChatModel {
     public abstract ChatModelResponse generateChatResponse(String prompt, @Nullable JsonNode outputSchema,
                                                  @Nullable Integer maxTokens, @Nullable Double temperature);
 
+    /**
+     * Whether this model can run requests through the provider's asynchronous batch API.
+     * Models that return true must implement {@link #submitBatch(List)} and {@link #getBatchResult(String)}.
+     */
+    public boolean supportsBatch() {
+        return false;
+    }
+
+    /**
+     * Submit a group of requests to the provider's batch API
+     *
+     * @param requests The requests to run, each with a unique custom id
+     * @return The provider's id for the batch, used to poll for results
+     */
+    public String submitBatch(List<ChatModelBatchRequest> requests) throws Exception {
+        throw new UnsupportedOperationException("Model " + getModelId() + " does not support batch requests");
+    }
+
+    /**
+     * Poll a previously submitted batch
+     *
+     * @param batchId The provider's id for the batch
+     * @return The batch state, including responses keyed by custom id once completed
+     */
+    public ChatModelBatchResult getBatchResult(String batchId) throws Exception {
+        throw new UnsupportedOperationException("Model " + getModelId() + " does not support batch requests");
+    }
+
+    /**
+     * Whether responses are read as server-sent events instead of a single response body.
+     * Controlled by the "useStreaming" model provider property.
+     */
+    public boolean isStreamingEnabled() {
+        return getPropertyValueBoolean("useStreaming", false);
+    }
+
+    /**
+     * Handles one event of a streamed response
+     */
+    @FunctionalInterface
+    protected interface StreamEventHandler {
+        /**
+         * @param event The parsed data of the event
+         * @param accumulator Collects the response text and usage
+         * @return false to stop reading the stream
+         */
+        boolean onEvent(JsonNode event, ChatStreamAccumulator accumulator);
+    }
+
+    /**
+     * Send a request and read the response as server-sent events, stopping once maxTokens
+     * completion tokens have been received, the "streamingTimeoutSeconds" budget is spent or,
+     * for structured output, the JSON object is complete. A stream stopped early is aborted
+     * rather than closed, which would read it to the end to keep the pooled connection, so the
+     * connection is dropped and the provider stops generating as well. A stream that stalls
+     * is aborted by a timer when the budget runs out, without waiting for the next event.
+     *
+     * @param restTemplate The provider client
+     * @param url The streaming endpoint
+     * @param headers The request headers
+     * @param body The request body
+     * @param prompt The prompt, used to estimate usage if the stream is stopped before the provider reports it
+     * @param maxTokens The maximum number of completion tokens to read
+     * @param structuredOutput Whether the response is a JSON object that can be cut off once complete
+     * @param handler Extracts the text and usage from each event
+     * @return The response
+     */
+    protected ChatModelResponse streamChatResponse(RestTemplate restTemplate, String url, HttpHeaders headers, String body,
+                                                   String prompt, @Nullable Integer maxTokens, boolean structuredOutput,
+                                                   StreamEventHandler handler) {
+        long timeoutMillis = getPropertyValueInt("streamingTimeoutSeconds", DEFAULT_STREAMING_TIMEOUT_SECONDS) * 1000L;
+        ChatStreamAccumulator accumulator = new ChatStreamAccumulator(maxTokens, timeoutMillis, structuredOutput);
+
+        try {
+            HttpHeaders responseHeaders = restTemplate.execute(url, HttpMethod.POST,
+                    request -> {
+                        request.getHeaders().putAll(headers);
+                        request.getHeaders().setAccept(List.of(MediaType.TEXT_EVENT_STREAM));
+                        request.getBody().write(body.getBytes(StandardCharsets.UTF_8));
+                    },
+                    response -> {
+                        InputStream responseBody = response.getBody();
+                        ScheduledFuture<?> deadline = STREAM_DEADLINES.schedule(
+                                () -> abortStream(responseBody), accumulator.remainingMillis() + 1, TimeUnit.MILLISECONDS);
+                        try {
+                            readEvents(responseBody, accumulator, handler);
+                        } finally {
+                            deadline.cancel(false);
+                        }
+                        if (accumulator.getStopReason() != null) {
+                            abortStream(responseBody);
+                        }
+                        return response.getHeaders();
+                    });
+
+            if (accumulator.getStopReason() == ChatStreamAccumulator.StopReason.TIMEOUT) {
+                ChatModelResponse response = handleError("Error: Streaming response exceeded the time budget of "
+                        + timeoutMillis / 1000 + " seconds");
+                response.setRetryable(true);
+                return response;
+            }
+
+            String responseText = accumulator.getText();
+            if (responseText.isEmpty()) {
+                return handleError("Error: No valid response received from API");
+            }
+
+            ChatModelResponse response;
+            if (accumulator.hasUsage()) {
+                response = ChatModelResponse.of(responseText, accumulator.getPromptTokens(), accumulator.getCompletionTokens(),
+                        accumulator.getThinkingTokens(), accumulator.getTotalTokens());
+            } else {
+                // Providers only report usage at the end of the stream, so estimate it when we stopped early
+                int promptTokens = prompt.length() / 4;
+                int completionTokens = accumulator.estimatedCompletionTokens();
+                response = ChatModelResponse.of(responseText, promptTokens, completionTokens, null, promptTokens + completionTokens);
+            }
+
+            if (accumulator.getStopReason() != null) {
+                log.debug("Stopped streaming response from model {} early: {}", getModelId(), accumulator.getStopReason());
+            }
+            return withRateLimitHeaders(response, responseHeaders);
+
+        } catch (Exception e) {
+            if (!accumulator.checkDeadline()) {
+                // The deadline timer aborted a stalled stream
+                ChatModelResponse response = handleError("Error: Streaming response exceeded the time budget of "
+                        + timeoutMillis / 1000 + " seconds");
+                response.setRetryable(true);
+                return response;
+            }
+            return handleError(e);
+        }
+    }
+
+    /**
+     * Drop the connection of a response stream instead of reading it to the end. Streams of the
+     * pooled Apache client are aborted, which discards the connection; others are closed.
+     */
+    static void abortStream(InputStream body) {
+        try {
+            if (body instanceof EofSensorInputStream sensorStream) {
+                sensorStream.abort();
+            } else {
+                body.close();
+            }
+        } catch (IOException e) {
+            log.debug("Error aborting response stream: {}", e.getMessage());
+        }
+    }
+
+    private static ScheduledExecutorService createStreamDeadlineExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "chat-stream-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    private void readEvents(InputStream body, ChatStreamAccumulator accumulator, StreamEventHandler handler) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // Skip comments, event names and the blank lines between events
+            if (!line.startsWith("data:")) {
+                if (!accumulator.checkDeadline()) {
+                    return;
+                }
+                continue;
+            }
+
+            String data = line.substring("data:".length()).trim();
+            if (data.equals("[DONE]")) {
+                return;
+            }
+            if (!data.isEmpty() && !handler.onEvent(STREAM_MAPPER.readTree(data), accumulator)) {
+                return;
+            }
+        }
+    }
+
     public String getModelId() {
         return model.getModelId();
     }
@@ -50,8 +265,116 @@ public abstract class AbstractChatModel {
 
     protected ChatModelResponse handleError(Exception e) {
         String errorMessage = "Error generating chat response: " + e.getMessage();
+        ChatModelResponse response = ChatModelResponse.ofError(errorMessage);
+        response.setRetryable(isRetryableError(e));
+
+        if (e instanceof HttpStatusCodeException statusException) {
+            int status = statusException.getStatusCode().value();
+            response.setHttpStatus(status);
+            response.setRetryAfterMillis(parseRetryAfter(statusException.getResponseHeaders()));
+            withRateLimitHeaders(response, statusException.getResponseHeaders());
+            if (status == 429) {
+                // Throttling is expected under load, no need for a stack trace
+                log.warn("Model {} throttled by provider, retry after {} ms", getModelId(), response.getRetryAfterMillis());
+                return response;
+            }
+        }
+
         log.error(errorMessage, e);
-        return ChatModelResponse.ofError(errorMessage);
+        return response;
+    }
+
+    /**
+     * Whether a failed provider call may succeed if it is repeated: connection failures, read
+     * timeouts, and 408, 429 and 5xx responses
+     *
+     * @param e The exception thrown by the call
+     * @return true for transient failures
+     */
+    public static boolean isRetryableError(Exception e) {
+        if (e instanceof ResourceAccessException) {
+            return true;
+        }
+        if (e instanceof HttpStatusCodeException statusException) {
+            int status = statusException.getStatusCode().value();
+            return status == 408 || status == 429 || status >= 500;
+        }
+        return false;
+    }
+
+    /**
+     * Copy the provider's remaining rate limit headers onto a response
+     *
+     * @param response The response to update
+     * @param headers The provider response headers
+     * @return The response
+     */
+    protected ChatModelResponse withRateLimitHeaders(ChatModelResponse response, @Nullable HttpHeaders headers) {
+        if (headers != null) {
+            response.setRateLimitRemainingRequests(parseIntHeader(headers, "x-ratelimit-remaining-requests"));
+            response.setRateLimitRemainingTokens(parseIntHeader(headers, "x-ratelimit-remaining-tokens"));
+        }
+        return response;
+    }
+
+    /**
+     * Parse retry-after-ms or Retry-After (seconds or an HTTP date) into milliseconds
+     */
+    private Long parseRetryAfter(@Nullable HttpHeaders headers) {
+        if (headers == null) {
+            return null;
+        }
+        try {
+            String retryAfterMs = headers.getFirst("retry-after-ms");
+            if (retryAfterMs != null) {
+                return (long) Double.parseDouble(retryAfterMs);
+            }
+            String retryAfter = headers.getFirst(HttpHeaders.RETRY_AFTER);
+            if (retryAfter == null) {
+                return null;
+            }
+            if (retryAfter.chars().allMatch(Character::isDigit)) {
+                return Long.parseLong(retryAfter) * 1000;
+            }
+            ZonedDateTime retryAt = ZonedDateTime.parse(retryAfter, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(), retryAt).toMillis());
+        } catch (Exception e) {
+            log.debug("Could not parse retry after header: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private Integer parseIntHeader(HttpHeaders headers, String name) {
+        String value = headers.getFirst(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    protected int getPropertyValueInt(String propertyName, int defaultValue) {
+        if (model.getModelProviderProperties() == null) {
+            return defaultValue;
+        }
+        JsonNode value = model.getModelProviderProperties().get(propertyName);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.isNumber()) {
+            return value.asInt(defaultValue);
+        }
+        if (value.isTextual()) {
+            try {
+                return Integer.parseInt(value.asText().trim());
+            } catch (NumberFormatException e) {
+                log.debug("Property '{}' is not a valid integer, returning default: {}", propertyName, defaultValue);
+            }
+        }
+        return defaultValue;
     }
 
     protected boolean getPropertyValueBoolean(String propertyName, boolean defaultValue) {
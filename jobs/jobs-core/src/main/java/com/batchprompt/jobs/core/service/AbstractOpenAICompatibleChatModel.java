@@ -27,6 +27,7 @@ public abstract class AbstractOpenAICompatibleChatModel extends AbstractChatMode
     protected static final Integer DEFAULT_MAX_TOKENS = 2000;
     
     protected final String apiKey;
+    protected final RestTemplate restTemplate;
     protected final ObjectMapper objectMapper = new ObjectMapper();
     
     /**
@@ -41,10 +42,12 @@ public abstract class AbstractOpenAICompatibleChatModel extends AbstractChatMode
      * 
      * @param model The model to use
      * @param apiKey The API key
+     * @param restTemplate The pooled client shared by all models of the provider
      */
-    public AbstractOpenAICompatibleChatModel(Model model, String apiKey) {
+    public AbstractOpenAICompatibleChatModel(Model model, String apiKey, RestTemplate restTemplate) {
         super(model);
         this.apiKey = apiKey;
+        this.restTemplate = restTemplate;
     }
     
     @Override
@@ -61,95 +64,145 @@ public abstract class AbstractOpenAICompatibleChatModel extends AbstractChatMode
             headers.setContentType(MediaType.APPLICATION_JSON);
             headers.setBearerAuth(apiKey);
             
-            // Create request body
-            ObjectNode requestBody = objectMapper.createObjectNode();
-            requestBody.put("model", getProviderModelId());
+            ObjectNode requestBody = buildRequestBody(prompt, outputSchema, maxTokens, temperature);
             
-            // Create messages array
-            ArrayNode messages = requestBody.putArray("messages");
-            
-            // Set parameters with defaults if not provided
-            if (getPropertyValueBoolean("supportsTemperature", true)) {
-                requestBody.put("temperature", temperature != null ? temperature : DEFAULT_TEMPERATURE);
-            }
-
-            String maxTokensProperty = "max_tokens";
-            if (getPropertyValueBoolean("useMaxCompletionTokens", false)) {
-                maxTokensProperty = "max_completion_tokens";
+            if (isStreamingEnabled()) {
+                requestBody.put("stream", true);
+                requestBody.putObject("stream_options").put("include_usage", true);
+                return streamChatResponse(restTemplate, getApiEndpoint(), headers, requestBody.toString(), prompt,
+                        maxTokens != null ? maxTokens : DEFAULT_MAX_TOKENS, outputSchema != null, this::onStreamEvent);
             }
-
-            requestBody.put(maxTokensProperty, maxTokens != null ? maxTokens : DEFAULT_MAX_TOKENS);
-            
-            if (outputSchema != null) {
-                if (getModel().isSimulateStructuredOutput()) {
-                    prompt = simulateStructuredOutput(prompt, outputSchema);
-                } else {
-                    ObjectNode responseFormatNode = objectMapper.createObjectNode();
-                    responseFormatNode.put("type", "json_schema");
-                    ObjectNode jsonSchemaNode = objectMapper.createObjectNode();
-                    jsonSchemaNode.put("name", "response");
-                    jsonSchemaNode.set("schema", outputSchema);
-                    responseFormatNode.set("json_schema", jsonSchemaNode);
-                    requestBody.set("response_format", responseFormatNode);
-                }
-            }
-
-            // User message with prompt and data
-            ObjectNode userMessage = objectMapper.createObjectNode();
-            userMessage.put("role", "user");
-            userMessage.put("content", prompt);
-            messages.add(userMessage);
-            requestBody.set("messages", messages);
             
             // Create request entity
             HttpEntity<String> requestEntity = new HttpEntity<>(requestBody.toString(), headers);
             
             // Send request to API
-            RestTemplate restTemplate = new RestTemplate();
             ResponseEntity<String> response = restTemplate.postForEntity(
                 getApiEndpoint(),
                 requestEntity,
                 String.class
             );
             
-            // Process response
-            JsonNode responseJson = objectMapper.readTree(response.getBody());
-            JsonNode choices = responseJson.get("choices");
-            String responseText = null;
+            return withRateLimitHeaders(parseResponse(objectMapper.readTree(response.getBody())), response.getHeaders());
             
-            if (choices != null && choices.isArray() && choices.size() > 0) {
-                JsonNode firstChoice = choices.get(0);
-                if (firstChoice.has("message") && firstChoice.get("message").has("content")) {
-                    responseText = firstChoice.get("message").get("content").asText();
-                }
+        } catch (Exception e) {
+            return handleError(e);
+        }
+    }
+
+    /**
+     * Read the content delta and, on the final chunk, the token usage from a streamed chat completion chunk
+     */
+    protected boolean onStreamEvent(JsonNode event, ChatStreamAccumulator accumulator) {
+        JsonNode usage = event.get("usage");
+        if (usage != null && !usage.isNull()) {
+            accumulator.setUsage(
+                    usage.has("prompt_tokens") ? usage.get("prompt_tokens").asInt() : null,
+                    usage.has("completion_tokens") ? usage.get("completion_tokens").asInt() : null,
+                    null,
+                    usage.has("total_tokens") ? usage.get("total_tokens").asInt() : null);
+        }
+
+        JsonNode choices = event.get("choices");
+        if (choices != null && choices.isArray() && choices.size() > 0) {
+            return accumulator.append(choices.get(0).path("delta").path("content").asText(null));
+        }
+        return accumulator.checkDeadline();
+    }
+
+    /**
+     * Build the chat completions request body
+     *
+     * @param prompt The prompt text
+     * @param outputSchema Optional JSON schema for structured output
+     * @param maxTokens Optional maximum number of completion tokens
+     * @param temperature Optional temperature
+     * @return The request body
+     */
+    protected ObjectNode buildRequestBody(String prompt, @Nullable JsonNode outputSchema,
+                                          @Nullable Integer maxTokens, @Nullable Double temperature) {
+        // Create request body
+        ObjectNode requestBody = objectMapper.createObjectNode();
+        requestBody.put("model", getProviderModelId());
+
+        // Create messages array
+        ArrayNode messages = requestBody.putArray("messages");
+
+        // Set parameters with defaults if not provided
+        if (getPropertyValueBoolean("supportsTemperature", true)) {
+            requestBody.put("temperature", temperature != null ? temperature : DEFAULT_TEMPERATURE);
+        }
+
+        String maxTokensProperty = "max_tokens";
+        if (getPropertyValueBoolean("useMaxCompletionTokens", false)) {
+            maxTokensProperty = "max_completion_tokens";
+        }
+
+        requestBody.put(maxTokensProperty, maxTokens != null ? maxTokens : DEFAULT_MAX_TOKENS);
+
+        if (outputSchema != null) {
+            if (getModel().isSimulateStructuredOutput()) {
+                prompt = simulateStructuredOutput(prompt, outputSchema);
+            } else {
+                ObjectNode responseFormatNode = objectMapper.createObjectNode();
+                responseFormatNode.put("type", "json_schema");
+                ObjectNode jsonSchemaNode = objectMapper.createObjectNode();
+                jsonSchemaNode.put("name", "response");
+                jsonSchemaNode.set("schema", outputSchema);
+                responseFormatNode.set("json_schema", jsonSchemaNode);
+                requestBody.set("response_format", responseFormatNode);
             }
-            
-            // Extract token usage information
-            Integer promptTokens = null;
-            Integer completionTokens = null;
-            Integer totalTokens = null;
-            
-            if (responseJson.has("usage")) {
-                JsonNode usage = responseJson.get("usage");
-                if (usage.has("prompt_tokens")) {
-                    promptTokens = usage.get("prompt_tokens").asInt();
-                }
-                if (usage.has("completion_tokens")) {
-                    completionTokens = usage.get("completion_tokens").asInt();
-                }
-                if (usage.has("total_tokens")) {
-                    totalTokens = usage.get("total_tokens").asInt();
-                }
+        }
+
+        // User message with prompt and data
+        ObjectNode userMessage = objectMapper.createObjectNode();
+        userMessage.put("role", "user");
+        userMessage.put("content", prompt);
+        messages.add(userMessage);
+        requestBody.set("messages", messages);
+
+        return requestBody;
+    }
+
+    /**
+     * Extract the response text and token usage from a chat completions response body
+     *
+     * @param responseJson The response body
+     * @return The parsed response, or an error response if no content was returned
+     */
+    protected ChatModelResponse parseResponse(JsonNode responseJson) {
+        JsonNode choices = responseJson.get("choices");
+        String responseText = null;
+
+        if (choices != null && choices.isArray() && choices.size() > 0) {
+            JsonNode firstChoice = choices.get(0);
+            if (firstChoice.has("message") && firstChoice.get("message").has("content")) {
+                responseText = firstChoice.get("message").get("content").asText();
             }
+        }
+
+        // Extract token usage information
+        Integer promptTokens = null;
+        Integer completionTokens = null;
+        Integer totalTokens = null;
 
-            if (responseText == null) {
-                return handleError("Error: No valid response received from API");
+        if (responseJson.has("usage")) {
+            JsonNode usage = responseJson.get("usage");
+            if (usage.has("prompt_tokens")) {
+                promptTokens = usage.get("prompt_tokens").asInt();
+            }
+            if (usage.has("completion_tokens")) {
+                completionTokens = usage.get("completion_tokens").asInt();
+            }
+            if (usage.has("total_tokens")) {
+                totalTokens = usage.get("total_tokens").asInt();
             }
-            
-            return ChatModelResponse.of(responseText, promptTokens, completionTokens, null, totalTokens);
-            
-        } catch (Exception e) {
-            return handleError(e);
         }
+
+        if (responseText == null) {
+            return handleError("Error: No valid response received from API");
+        }
+
+        return ChatModelResponse.of(responseText, promptTokens, completionTokens, null, totalTokens);
     }
-}
\ No newline at end of file
+}
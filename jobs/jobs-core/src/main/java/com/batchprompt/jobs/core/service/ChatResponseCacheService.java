@@ -0,0 +1,146 @@
+package com.batchprompt.jobs.core.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.batchprompt.jobs.core.model.ChatModelResponse;
+import com.batchprompt.jobs.core.model.ChatResponseCacheEntry;
+import com.batchprompt.jobs.core.repository.ChatResponseCacheRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Content addressed cache of model responses, so re-running the same prompt over the
+ * same records does not call (and bill) the provider again. Responses are kept in a
+ * size bounded LRU map in each worker, backed by a table shared by all workers. Both
+ * tiers stop returning a response once it is older than ttl-days.
+ */
+@Service
+@Slf4j
+public class ChatResponseCacheService {
+
+    private final ChatResponseCacheRepository chatResponseCacheRepository;
+    private final int ttlDays;
+    private final Map<String, CachedResponse> localCache;
+
+    private record CachedResponse(String responseText, LocalDateTime createdAt) {
+    }
+
+    public ChatResponseCacheService(
+            ChatResponseCacheRepository chatResponseCacheRepository,
+            @Value("${jobs.response-cache.max-local-entries:10000}") int maxLocalEntries,
+            @Value("${jobs.response-cache.ttl-days:30}") int ttlDays) {
+        this.chatResponseCacheRepository = chatResponseCacheRepository;
+        this.ttlDays = ttlDays;
+        this.localCache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > maxLocalEntries;
+            }
+        });
+    }
+
+    /**
+     * Build the cache key for a request
+     *
+     * @param chatModel The model the request is sent to
+     * @param promptText The rendered prompt
+     * @param outputSchema The output schema, if any
+     * @param maxTokens The max tokens parameter, if any
+     * @param temperature The temperature parameter, if any
+     * @return A SHA-256 hex digest identifying the request
+     */
+    public String buildKey(AbstractChatModel chatModel, String promptText, @Nullable JsonNode outputSchema,
+                           @Nullable Integer maxTokens, @Nullable Double temperature) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, chatModel.getModelId());
+            update(digest, chatModel.getProviderModelId());
+            update(digest, String.valueOf(temperature));
+            update(digest, String.valueOf(maxTokens));
+            update(digest, outputSchema != null ? outputSchema.toString() : "");
+            update(digest, promptText);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private void update(MessageDigest digest, String value) {
+        digest.update((value != null ? value : "").getBytes(StandardCharsets.UTF_8));
+        // Separator so adjacent fields cannot run into each other
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Look up a cached response
+     *
+     * @param cacheKey The key from {@link #buildKey}
+     * @return The cached response with zero provider tokens, or null if there is none
+     */
+    public ChatModelResponse get(String cacheKey) {
+        LocalDateTime expiredBefore = LocalDateTime.now().minusDays(ttlDays);
+        CachedResponse cached = localCache.get(cacheKey);
+
+        if (cached != null && cached.createdAt().isBefore(expiredBefore)) {
+            // The shared table may hold a newer entry written after this one was purged
+            localCache.remove(cacheKey);
+            cached = null;
+        }
+        if (cached == null) {
+            ChatResponseCacheEntry entry = chatResponseCacheRepository.findById(cacheKey).orElse(null);
+            if (entry == null || entry.getCreatedAt().isBefore(expiredBefore)) {
+                return null;
+            }
+            cached = new CachedResponse(entry.getResponseText(), entry.getCreatedAt());
+            localCache.put(cacheKey, cached);
+        }
+
+        return ChatModelResponse.of(cached.responseText(), 0, 0, 0, 0);
+    }
+
+    /**
+     * Cache a successful response
+     *
+     * @param cacheKey The key from {@link #buildKey}
+     * @param modelId The model that produced the response
+     * @param response The response
+     */
+    public void put(String cacheKey, String modelId, ChatModelResponse response) {
+        if (response.getErrorMessage() != null || response.getResponseText() == null) {
+            return;
+        }
+
+        LocalDateTime createdAt = LocalDateTime.now();
+        localCache.put(cacheKey, new CachedResponse(response.getResponseText(), createdAt));
+        try {
+            chatResponseCacheRepository.insertIfAbsent(cacheKey, modelId, response.getResponseText(), createdAt);
+        } catch (Exception e) {
+            // The local tier still has it; a missing shared entry only costs another provider call
+            log.warn("Could not store cached response for model {}: {}", modelId, e.getMessage());
+        }
+    }
+
+    /**
+     * Remove shared entries older than the TTL. Runs in applications with scheduling enabled.
+     */
+    @Scheduled(cron = "${jobs.response-cache.purge-cron:0 0 3 * * *}")
+    public void purgeExpiredEntries() {
+        int deleted = chatResponseCacheRepository.deleteByCreatedAtBefore(LocalDateTime.now().minusDays(ttlDays));
+        if (deleted > 0) {
+            log.info("Purged {} expired response cache entries", deleted);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.batchprompt.jobs.core.service;
+
+/**
+ * Collects the text deltas of a streamed chat response and decides when to stop
+ * reading: once the completion reaches maxTokens, once the wall-clock budget is
+ * spent, or - for structured output - as soon as the top level JSON object closes.
+ */
+class ChatStreamAccumulator {
+
+    /**
+     * Why a stream was stopped before the provider finished it
+     */
+    enum StopReason {
+        MAX_TOKENS,
+        TIMEOUT,
+        JSON_COMPLETE
+    }
+
+    // Same rough estimate as job validation: 1 token = 4 characters
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private final StringBuilder text = new StringBuilder();
+    private final Integer maxTokens;
+    private final long deadlineMillis;
+    private final boolean structuredOutput;
+
+    // JSON scanning state, only used for structured output
+    private int depth;
+    private boolean started;
+    private boolean inString;
+    private boolean escaped;
+
+    private StopReason stopReason;
+
+    private Integer promptTokens;
+    private Integer completionTokens;
+    private Integer thinkingTokens;
+    private Integer totalTokens;
+
+    ChatStreamAccumulator(Integer maxTokens, long timeoutMillis, boolean structuredOutput) {
+        this.maxTokens = maxTokens;
+        this.deadlineMillis = System.currentTimeMillis() + timeoutMillis;
+        this.structuredOutput = structuredOutput;
+    }
+
+    /**
+     * Append a text delta from the stream
+     *
+     * @param delta The text received
+     * @return true to keep reading, false if the stream should be aborted
+     */
+    boolean append(String delta) {
+        if (delta == null || delta.isEmpty() || stopReason != null) {
+            return stopReason == null && checkDeadline();
+        }
+
+        for (int i = 0; i < delta.length(); i++) {
+            char c = delta.charAt(i);
+            text.append(c);
+            if (structuredOutput && scanJson(c)) {
+                stopReason = StopReason.JSON_COMPLETE;
+                return false;
+            }
+        }
+
+        if (maxTokens != null && estimatedCompletionTokens() >= maxTokens) {
+            stopReason = StopReason.MAX_TOKENS;
+            return false;
+        }
+        return checkDeadline();
+    }
+
+    /**
+     * @return true while the wall-clock budget has not been spent
+     */
+    boolean checkDeadline() {
+        if (stopReason == null && System.currentTimeMillis() > deadlineMillis) {
+            stopReason = StopReason.TIMEOUT;
+        }
+        return stopReason == null;
+    }
+
+    /**
+     * @return The milliseconds left of the wall-clock budget, never negative
+     */
+    long remainingMillis() {
+        return Math.max(0, deadlineMillis - System.currentTimeMillis());
+    }
+
+    /**
+     * Track object depth outside of string literals
+     *
+     * @return true when the top level object has just closed
+     */
+    private boolean scanJson(char c) {
+        if (inString) {
+            if (escaped) {
+                escaped = false;
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == '"') {
+                inString = false;
+            }
+            return false;
+        }
+
+        switch (c) {
+            case '"':
+                inString = started;
+                return false;
+            case '{':
+            case '[':
+                started = true;
+                depth++;
+                return false;
+            case '}':
+            case ']':
+                if (started) {
+                    depth--;
+                    return depth == 0;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    void setUsage(Integer promptTokens, Integer completionTokens, Integer thinkingTokens, Integer totalTokens) {
+        this.promptTokens = promptTokens;
+        this.completionTokens = completionTokens;
+        this.thinkingTokens = thinkingTokens;
+        this.totalTokens = totalTokens;
+    }
+
+    String getText() {
+        return text.toString();
+    }
+
+    StopReason getStopReason() {
+        return stopReason;
+    }
+
+    boolean hasUsage() {
+        return completionTokens != null || totalTokens != null;
+    }
+
+    Integer getPromptTokens() {
+        return promptTokens;
+    }
+
+    Integer getCompletionTokens() {
+        return completionTokens;
+    }
+
+    Integer getThinkingTokens() {
+        return thinkingTokens;
+    }
+
+    Integer getTotalTokens() {
+        return totalTokens;
+    }
+
+    int estimatedCompletionTokens() {
+        return text.length() / CHARS_PER_TOKEN;
+    }
+}
@@ -1,11 +1,17 @@
 package com.batchprompt.jobs.core.service;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.client.RestTemplate;
 
+import com.batchprompt.jobs.core.model.ChatModelBatchRequest;
+import com.batchprompt.jobs.core.model.ChatModelBatchResult;
 import com.batchprompt.jobs.core.model.ChatModelResponse;
 import com.batchprompt.jobs.core.model.Model;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -23,10 +29,14 @@ import lombok.extern.slf4j.Slf4j;
 public class GeminiChatModel extends AbstractChatModel {
 
     private static final String GEMINI_API_URL = "https://generativelanguage.googleapis.com/v1beta/models/%s:generateContent";
+    private static final String GEMINI_STREAM_API_URL = "https://generativelanguage.googleapis.com/v1beta/models/%s:streamGenerateContent?alt=sse";
+    private static final String GEMINI_BATCH_API_URL = "https://generativelanguage.googleapis.com/v1beta/models/%s:batchGenerateContent";
+    private static final String GEMINI_OPERATION_URL = "https://generativelanguage.googleapis.com/v1beta/%s";
     private static final Double DEFAULT_TEMPERATURE = 0.7;
     private static final Integer DEFAULT_MAX_TOKENS = 2000;
     
     private final String apiKey;
+    private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper = new ObjectMapper();
     
     /**
@@ -34,10 +44,12 @@ public class GeminiChatModel extends AbstractChatModel {
      * 
      * @param providerModelId The name of the Gemini model
      * @param apiKey The Google API key
+     * @param restTemplate The pooled client shared by all Google models
      */
-    public GeminiChatModel(Model model, String apiKey) {
+    public GeminiChatModel(Model model, String apiKey, RestTemplate restTemplate) {
         super(model);
         this.apiKey = apiKey;
+        this.restTemplate = restTemplate;
     }
     
     @Override
@@ -53,36 +65,12 @@ public class GeminiChatModel extends AbstractChatModel {
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_JSON);
             
-            // Create request body - Gemini API uses different structure than OpenAI
-            ObjectNode requestBody = objectMapper.createObjectNode();
-            
-            // Create contents array for the prompt
-            ArrayNode contents = requestBody.putArray("contents");
-            
-            // Create the user message
-            ObjectNode userMessage = objectMapper.createObjectNode();
-            userMessage.put("role", "user");
-            
-            // Create parts array for the message
-            ArrayNode parts = userMessage.putArray("parts");
-            ObjectNode textPart = objectMapper.createObjectNode();
-            
-            // Just use the prompt as is, without appending the schema
-            textPart.put("text", prompt);
-            parts.add(textPart);
+            ObjectNode requestBody = buildRequestBody(prompt, outputSchema, maxTokens, temperature);
             
-            // Add the message to contents
-            contents.add(userMessage);
-            
-            // Set generation configuration with temperature and max tokens
-            ObjectNode generationConfig = requestBody.putObject("generationConfig");
-            generationConfig.put("temperature", temperature != null ? temperature : DEFAULT_TEMPERATURE);
-            generationConfig.put("maxOutputTokens", maxTokens != null ? maxTokens : DEFAULT_MAX_TOKENS);
-            
-            // Add responseSchema to generationConfig if outputSchema is provided
-            if (outputSchema != null) {
-                generationConfig.set("responseSchema", outputSchema);
-                generationConfig.put("responseMimeType", "application/json");
+            if (isStreamingEnabled()) {
+                String streamUrl = String.format(GEMINI_STREAM_API_URL, getProviderModelId()) + "&key=" + apiKey;
+                return streamChatResponse(restTemplate, streamUrl, headers, requestBody.toString(), prompt,
+                        maxTokens != null ? maxTokens : DEFAULT_MAX_TOKENS, outputSchema != null, this::onStreamEvent);
             }
             
             // Create request entity
@@ -92,60 +80,182 @@ public class GeminiChatModel extends AbstractChatModel {
             String apiUrl = String.format(GEMINI_API_URL, getProviderModelId()) + "?key=" + apiKey;
             
             // Send request to Google API
-            RestTemplate restTemplate = new RestTemplate();
             ResponseEntity<String> response = restTemplate.postForEntity(
                 apiUrl,
                 requestEntity,
                 String.class
             );
             
-            // Process response
-            JsonNode responseJson = objectMapper.readTree(response.getBody());
-            String responseText = extractResponseText(responseJson);
-            
-            // Extract token usage if available
-            Integer promptTokens = null;
-            Integer completionTokens = null;
-            Integer thinkingTokens = null;
-            Integer totalTokens = null;
-            
-            if (responseJson.has("usageMetadata")) {
-                JsonNode usageMetadata = responseJson.get("usageMetadata");
-                if (usageMetadata.has("promptTokenCount")) {
-                    promptTokens = usageMetadata.get("promptTokenCount").asInt();
-                }
-                if (usageMetadata.has("candidatesTokenCount")) {
-                    completionTokens = usageMetadata.get("candidatesTokenCount").asInt();
-                }
-                if (usageMetadata.has("thoughtsTokenCount")) {
-                    thinkingTokens = usageMetadata.get("thoughtsTokenCount").asInt();
-                }
-                if (promptTokens != null) {
-                    totalTokens = promptTokens;
-                }
-                if (completionTokens != null) {
-                    totalTokens = (totalTokens != null ? totalTokens : 0) + completionTokens;
-                }
-                if (thinkingTokens != null) {
-                    totalTokens = (totalTokens != null ? totalTokens : 0) + thinkingTokens;
-                }
-            }
-
-            if (responseText == null) {
-                return handleError("No valid response text found in Gemini API response");
-            }
-            
-            return ChatModelResponse.of(responseText, promptTokens, completionTokens, thinkingTokens, totalTokens);
+            return withRateLimitHeaders(parseResponse(objectMapper.readTree(response.getBody())), response.getHeaders());
             
         } catch (Exception e) {
             return handleError(e);
         }
     }
     
+    @Override
+    public boolean supportsBatch() {
+        return getPropertyValueBoolean("supportsBatch", true);
+    }
+
+    /**
+     * Submit the requests inline to the Gemini batch API
+     */
+    @Override
+    public String submitBatch(List<ChatModelBatchRequest> requests) throws Exception {
+        ObjectNode body = objectMapper.createObjectNode();
+        ObjectNode batch = body.putObject("batch");
+        batch.put("display_name", getModelId() + "-" + System.currentTimeMillis());
+        ArrayNode inlinedRequests = batch.putObject("input_config")
+                .putObject("requests")
+                .putArray("requests");
+
+        for (ChatModelBatchRequest request : requests) {
+            ObjectNode inlinedRequest = inlinedRequests.addObject();
+            inlinedRequest.set("request", buildRequestBody(request.getPrompt(), request.getOutputSchema(),
+                    request.getMaxTokens(), request.getTemperature()));
+            inlinedRequest.putObject("metadata").put("key", request.getCustomId());
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        String apiUrl = String.format(GEMINI_BATCH_API_URL, getProviderModelId()) + "?key=" + apiKey;
+        ResponseEntity<String> response = restTemplate.postForEntity(
+                apiUrl, new HttpEntity<>(body.toString(), headers), String.class);
+
+        // The batch is a long running operation named "batches/{id}"
+        String batchName = objectMapper.readTree(response.getBody()).get("name").asText();
+        log.info("Submitted Gemini batch {} with {} requests for model {}", batchName, requests.size(), getModelId());
+        return batchName;
+    }
+
+    @Override
+    public ChatModelBatchResult getBatchResult(String batchId) throws Exception {
+        String apiUrl = String.format(GEMINI_OPERATION_URL, batchId) + "?key=" + apiKey;
+        ResponseEntity<String> response = restTemplate.getForEntity(apiUrl, String.class);
+        JsonNode operation = objectMapper.readTree(response.getBody());
+
+        if (!operation.path("done").asBoolean(false)) {
+            return ChatModelBatchResult.inProgress();
+        }
+
+        if (operation.has("error")) {
+            return ChatModelBatchResult.failed(operation.path("error").path("message").asText());
+        }
+
+        Map<String, ChatModelResponse> responses = new HashMap<>();
+        JsonNode inlinedResponses = operation.path("response").path("inlinedResponses").path("inlinedResponses");
+        for (JsonNode inlinedResponse : inlinedResponses) {
+            String customId = inlinedResponse.path("metadata").path("key").asText();
+            if (inlinedResponse.has("error")) {
+                responses.put(customId, ChatModelResponse.ofError(inlinedResponse.path("error").path("message").asText()));
+            } else {
+                responses.put(customId, parseResponse(inlinedResponse.path("response")));
+            }
+        }
+        return ChatModelBatchResult.completed(responses);
+    }
+
+    /**
+     * Read the text and cumulative usage from a streamed generateContent chunk
+     */
+    private boolean onStreamEvent(JsonNode event, ChatStreamAccumulator accumulator) {
+        JsonNode usageMetadata = event.get("usageMetadata");
+        if (usageMetadata != null) {
+            accumulator.setUsage(
+                    usageMetadata.has("promptTokenCount") ? usageMetadata.get("promptTokenCount").asInt() : null,
+                    usageMetadata.has("candidatesTokenCount") ? usageMetadata.get("candidatesTokenCount").asInt() : null,
+                    usageMetadata.has("thoughtsTokenCount") ? usageMetadata.get("thoughtsTokenCount").asInt() : null,
+                    usageMetadata.has("totalTokenCount") ? usageMetadata.get("totalTokenCount").asInt() : null);
+        }
+        return accumulator.append(extractResponseText(event));
+    }
+
+    /**
+     * Build the generateContent request body - Gemini API uses different structure than OpenAI
+     */
+    private ObjectNode buildRequestBody(String prompt, @Nullable JsonNode outputSchema,
+                                        @Nullable Integer maxTokens, @Nullable Double temperature) {
+        ObjectNode requestBody = objectMapper.createObjectNode();
+
+        // Create contents array for the prompt
+        ArrayNode contents = requestBody.putArray("contents");
+
+        // Create the user message
+        ObjectNode userMessage = objectMapper.createObjectNode();
+        userMessage.put("role", "user");
+
+        // Create parts array for the message
+        ArrayNode parts = userMessage.putArray("parts");
+        ObjectNode textPart = objectMapper.createObjectNode();
+
+        // Just use the prompt as is, without appending the schema
+        textPart.put("text", prompt);
+        parts.add(textPart);
+
+        // Add the message to contents
+        contents.add(userMessage);
+
+        // Set generation configuration with temperature and max tokens
+        ObjectNode generationConfig = requestBody.putObject("generationConfig");
+        generationConfig.put("temperature", temperature != null ? temperature : DEFAULT_TEMPERATURE);
+        generationConfig.put("maxOutputTokens", maxTokens != null ? maxTokens : DEFAULT_MAX_TOKENS);
+
+        // Add responseSchema to generationConfig if outputSchema is provided
+        if (outputSchema != null) {
+            generationConfig.set("responseSchema", outputSchema);
+            generationConfig.put("responseMimeType", "application/json");
+        }
+
+        return requestBody;
+    }
+
+    /**
+     * Extract the response text and token usage from a generateContent response
+     */
+    private ChatModelResponse parseResponse(JsonNode responseJson) {
+        String responseText = extractResponseText(responseJson);
+
+        // Extract token usage if available
+        Integer promptTokens = null;
+        Integer completionTokens = null;
+        Integer thinkingTokens = null;
+        Integer totalTokens = null;
+
+        if (responseJson.has("usageMetadata")) {
+            JsonNode usageMetadata = responseJson.get("usageMetadata");
+            if (usageMetadata.has("promptTokenCount")) {
+                promptTokens = usageMetadata.get("promptTokenCount").asInt();
+            }
+            if (usageMetadata.has("candidatesTokenCount")) {
+                completionTokens = usageMetadata.get("candidatesTokenCount").asInt();
+            }
+            if (usageMetadata.has("thoughtsTokenCount")) {
+                thinkingTokens = usageMetadata.get("thoughtsTokenCount").asInt();
+            }
+            if (promptTokens != null) {
+                totalTokens = promptTokens;
+            }
+            if (completionTokens != null) {
+                totalTokens = (totalTokens != null ? totalTokens : 0) + completionTokens;
+            }
+            if (thinkingTokens != null) {
+                totalTokens = (totalTokens != null ? totalTokens : 0) + thinkingTokens;
+            }
+        }
+
+        if (responseText == null) {
+            return handleError("No valid response text found in Gemini API response");
+        }
+
+        return ChatModelResponse.of(responseText, promptTokens, completionTokens, thinkingTokens, totalTokens);
+    }
+
     /**
      * Extract text from Gemini API response JSON
      */
-    private String extractResponseText(JsonNode responseJson) throws Exception {
+    private String extractResponseText(JsonNode responseJson) {
         if (responseJson.has("candidates") && responseJson.get("candidates").isArray()) {
             JsonNode candidates = responseJson.get("candidates");
             if (candidates.size() > 0) {
@@ -163,4 +273,4 @@ public class GeminiChatModel extends AbstractChatModel {
         }
         return null;
     }
-}
\ No newline at end of file
+}
@@ -76,7 +76,36 @@ public class JobPricingService {
         }
 
         // Find current pricing for the model
-        List<ModelCost> modelCosts = modelCostRepository.findCurrentCostsForModel(modelId);
+        return calculateCost(getCurrentModelCosts(modelId), modelId, promptTokens, completionTokens, thinkingTokens);
+    }
+
+    /**
+     * Get the pricing tiers currently in effect for a model, so callers pricing many tasks
+     * can load them once and pass them to {@link #calculateCost(List, String, Integer, Integer, Integer)}
+     *
+     * @param modelId The ID of the model
+     * @return The current pricing tiers, most recent first
+     */
+    public List<ModelCost> getCurrentModelCosts(String modelId) {
+        return modelCostRepository.findCurrentCostsForModel(modelId);
+    }
+
+    /**
+     * Calculate the cost based on token counts using pricing tiers that were already loaded
+     *
+     * @param modelCosts The model's current pricing tiers
+     * @param modelId The ID of the model used
+     * @param promptTokens The number of input/prompt tokens
+     * @param completionTokens The number of output/completion tokens
+     * @param thinkingTokens The number of thinking tokens (optional)
+     * @return The calculated cost in USD, or null if cost cannot be calculated
+     */
+    public Double calculateCost(List<ModelCost> modelCosts, String modelId, Integer promptTokens, Integer completionTokens, Integer thinkingTokens) {
+        if (modelId == null || promptTokens == null || completionTokens == null) {
+            log.warn("Cannot calculate cost: model ID or token counts are null");
+            return null;
+        }
+
         if (modelCosts.isEmpty()) {
             log.warn("No pricing information found for model: {}", modelId);
             return null;
@@ -2,19 +2,21 @@ package com.batchprompt.jobs.core.service;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.function.Consumer;
 
-import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
-import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.transaction.support.TransactionSynchronization;
-import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.batchprompt.files.client.FileClient;
 import com.batchprompt.files.model.FileStatus;
@@ -25,10 +27,12 @@ import com.batchprompt.jobs.core.model.JobOutputField;
 import com.batchprompt.jobs.core.model.JobTask;
 import com.batchprompt.jobs.core.repository.JobOutputFieldRepository;
 import com.batchprompt.jobs.core.repository.JobRepository;
+import com.batchprompt.jobs.core.repository.JobTaskBatchRepository;
 import com.batchprompt.jobs.core.repository.JobTaskRepository;
-import com.batchprompt.jobs.core.repository.dto.TaskStatusCount;
+import com.batchprompt.jobs.core.repository.dto.TaskSubmission;
 import com.batchprompt.jobs.core.specification.JobSpecification;
 import com.batchprompt.jobs.model.JobStatus;
+import com.batchprompt.jobs.model.OutputFormat;
 import com.batchprompt.jobs.model.TaskStatus;
 import com.batchprompt.jobs.model.dto.JobDefinitionDto;
 import com.batchprompt.jobs.model.dto.JobOutputMessage;
@@ -46,15 +50,25 @@ import lombok.extern.slf4j.Slf4j;
 @RequiredArgsConstructor
 public class JobService {
 
+    // Job statuses that may be changed automatically as tasks finish
+    private static final List<String> AUTO_UPDATE_STATUSES = List.of(
+            JobStatus.SUBMITTED.name(),
+            JobStatus.PROCESSING.name(),
+            JobStatus.VALIDATING.name(),
+            JobStatus.PENDING_VALIDATION.name());
+
     private final JobRepository jobRepository;
     private final JobTaskRepository jobTaskRepository;
+    private final JobTaskBatchRepository jobTaskBatchRepository;
     private final JobOutputFieldRepository jobOutputFieldRepository;
     private final FileClient fileClient;
     private final PromptClient promptClient;
     private final ModelService modelService;
     private final MessageProducer messageProducer;
-    private final ObjectProvider<JobService> selfProvider;
     private final JobNotificationService jobNotificationService;
+
+    @Value("${jobs.submit.chunk-size:1000}")
+    private int submitChunkSize;
     
     /**
      * Get all jobs
@@ -145,6 +159,11 @@ public class JobService {
         if (!modelService.isModelSupported(jobDefinitionDto.getModelId())) {
             throw new JobSubmissionException("Unsupported model: " + jobDefinitionDto.getModelId());
         }
+
+        boolean batchMode = Boolean.TRUE.equals(jobDefinitionDto.getBatchMode());
+        if (batchMode && !modelService.getChatModel(jobDefinitionDto.getModelId()).supportsBatch()) {
+            throw new JobSubmissionException("Model does not support batch mode: " + jobDefinitionDto.getModelId());
+        }
         
         // Validate file exists and belongs to the user
         FileDto file = fileClient.getFile(jobDefinitionDto.getFileUuid(), authToken);
@@ -186,10 +205,15 @@ public class JobService {
                 .modelId(jobDefinitionDto.getModelId())
                 .status(JobStatus.PENDING_VALIDATION)
                 .completedTaskCount(0)
+                .failedTaskCount(0)
+                .insufficientCreditsTaskCount(0)
                 .maxTokens(jobDefinitionDto.getMaxTokens())
                 .temperature(jobDefinitionDto.getTemperature())
                 .maxRecords(jobDefinitionDto.getMaxRecords())
                 .startRecordNumber(jobDefinitionDto.getStartRecordNumber())
+                .batchMode(batchMode)
+                .useResponseCache(!Boolean.FALSE.equals(jobDefinitionDto.getUseResponseCache()))
+                .outputFormat(jobDefinitionDto.getOutputFormat() != null ? jobDefinitionDto.getOutputFormat() : OutputFormat.XLSX)
                 .createdAt(now)
                 .updatedAt(now)
                 .build();
@@ -226,15 +250,8 @@ public class JobService {
                 .jobUuid(job.getJobUuid())
                 .build();
 
-                // Register a callback to be executed after the transaction is successfully committed
-        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
-            @Override
-            public void afterCommit() {
-                // Send the validation message
-                messageProducer.sendJobValidation(validationMessage);
-                log.info("Sent job validation message for job {} after transaction commit", job.getJobUuid());
-            }
-        });
+        // Written to the outbox with the job, and published once the transaction commits
+        messageProducer.enqueueJobValidation(validationMessage);
         
         log.info("Job {} submitted for file {} and prompt {}", jobUuid, jobDefinitionDto.getFileUuid(), jobDefinitionDto.getPromptUuid());
         
@@ -259,17 +276,14 @@ public class JobService {
             throw new JobSubmissionException("Job is not in VALIDATED status: " + job.getStatus());
         }
         
-        // Retrieve the tasks for the job
-        List<JobTask> tasks = jobTaskRepository.findByJobUuid(jobUuid);
-
         // Update the job status to SUBMITTED
         job.setStatus(JobStatus.SUBMITTED);
         job.setUpdatedAt(LocalDateTime.now());
         jobRepository.save(job);
         jobNotificationService.sendJobUpdateNotification(job);
         
-        // Submit all tasks (no status filter)
-        int tasksSubmitted = submitJobTasks(job, tasks, null);
+        // Submit all tasks
+        int tasksSubmitted = submitJobTasks(job, EnumSet.allOf(TaskStatus.class));
 
         PromptJobInfoDto promptJobInfo = PromptJobInfoDto.builder()
                 .jobRunCountIncrement(1)
@@ -326,187 +340,68 @@ public class JobService {
     }
     
     /**
-     * Update job status based on the status of its tasks
+     * Move a submitted job to PROCESSING once its first task starts. After that this is a
+     * single update that matches no rows.
      * 
      * @param jobUuid The UUID of the job to update
      */
-
-    public void updateJobStatus(UUID jobUuid) {
-        final int MAX_RETRIES = 10;
-        int retryCount = 0;
-        while (true) {
-            try {
-                
-                /*
-                 * Need a separate transaction for each retry. In order to do that, we need to
-                 * call updateJobStatusNoRetry() from self to ensure the spring proxy is used
-                 * and the transaction is created correctly.
-                 */
-                var self = selfProvider.getIfAvailable();
-                if (self == null) {
-                    throw new IllegalStateException("Self provider is not available");
-                }
-                self.updateJobStatusNoRetry(jobUuid);
-                break; // Exit loop if successful
-            } catch (ObjectOptimisticLockingFailureException e) {
-                // Handle optimistic locking exception - this happens when another thread has updated the job
-                if (retryCount < MAX_RETRIES) {
-                    log.info("Optimistic locking conflict detected for job {}, retrying update ({}/{})", 
-                        jobUuid, retryCount + 1, MAX_RETRIES);
-                    
-                    // Exponential backoff to reduce contention
-                    try {
-                        // Base delay of 50ms with exponential increase and some randomness
-                        long delay = (long) (50 * Math.pow(1.5, retryCount) + Math.random() * 50);
-                        Thread.sleep(delay);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        log.warn("Thread interrupted during retry delay for job {}", jobUuid);
-                        return; // Exit on interruption
-                    }
-                    
-                    retryCount++;
-                } else {
-                    log.error("Failed to update job {} status after {} retries due to concurrent modifications", 
-                        jobUuid, MAX_RETRIES);
-                    throw e;
-                }
-            }
-        }    
-    }
-    
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public void updateJobStatusNoRetry(UUID jobUuid) {
-        
-        Job job = jobRepository.findById(jobUuid).orElse(null);
-        if (job == null) {
-            log.error("Job not found: {}", jobUuid);
-            return;
+    @Transactional
+    public void markJobProcessing(UUID jobUuid) {
+        if (jobRepository.transitionStatus(jobUuid, List.of(JobStatus.SUBMITTED.name()), JobStatus.PROCESSING.name()) > 0) {
+            jobRepository.findById(jobUuid).ifPresent(jobNotificationService::sendJobUpdateNotification);
+            log.info("Updated job {} status to {}", jobUuid, JobStatus.PROCESSING);
         }
-        
-        // Get the total number of tasks for this job
-        Long totalTaskCount = jobTaskRepository.countByJobUuid(jobUuid);
-        if (totalTaskCount == null || totalTaskCount == 0) {
-            log.error("No tasks found for job: {}", jobUuid);
+    }
+
+    /**
+     * Add the job's newly finished tasks to its counters and move the job on when that
+     * finishes it. Called by {@link JobStatusUpdater} at most once per flush interval for
+     * each job that had tasks finish. Tasks are only counted once however often this runs,
+     * and the status transitions are conditional updates, so PENDING_OUTPUT and
+     * INSUFFICIENT_CREDITS are each reached exactly once.
+     * 
+     * @param jobUuid The UUID of the job to update
+     */
+    @Transactional
+    public void updateTaskCounts(UUID jobUuid) {
+        if (jobRepository.countFinishedTasks(jobUuid) == 0) {
+            log.debug("No newly finished tasks for job {}", jobUuid);
             return;
         }
-        
-        // Get the counts by status in a single query instead of loading all tasks
-        List<TaskStatusCount> statusCounts = jobTaskRepository.countTasksByStatus(jobUuid);
-        
-        int completedCount = 0;
-        int failedCount = 0;
-        int insufficientCreditsCount = 0;
-        double creditsUsed = 0.0;
-        // Process the counts from the query results
-        for (TaskStatusCount statusCount : statusCounts) {
-            if (statusCount.getStatus() == TaskStatus.COMPLETED) {
-                completedCount = statusCount.getCount().intValue();
-            } else if (statusCount.getStatus() == TaskStatus.FAILED) {
-                failedCount = statusCount.getCount().intValue();
-            } else if (statusCount.getStatus() == TaskStatus.INSUFFICIENT_CREDITS) {
-                insufficientCreditsCount = statusCount.getCount().intValue();
-            }
-            if (statusCount.getCreditsUsed() != null) {
-                creditsUsed += statusCount.getCreditsUsed();
-            }
-        }
-            
-        // We only update the count if it has changed
-        int completedTaskCount = completedCount + failedCount;
-        boolean countsChanged = job.getCompletedTaskCount() != completedTaskCount; 
-        if (countsChanged) {
-            job.setCompletedTaskCount(completedTaskCount);
-        }
 
-        boolean creditsChanged = false;
-        if (job.getCreditUsage() == null) {
-            job.setCreditUsage(creditsUsed);
-            creditsChanged = true;
-        } else if (job.getCreditUsage() != creditsUsed) {
-            job.setCreditUsage(creditsUsed);
-            creditsChanged = true;
-        }        
-        
-        // Re-read job status to ensure we're working with the most current state
-        // This helps prevent race conditions where another process changed the status
-        // since we loaded the job
-        JobStatus currentStatus = job.getStatus();
-        
-        JobStatus newStatus = null;
-        
         // Only change status if in a legal state for automatic transitions
         // This prevents overriding manual status changes like CANCELLED
-        boolean isEligibleForAutoUpdate = 
-            currentStatus == JobStatus.SUBMITTED || 
-            currentStatus == JobStatus.PROCESSING || 
-            currentStatus == JobStatus.VALIDATING || 
-            currentStatus == JobStatus.PENDING_VALIDATION;
-            
-        if (isEligibleForAutoUpdate) {
-            // Check for insufficient credits first - if any task has insufficient credits, mark the whole job
-            if (insufficientCreditsCount > 0) {
-                newStatus = JobStatus.INSUFFICIENT_CREDITS;
-            }
-            // If no insufficient credits but all tasks are done, mark as pending output
-            else if (completedTaskCount == totalTaskCount) {
-                // All tasks are completed or failed, update to PENDING_OUTPUT
-                newStatus = JobStatus.PENDING_OUTPUT;
-            } else if (currentStatus == JobStatus.SUBMITTED) {
-                // First task started processing
-                newStatus = JobStatus.PROCESSING;
-            }
+        JobStatus newStatus = null;
+        if (jobRepository.transitionStatusIfInsufficientCredits(jobUuid, AUTO_UPDATE_STATUSES, JobStatus.INSUFFICIENT_CREDITS.name()) > 0) {
+            // If any task has insufficient credits, mark the whole job
+            newStatus = JobStatus.INSUFFICIENT_CREDITS;
+        } else if (jobRepository.transitionStatusIfAllTasksFinished(jobUuid, AUTO_UPDATE_STATUSES, JobStatus.PENDING_OUTPUT.name()) > 0) {
+            newStatus = JobStatus.PENDING_OUTPUT;
         }
-        
-        // Only save if there are actual changes to make
-        if (countsChanged || creditsChanged || (newStatus != null && job.getStatus() != newStatus)) {
-            if (newStatus != null) {
-                job.setStatus(newStatus);
-            }
-            job.setUpdatedAt(LocalDateTime.now());
-            
-            try {
-                job = jobRepository.save(job);
-                jobNotificationService.sendJobUpdateNotification(job);
-                
-                // If all tasks completed and we're not in INSUFFICIENT_CREDITS, queue for output processing
-                if (newStatus == JobStatus.PENDING_OUTPUT) {
-                    log.info("All tasks completed for job {}. Setting status to {} and queueing for output processing", 
-                                jobUuid, newStatus);
-                                
-                    // Queue the job for output processing after the transaction is committed
-                    final UUID finalJobUuid = job.getJobUuid();
-                    final String userId = job.getUserId();
-                    final boolean hasErrors = failedCount > 0;
-                    
-                    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
-                        @Override
-                        public void afterCommit() {
-                            // Send job output processing message
-                            JobOutputMessage outputMessage = JobOutputMessage.builder()
-                                    .jobUuid(finalJobUuid)
-                                    .userId(userId)
-                                    .hasErrors(hasErrors)
-                                    .build();
-                            
-                            messageProducer.sendJobOutput(outputMessage);
-                            log.info("Sent job output message for job {} after transaction commit", finalJobUuid);
-                        }
-                    });
-                } else if (newStatus == JobStatus.INSUFFICIENT_CREDITS) {
-                    log.warn("Job {} marked as INSUFFICIENT_CREDITS ({} tasks with insufficient credits)", 
-                            jobUuid, insufficientCreditsCount);
-                } else if (countsChanged || newStatus != null) {
-                    log.info("Updated job {} status to {}, completed tasks: {}/{}", 
-                        jobUuid, job.getStatus(), job.getCompletedTaskCount(), totalTaskCount);
-                }
-            } catch (ObjectOptimisticLockingFailureException e) {
-                // Explicitly throw this to be handled by the retry mechanism in updateJobStatus
-                log.debug("Optimistic locking failure while saving job {}", jobUuid);
-                throw e;
-            }
+
+        Job job = jobRepository.findById(jobUuid).orElse(null);
+        if (job == null) {
+            return;
+        }
+        jobNotificationService.sendJobUpdateNotification(job);
+
+        if (newStatus == JobStatus.PENDING_OUTPUT) {
+            log.info("All tasks completed for job {}. Setting status to {} and queueing for output processing", 
+                        jobUuid, newStatus);
+
+            // Queue the job for output processing through the outbox, in the same transaction as the status change
+            JobOutputMessage outputMessage = JobOutputMessage.builder()
+                    .jobUuid(jobUuid)
+                    .userId(job.getUserId())
+                    .hasErrors(job.getFailedTaskCount() > 0)
+                    .build();
+            messageProducer.enqueueJobOutput(outputMessage);
+        } else if (newStatus == JobStatus.INSUFFICIENT_CREDITS) {
+            log.warn("Job {} marked as INSUFFICIENT_CREDITS ({} tasks with insufficient credits)", 
+                    jobUuid, job.getInsufficientCreditsTaskCount());
         } else {
-            log.debug("No changes to save for job {}", jobUuid);
+            log.debug("Updated job {} counters, completed tasks: {}/{}", 
+                jobUuid, job.getCompletedTaskCount(), job.getTaskCount());
         }
     }
 
@@ -591,8 +486,9 @@ public class JobService {
             throw new JobSubmissionException("Cannot delete job in status: " + job.getStatus() + ". Only completed, failed, or cancelled jobs can be deleted.");
         }
         
-        // Delete all job tasks first (due to foreign key constraints)
+        // Delete all job tasks and provider batches first (due to foreign key constraints)
         jobTaskRepository.deleteByJobUuid(jobUuid);
+        jobTaskBatchRepository.deleteByJobUuid(jobUuid);
         
         // Delete all job output fields
         jobOutputFieldRepository.deleteByJob(job);
@@ -621,9 +517,6 @@ public class JobService {
             throw new JobSubmissionException("Job is not in CANCELLED or INSUFFICIENT_CREDITS status: " + job.getStatus());
         }
         
-        // Retrieve the tasks for the job
-        List<JobTask> tasks = jobTaskRepository.findByJobUuid(jobUuid);
-
         // Update the job status to SUBMITTED
         job.setStatus(JobStatus.SUBMITTED);
         job.setUpdatedAt(LocalDateTime.now());
@@ -634,65 +527,71 @@ public class JobService {
         List<TaskStatus> statusesToResubmit = List.of(TaskStatus.CANCELLED, TaskStatus.SUBMITTED, TaskStatus.INSUFFICIENT_CREDITS);
         
         // Submit the job tasks that match the statuses to be resubmitted
-        int tasksSubmitted = submitJobTasks(job, tasks, statusesToResubmit);
+        int tasksSubmitted = submitJobTasks(job, statusesToResubmit);
+
+        // The resubmitted tasks no longer count as finished; recount the tasks that still are
+        jobTaskRepository.resetCounted(jobUuid);
+        jobRepository.setTaskCounts(jobUuid, 0, 0, 0, 0.0);
+        jobRepository.countFinishedTasks(jobUuid);
         
         log.info("Job {} continued and submitted for processing with {} tasks resubmitted", jobUuid, tasksSubmitted);
         return job;
     }
     
     /**
-     * Private helper method to submit tasks for a job
+     * Private helper method to submit tasks for a job. The tasks are moved to SUBMITTED with
+     * a single update, and their messages are written to the outbox a chunk at a time in the
+     * same transaction, so memory use and the number of statements per chunk do not grow
+     * with the job.
      * 
      * @param job The job to submit tasks for
-     * @param tasks The list of all tasks for the job
-     * @param statuses The list of task statuses to consider for submission (null or empty list for all)
+     * @param statuses The task statuses to submit
      * @return The number of tasks submitted
      */
-    private int submitJobTasks(Job job, List<JobTask> tasks, List<TaskStatus> statuses) {
-        List<JobTaskMessage> messagesToSend = new ArrayList<>();
+    private int submitJobTasks(Job job, Collection<TaskStatus> statuses) {
+        int tasksSubmitted = jobTaskRepository.submitTasks(job.getJobUuid(), statuses);
 
-        for (JobTask task : tasks) {
-            // Skip tasks that don't match the status filter (if provided)
-            if (statuses != null && !statuses.isEmpty() && !statuses.contains(task.getStatus())) {
-                continue;
-            }
-            
-            // Create the message but don't send it yet
-            JobTaskMessage message = JobTaskMessage.builder()
-                    .jobTaskUuid(task.getJobTaskUuid())
-                    .jobUuid(task.getJobUuid())
-                    .userId(job.getUserId())
-                    .fileRecordUuid(task.getFileRecordUuid())
-                    .modelId(task.getModelId())
-                    .promptUuid(job.getPromptUuid())
-                    .maxTokens(job.getMaxTokens())
-                    .temperature(job.getTemperature())
-                    .build();
-                    
-            messagesToSend.add(message);
-            
-            // Update task status to SUBMITTED
-            if (task.getStatus() != TaskStatus.SUBMITTED) {
-                task.setStatus(TaskStatus.SUBMITTED);
-                jobTaskRepository.save(task);
-            }
+        // Batch mode jobs are picked up from the database by the batch worker instead of the task queues
+        if (job.isBatchMode()) {
+            log.info("Marked {} tasks of batch mode job {} as submitted", tasksSubmitted, job.getJobUuid());
+            return tasksSubmitted;
         }
 
-        // Register a callback to be executed after the transaction is successfully committed
-        final int messageCount = messagesToSend.size();
-        if (messageCount > 0) {
-            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
-                @Override
-                public void afterCommit() {
-                    // Now that the transaction has committed, send all messages
-                    for (JobTaskMessage message : messagesToSend) {
-                        messageProducer.sendJobTask(message);
-                    }
-                    log.info("Sent {} job task messages for job {} after transaction commit", messageCount, job.getJobUuid());
-                }
-            });
+        if (tasksSubmitted > 0) {
+            int messageCount = enqueueTaskMessages(job);
+            log.info("Queued {} job task messages for job {}", messageCount, job.getJobUuid());
         }
         
-        return messageCount;
+        return tasksSubmitted;
+    }
+
+    /**
+     * Write a message for every SUBMITTED task of a job to the outbox, reading the tasks in
+     * record order one chunk at a time
+     * 
+     * @param job The job
+     * @return The number of messages written
+     */
+    private int enqueueTaskMessages(Job job) {
+        int messageCount = 0;
+        int afterRecordNumber = Integer.MIN_VALUE;
+        Pageable chunk = PageRequest.of(0, submitChunkSize);
+        while (true) {
+            List<TaskSubmission> tasks = jobTaskRepository.findTaskSubmissions(
+                    job.getJobUuid(), TaskStatus.SUBMITTED, afterRecordNumber, chunk);
+            // Messages only carry the task id; the model decides which queue they go to
+            Map<String, List<JobTaskMessage>> messagesByModel = new HashMap<>();
+            for (TaskSubmission task : tasks) {
+                messagesByModel.computeIfAbsent(task.getModelId(), modelId -> new ArrayList<>())
+                        .add(new JobTaskMessage(task.getJobTaskUuid()));
+            }
+            messagesByModel.forEach(messageProducer::enqueueJobTasks);
+            messageCount += tasks.size();
+
+            if (tasks.size() < submitChunkSize) {
+                return messageCount;
+            }
+            afterRecordNumber = tasks.get(tasks.size() - 1).getRecordNumber();
+        }
     }
-}
\ No newline at end of file
+}
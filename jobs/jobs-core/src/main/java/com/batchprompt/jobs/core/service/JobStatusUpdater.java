@@ -0,0 +1,92 @@
+package com.batchprompt.jobs.core.service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.batchprompt.jobs.core.repository.JobRepository;
+import com.batchprompt.jobs.model.JobStatus;
+
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Coalesces job status updates. Workers only mark a job as dirty when one of its tasks
+ * starts or finishes; each dirty job is then updated (and a single notification sent)
+ * at most once per flush interval, however many of its tasks finished in between.
+ * Runs in applications with scheduling enabled.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class JobStatusUpdater {
+
+    // Jobs whose tasks may still be running; swept in case a worker stopped before flushing them
+    private static final List<JobStatus> ACTIVE_JOB_STATUSES = List.of(JobStatus.SUBMITTED, JobStatus.PROCESSING);
+
+    private final JobService jobService;
+    private final JobRepository jobRepository;
+
+    private final Set<UUID> startedJobs = ConcurrentHashMap.newKeySet();
+    private final Set<UUID> dirtyJobs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Note that a task of the job has started, so a submitted job is moved to PROCESSING
+     *
+     * @param jobUuid The job
+     */
+    public void taskStarted(UUID jobUuid) {
+        startedJobs.add(jobUuid);
+    }
+
+    /**
+     * Note that tasks of the job have finished, so they are added to the job's counters
+     *
+     * @param jobUuid The job
+     */
+    public void tasksFinished(UUID jobUuid) {
+        dirtyJobs.add(jobUuid);
+    }
+
+    @Scheduled(fixedDelayString = "${jobs.status-updater.flush-interval-ms:1000}")
+    public void flush() {
+        for (UUID jobUuid : startedJobs) {
+            startedJobs.remove(jobUuid);
+            try {
+                jobService.markJobProcessing(jobUuid);
+            } catch (Exception e) {
+                log.error("Error updating status of job {}: {}", jobUuid, e.getMessage(), e);
+            }
+        }
+
+        for (UUID jobUuid : dirtyJobs) {
+            dirtyJobs.remove(jobUuid);
+            try {
+                jobService.updateTaskCounts(jobUuid);
+            } catch (Exception e) {
+                // Nothing was counted; try again on the next flush
+                log.error("Error updating task counts of job {}: {}", jobUuid, e.getMessage(), e);
+                dirtyJobs.add(jobUuid);
+            }
+        }
+    }
+
+    /**
+     * Tasks are marked counted in the database, not here, so a worker that stopped
+     * before its last flush only delays the update until the next sweep
+     */
+    @Scheduled(fixedDelayString = "${jobs.status-updater.sweep-interval-ms:300000}")
+    public void sweepActiveJobs() {
+        dirtyJobs.addAll(jobRepository.findJobUuidsByStatusIn(ACTIVE_JOB_STATUSES));
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+}
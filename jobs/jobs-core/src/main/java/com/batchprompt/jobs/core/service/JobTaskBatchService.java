@@ -0,0 +1,76 @@
+package com.batchprompt.jobs.core.service;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.batchprompt.jobs.core.model.Job;
+import com.batchprompt.jobs.core.model.JobTaskBatch;
+import com.batchprompt.jobs.core.model.JobTaskBatch.BatchStatus;
+import com.batchprompt.jobs.core.repository.JobTaskBatchRepository;
+import com.batchprompt.jobs.core.repository.JobTaskRepository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Service for claiming tasks into provider batches and releasing them again
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class JobTaskBatchService {
+
+    private final JobTaskRepository jobTaskRepository;
+    private final JobTaskBatchRepository jobTaskBatchRepository;
+
+    /**
+     * Claim up to limit unbatched tasks of a job and record them as a PENDING batch.
+     * The claim and the batch row commit together, so claimed tasks always have a batch
+     * the recovery sweep can find.
+     *
+     * @param job The batch mode job
+     * @param limit The maximum number of tasks to claim
+     * @return The PENDING batch, or null if there were no tasks to claim
+     */
+    @Transactional
+    public JobTaskBatch claimBatch(Job job, int limit) {
+        UUID batchUuid = UUID.randomUUID();
+        int claimed = jobTaskRepository.claimTasksForBatch(job.getJobUuid(), batchUuid, limit);
+        if (claimed == 0) {
+            return null;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        JobTaskBatch batch = JobTaskBatch.builder()
+                .jobTaskBatchUuid(batchUuid)
+                .jobUuid(job.getJobUuid())
+                .modelId(job.getModelId())
+                .status(BatchStatus.PENDING)
+                .taskCount(claimed)
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+        return jobTaskBatchRepository.save(batch);
+    }
+
+    /**
+     * Release the tasks of a PENDING batch so they are claimed again, and mark the batch FAILED
+     *
+     * @param jobTaskBatchUuid The batch UUID
+     * @param errorMessage Why the batch was released
+     * @return The number of tasks released, 0 if the batch was no longer PENDING
+     */
+    @Transactional
+    public int releaseBatch(UUID jobTaskBatchUuid, String errorMessage) {
+        if (jobTaskBatchRepository.transitionStatus(jobTaskBatchUuid, BatchStatus.PENDING,
+                BatchStatus.FAILED, errorMessage) == 0) {
+            return 0;
+        }
+        int released = jobTaskRepository.releaseBatchTasks(jobTaskBatchUuid);
+        log.info("Released {} tasks of batch {}: {}", released, jobTaskBatchUuid, errorMessage);
+        return released;
+    }
+}
@@ -1,10 +1,24 @@
 package com.batchprompt.jobs.core.service;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.AbstractJavaTypeMapper;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.batchprompt.jobs.core.QueueHelper;
 import com.batchprompt.jobs.core.exception.JobSubmissionException;
+import com.batchprompt.jobs.core.model.OutboxMessage;
+import com.batchprompt.jobs.core.repository.OutboxMessageRepository;
 import com.batchprompt.jobs.model.dto.JobOutputMessage;
 import com.batchprompt.jobs.model.dto.JobTaskMessage;
 import com.batchprompt.jobs.model.dto.JobValidationMessage;
@@ -19,6 +33,9 @@ public class MessageProducer {
 
     private final RabbitTemplate rabbitTemplate;
     private final ModelService modelService;
+    private final QueueHelper queueHelper;
+    private final OutboxMessageRepository outboxMessageRepository;
+    private final OutboxRelay outboxRelay;
     
     @Value("${rabbitmq.exchange.name}")
     private String exchangeName;
@@ -30,50 +47,121 @@ public class MessageProducer {
     private String jobsValidationRoutingKey;
     
     /**
-     * Send a job task message to the appropriate queue based on the model id.
+     * Write job task messages to the outbox in the caller's transaction. They are published
+     * by {@link OutboxRelay} once the transaction commits.
      * 
-     * @param jobTaskMessage The job task message to send
+     * @param modelId The model of the tasks, which decides their queue
+     * @param jobTaskMessages The job task messages
      * @throws JobSubmissionException If there's an issue with the queue
      */
-    public void sendJobTask(JobTaskMessage jobTaskMessage) {
-        String modelId = jobTaskMessage.getModelId();
-        String queueName = modelService.getQueueForModel(modelId);
-        
-        if (queueName == null || queueName.isEmpty()) {
-            log.error("No queue configured for model: {}", modelId);
-            throw new JobSubmissionException("No queue configured for model: " + modelId);
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void enqueueJobTasks(String modelId, List<JobTaskMessage> jobTaskMessages) {
+        String queueName = getQueueName(modelId);
+        List<OutboxMessage> outboxMessages = new ArrayList<>(jobTaskMessages.size());
+        for (JobTaskMessage jobTaskMessage : jobTaskMessages) {
+            outboxMessages.add(toOutboxMessage(exchangeName, queueName, jobTaskMessage));
         }
+        enqueue(outboxMessages);
+    }
 
-        try {
-            // Send the message to the model-specific queue
-            log.info("Sending job task message via {} to queue '{}': {}", exchangeName, queueName, jobTaskMessage.getJobTaskUuid());
-            rabbitTemplate.convertAndSend(exchangeName, queueName, jobTaskMessage);
-            log.info("Job task message sent via {} to queue '{}': {}", exchangeName, queueName, jobTaskMessage.getJobTaskUuid());
-        } catch (Exception e) {
-            log.error("Error sending job task message to queue: {}", queueName, e);
-            throw new JobSubmissionException("Error sending job task message to queue: " + queueName);
-        }
+    /**
+     * Write a job output message to the outbox in the caller's transaction
+     * 
+     * @param outputMessage The output message
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void enqueueJobOutput(JobOutputMessage outputMessage) {
+        enqueue(List.of(toOutboxMessage(exchangeName, jobsOutputRoutingKey, outputMessage)));
     }
-    
+
     /**
-     * Send a job output message to the output queue
+     * Write a job validation message to the outbox in the caller's transaction
      * 
-     * @param outputMessage The output message to send
+     * @param validationMessage The validation message
      */
-    public void sendJobOutput(JobOutputMessage outputMessage) {
-        log.info("Sending job output message to queue: {}", outputMessage.getJobUuid());
-        rabbitTemplate.convertAndSend(exchangeName, jobsOutputRoutingKey, outputMessage);
-        log.info("Job output message sent to queue: {}", outputMessage.getJobUuid());
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void enqueueJobValidation(JobValidationMessage validationMessage) {
+        enqueue(List.of(toOutboxMessage(exchangeName, jobsValidationRoutingKey, validationMessage)));
     }
-    
+
+    private void enqueue(List<OutboxMessage> outboxMessages) {
+        if (outboxMessages.isEmpty()) {
+            return;
+        }
+        outboxMessageRepository.insertAll(outboxMessages);
+
+        // Relay right away instead of waiting for the next poll
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                outboxRelay.requestRelay();
+            }
+        });
+    }
+
+    /**
+     * Serialize a message with the template's converter, keeping the type id header the listener needs
+     */
+    private OutboxMessage toOutboxMessage(String exchange, String routingKey, Object payload) {
+        Message message = rabbitTemplate.getMessageConverter().toMessage(payload, new MessageProperties());
+        Object typeId = message.getMessageProperties().getHeaders().get(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME);
+        return OutboxMessage.builder()
+                .exchange(exchange)
+                .routingKey(routingKey)
+                .typeId(typeId != null ? typeId.toString() : null)
+                .payload(new String(message.getBody(), StandardCharsets.UTF_8))
+                .build();
+    }
+
+    /**
+     * Send a job task message back to its model queue after a delay, used to retry
+     * tasks that failed with a transient error
+     *
+     * @param modelId The model of the task
+     * @param jobTaskMessage The job task message to send
+     * @param delayMs The minimum delay in milliseconds
+     */
+    public void sendJobTaskWithDelay(String modelId, JobTaskMessage jobTaskMessage, long delayMs) {
+        String queueName = getQueueName(modelId);
+        String delayQueueName = queueHelper.getDelayQueue(queueName, delayMs);
+        rabbitTemplate.convertAndSend("", delayQueueName, jobTaskMessage);
+        log.info("Job task {} scheduled for retry on queue '{}' via {}", jobTaskMessage.getJobTaskUuid(), queueName, delayQueueName);
+    }
+
+    /**
+     * Park a job task message that has exhausted its retries in the dead-letter queue of its model queue
+     *
+     * @param modelId The model of the task
+     * @param jobTaskMessage The job task message
+     */
+    public void sendJobTaskToDeadLetterQueue(String modelId, JobTaskMessage jobTaskMessage) {
+        String deadLetterQueueName = queueHelper.getDeadLetterQueue(getQueueName(modelId));
+        rabbitTemplate.convertAndSend("", deadLetterQueueName, jobTaskMessage);
+        log.warn("Job task {} sent to dead-letter queue '{}'", jobTaskMessage.getJobTaskUuid(), deadLetterQueueName);
+    }
+
+    private String getQueueName(String modelId) {
+        String queueName = modelService.getQueueForModel(modelId);
+
+        if (queueName == null || queueName.isEmpty()) {
+            log.error("No queue configured for model: {}", modelId);
+            throw new JobSubmissionException("No queue configured for model: " + modelId);
+        }
+        return queueName;
+    }
+
     /**
-     * Send a job validation message to the validation queue
+     * Return a received message to its work queue after a delay, e.g. when the
+     * worker is rate limited. The message is parked in a delay queue and routed
+     * back to the work queue when it expires.
      * 
-     * @param validationMessage The validation message to send
+     * @param queueName The work queue the message came from
+     * @param message The raw message to requeue
+     * @param delayMs The minimum delay in milliseconds
      */
-    public void sendJobValidation(JobValidationMessage validationMessage) {
-        log.info("Sending job validation message to queue: {}", validationMessage.getJobUuid());
-        rabbitTemplate.convertAndSend(exchangeName, jobsValidationRoutingKey, validationMessage);
-        log.info("Job validation message sent to queue: {}", validationMessage.getJobUuid());
+    public void requeueWithDelay(String queueName, Message message, long delayMs) {
+        String delayQueueName = queueHelper.getDelayQueue(queueName, delayMs);
+        rabbitTemplate.send("", delayQueueName, message);
+        log.debug("Message requeued to {} via {} after {} ms", queueName, delayQueueName, delayMs);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,102 @@
+package com.batchprompt.jobs.core.service;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pooled HTTP client shared by all chat models of a single model provider.
+ * Connections are kept alive between requests so that a busy worker does not
+ * pay a TCP and TLS handshake for every task.
+ */
+@Slf4j
+public class ModelProviderHttpClient implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 50;
+
+    private static final Timeout CONNECT_TIMEOUT = Timeout.ofSeconds(10);
+    private static final Timeout RESPONSE_TIMEOUT = Timeout.ofMinutes(10);
+    private static final TimeValue CONNECTION_TIME_TO_LIVE = TimeValue.ofMinutes(5);
+    private static final TimeValue IDLE_CONNECTION_TIMEOUT = TimeValue.ofSeconds(60);
+
+    private final String modelProviderId;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final RestTemplate restTemplate;
+
+    /**
+     * Constructor
+     *
+     * @param modelProviderId The provider the pool belongs to, used to tag metrics
+     * @param maxConnections The maximum number of pooled connections
+     */
+    public ModelProviderHttpClient(String modelProviderId, int maxConnections) {
+        this.modelProviderId = modelProviderId;
+        this.connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(CONNECT_TIMEOUT)
+                        .setTimeToLive(CONNECTION_TIME_TO_LIVE)
+                        .build())
+                .build();
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setResponseTimeout(RESPONSE_TIMEOUT)
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(IDLE_CONNECTION_TIMEOUT)
+                .build();
+        this.restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+    }
+
+    /**
+     * Resize the pool, e.g. after the provider configuration was changed in the database
+     *
+     * @param maxConnections The new maximum number of pooled connections
+     */
+    public void setMaxConnections(int maxConnections) {
+        if (connectionManager.getMaxTotal() != maxConnections) {
+            log.info("Resizing connection pool for provider {} from {} to {}",
+                    modelProviderId, connectionManager.getMaxTotal(), maxConnections);
+            connectionManager.setMaxTotal(maxConnections);
+            connectionManager.setDefaultMaxPerRoute(maxConnections);
+        }
+    }
+
+    /**
+     * Register pool gauges (leased, available, pending, max) with the given registry
+     *
+     * @param meterRegistry The registry to bind to
+     */
+    public void bindTo(MeterRegistry meterRegistry) {
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, modelProviderId)
+                .bindTo(meterRegistry);
+    }
+
+    public String getModelProviderId() {
+        return modelProviderId;
+    }
+
+    public RestTemplate getRestTemplate() {
+        return restTemplate;
+    }
+
+    @Override
+    public void close() {
+        httpClient.close(CloseMode.GRACEFUL);
+    }
+}
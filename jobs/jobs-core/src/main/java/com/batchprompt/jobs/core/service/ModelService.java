@@ -6,8 +6,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.EventListener;
@@ -23,6 +25,8 @@ import com.batchprompt.jobs.model.dto.ModelDto;
 import com.batchprompt.jobs.model.dto.ModelProviderDto;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 
 @Service
@@ -37,6 +41,9 @@ public class ModelService {
     
     // Store original model definitions for access to additional properties
     private final List<Model> modelDefinitions = new ArrayList<>();
+
+    // Map of model provider id to the pooled HTTP client shared by that provider's models
+    private final Map<String, ModelProviderHttpClient> providerHttpClients = new ConcurrentHashMap<>();
     
     private final ModelRepository modelRepository;
     private final ModelProviderRepository providerRepository;
@@ -45,6 +52,7 @@ public class ModelService {
     private final String googleApiKey;
     private final String xaiApiKey;
     private final ModelMapper modelMapper;
+    private final ObjectProvider<MeterRegistry> meterRegistryProvider;
 
     /**
      * Constructor to initialize dependencies
@@ -55,6 +63,7 @@ public class ModelService {
             QueueHelper queueHelper,
             ModelMapper modelMapper,
             ObjectMapper objectMapper,
+            ObjectProvider<MeterRegistry> meterRegistryProvider,
             @Value("${openai.api-key}") String openaiApiKey,
             @Value("${google.api-key:#{null}}") String googleApiKey,
             @Value("${xai.api-key:#{null}}") String xaiApiKey) {
@@ -63,6 +72,7 @@ public class ModelService {
         this.providerRepository = providerRepository;
         this.queueHelper = queueHelper;
         this.modelMapper = modelMapper;
+        this.meterRegistryProvider = meterRegistryProvider;
         this.openaiApiKey = openaiApiKey;
         this.googleApiKey = googleApiKey;
         this.xaiApiKey = xaiApiKey;
@@ -98,7 +108,8 @@ public class ModelService {
                 
                 switch (modelProviderId) {
                     case "OPENAI":
-                        model = new OpenAIChatModel(modelDef, openaiApiKey);
+                        model = new OpenAIChatModel(modelDef, openaiApiKey,
+                                getProviderHttpClient(modelDef.getProvider()).getRestTemplate());
                         break;
                         
                     case "AWS":
@@ -106,11 +117,13 @@ public class ModelService {
                         break;
                         
                     case "GOOGLE":
-                        model = new GeminiChatModel(modelDef, googleApiKey);
+                        model = new GeminiChatModel(modelDef, googleApiKey,
+                                getProviderHttpClient(modelDef.getProvider()).getRestTemplate());
                         break;
                         
                     case "XAI":
-                        model = new XaiChatModel(modelDef, xaiApiKey);
+                        model = new XaiChatModel(modelDef, xaiApiKey,
+                                getProviderHttpClient(modelDef.getProvider()).getRestTemplate());
                         break;
 
                     case "BATCHPROMPT":
@@ -145,6 +158,37 @@ public class ModelService {
         
         log.info("Loaded {} models from database", modelDefinitions.size());
     }
+
+    /**
+     * Get the pooled HTTP client for a provider, creating it on first use.
+     * Clients survive model refreshes; only the pool size is updated.
+     *
+     * @param provider The model provider
+     * @return The shared HTTP client for the provider
+     */
+    private ModelProviderHttpClient getProviderHttpClient(ModelProviderEntity provider) {
+        int maxConnections = provider.getMaxConnections() != null && provider.getMaxConnections() > 0
+                ? provider.getMaxConnections()
+                : ModelProviderHttpClient.DEFAULT_MAX_CONNECTIONS;
+
+        ModelProviderHttpClient httpClient = providerHttpClients.computeIfAbsent(provider.getModelProviderId(), id -> {
+            log.info("Creating HTTP connection pool for provider {} with {} connections", id, maxConnections);
+            ModelProviderHttpClient client = new ModelProviderHttpClient(id, maxConnections);
+            meterRegistryProvider.ifAvailable(client::bindTo);
+            return client;
+        });
+        httpClient.setMaxConnections(maxConnections);
+        return httpClient;
+    }
+
+    /**
+     * Release pooled connections on shutdown
+     */
+    @PreDestroy
+    public void closeProviderHttpClients() {
+        providerHttpClients.values().forEach(ModelProviderHttpClient::close);
+        providerHttpClients.clear();
+    }
     
     /**
      * Check if the given model name is supported
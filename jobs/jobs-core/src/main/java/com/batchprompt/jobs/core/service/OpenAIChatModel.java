@@ -1,6 +1,28 @@
 package com.batchprompt.jobs.core.service;
 
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
+
+import com.batchprompt.jobs.core.model.ChatModelBatchRequest;
+import com.batchprompt.jobs.core.model.ChatModelBatchResult;
+import com.batchprompt.jobs.core.model.ChatModelResponse;
 import com.batchprompt.jobs.core.model.Model;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -11,19 +33,154 @@ import lombok.extern.slf4j.Slf4j;
 public class OpenAIChatModel extends AbstractOpenAICompatibleChatModel {
 
     private static final String OPENAI_API_URL = "https://api.openai.com/v1/chat/completions";
+    private static final String OPENAI_FILES_URL = "https://api.openai.com/v1/files";
+    private static final String OPENAI_BATCHES_URL = "https://api.openai.com/v1/batches";
+    private static final String BATCH_ENDPOINT = "/v1/chat/completions";
+    private static final String BATCH_COMPLETION_WINDOW = "24h";
     
     /**
      * Constructor
      * 
      * @param modelName The name of the OpenAI model
      * @param apiKey The OpenAI API key
+     * @param restTemplate The pooled provider client
      */
-    public OpenAIChatModel(Model model, String apiKey) {
-        super(model, apiKey);
+    public OpenAIChatModel(Model model, String apiKey, RestTemplate restTemplate) {
+        super(model, apiKey, restTemplate);
     }
     
     @Override
     protected String getApiEndpoint() {
         return OPENAI_API_URL;
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean supportsBatch() {
+        return getPropertyValueBoolean("supportsBatch", true);
+    }
+
+    /**
+     * Upload the requests as a JSONL batch input file and create a batch for it
+     */
+    @Override
+    public String submitBatch(List<ChatModelBatchRequest> requests) throws Exception {
+        StringBuilder jsonl = new StringBuilder();
+        for (ChatModelBatchRequest request : requests) {
+            ObjectNode line = objectMapper.createObjectNode();
+            line.put("custom_id", request.getCustomId());
+            line.put("method", "POST");
+            line.put("url", BATCH_ENDPOINT);
+            line.set("body", buildRequestBody(request.getPrompt(), request.getOutputSchema(),
+                    request.getMaxTokens(), request.getTemperature()));
+            jsonl.append(line.toString()).append('\n');
+        }
+
+        // Upload the input file
+        HttpHeaders uploadHeaders = new HttpHeaders();
+        uploadHeaders.setBearerAuth(apiKey);
+        uploadHeaders.setContentType(MediaType.MULTIPART_FORM_DATA);
+
+        MultiValueMap<String, Object> form = new LinkedMultiValueMap<>();
+        form.add("purpose", "batch");
+        form.add("file", new ByteArrayResource(jsonl.toString().getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public String getFilename() {
+                return "batch-input.jsonl";
+            }
+        });
+
+        ResponseEntity<String> fileResponse = restTemplate.postForEntity(
+                OPENAI_FILES_URL, new HttpEntity<>(form, uploadHeaders), String.class);
+        String inputFileId = objectMapper.readTree(fileResponse.getBody()).get("id").asText();
+
+        // Create the batch
+        ObjectNode batchRequest = objectMapper.createObjectNode();
+        batchRequest.put("input_file_id", inputFileId);
+        batchRequest.put("endpoint", BATCH_ENDPOINT);
+        batchRequest.put("completion_window", BATCH_COMPLETION_WINDOW);
+
+        ResponseEntity<String> batchResponse = restTemplate.postForEntity(
+                OPENAI_BATCHES_URL, new HttpEntity<>(batchRequest.toString(), jsonHeaders()), String.class);
+        String batchId = objectMapper.readTree(batchResponse.getBody()).get("id").asText();
+
+        log.info("Submitted OpenAI batch {} with {} requests for model {}", batchId, requests.size(), getModelId());
+        return batchId;
+    }
+
+    @Override
+    public ChatModelBatchResult getBatchResult(String batchId) throws Exception {
+        ResponseEntity<String> response = restTemplate.exchange(
+                OPENAI_BATCHES_URL + "/" + batchId, HttpMethod.GET, new HttpEntity<>(jsonHeaders()), String.class);
+        JsonNode batch = objectMapper.readTree(response.getBody());
+        String status = batch.path("status").asText();
+
+        switch (status) {
+            case "validating":
+            case "in_progress":
+            case "finalizing":
+            case "cancelling":
+                return ChatModelBatchResult.inProgress();
+
+            case "completed":
+            case "expired":
+            case "cancelled":
+                // Expired and cancelled batches still return whatever finished; the rest is reported as missing
+                Map<String, ChatModelResponse> responses = new HashMap<>();
+                readBatchOutputFile(batch.path("output_file_id"), responses);
+                readBatchOutputFile(batch.path("error_file_id"), responses);
+                return ChatModelBatchResult.completed(responses);
+
+            default:
+                JsonNode errors = batch.path("errors").path("data");
+                String errorMessage = errors.isArray() && errors.size() > 0
+                        ? errors.get(0).path("message").asText()
+                        : "OpenAI batch " + batchId + " ended with status " + status;
+                return ChatModelBatchResult.failed(errorMessage);
+        }
+    }
+
+    /**
+     * Download a batch output or error file and add one response per line
+     */
+    private void readBatchOutputFile(JsonNode fileIdNode, Map<String, ChatModelResponse> responses) throws Exception {
+        if (fileIdNode.isMissingNode() || fileIdNode.isNull()) {
+            return;
+        }
+
+        ResponseEntity<String> content = restTemplate.exchange(
+                OPENAI_FILES_URL + "/" + fileIdNode.asText() + "/content", HttpMethod.GET,
+                new HttpEntity<>(jsonHeaders()), String.class);
+        if (content.getBody() == null) {
+            return;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new StringReader(content.getBody()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonNode result = objectMapper.readTree(line);
+                String customId = result.path("custom_id").asText();
+                JsonNode error = result.path("error");
+                JsonNode responseBody = result.path("response").path("body");
+
+                if (!error.isMissingNode() && !error.isNull()) {
+                    responses.put(customId, ChatModelResponse.ofError(error.path("message").asText()));
+                } else if (result.path("response").path("status_code").asInt() != 200) {
+                    responses.put(customId, ChatModelResponse.ofError(
+                            responseBody.path("error").path("message").asText("Batch request failed")));
+                } else {
+                    responses.put(customId, parseResponse(responseBody));
+                }
+            }
+        }
+    }
+
+    private HttpHeaders jsonHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setBearerAuth(apiKey);
+        return headers;
+    }
+}
@@ -0,0 +1,214 @@
+package com.batchprompt.jobs.core.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.AbstractJavaTypeMapper;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.batchprompt.jobs.core.model.OutboxMessage;
+import com.batchprompt.jobs.core.repository.OutboxMessageRepository;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Publishes the messages in the outbox table to RabbitMQ. Each batch is claimed with
+ * SKIP LOCKED, published as a whole before waiting on the publisher confirms, and
+ * only the confirmed messages are deleted; the rest stay in the outbox and are
+ * published again on the next pass, so delivery is at least once.
+ * <p>
+ * A relay is requested after every commit that writes to the outbox, and applications
+ * with scheduling enabled also poll the table, which picks up messages left behind
+ * by an application that stopped before relaying them.
+ */
+@Service
+@Slf4j
+public class OutboxRelay {
+
+    private final OutboxMessageRepository outboxMessageRepository;
+    private final RabbitTemplate rabbitTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectProvider<MeterRegistry> meterRegistryProvider;
+
+    @Value("${jobs.outbox.batch-size:500}")
+    private int batchSize;
+
+    @Value("${jobs.publish.confirm-timeout-ms:10000}")
+    private long confirmTimeoutMs;
+
+    // Relays requested after commit run here, one at a time
+    private final ExecutorService relayExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean relayRequested = new AtomicBoolean();
+    private final AtomicLong backlog = new AtomicLong();
+
+    public OutboxRelay(
+            OutboxMessageRepository outboxMessageRepository,
+            RabbitTemplate rabbitTemplate,
+            PlatformTransactionManager transactionManager,
+            ObjectProvider<MeterRegistry> meterRegistryProvider) {
+        this.outboxMessageRepository = outboxMessageRepository;
+        this.rabbitTemplate = rabbitTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistryProvider = meterRegistryProvider;
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        meterRegistryProvider.ifAvailable(meterRegistry -> Gauge.builder("batchprompt.outbox.backlog", backlog, AtomicLong::get)
+                .description("Messages in the outbox waiting to be published")
+                .register(meterRegistry));
+    }
+
+    /**
+     * Relay the outbox in the background. Requests made while a relay is already pending are coalesced.
+     */
+    public void requestRelay() {
+        if (!relayRequested.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            relayExecutor.execute(() -> {
+                relayRequested.set(false);
+                relay();
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the outbox is relayed by the next application to poll it
+            relayRequested.set(false);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${jobs.outbox.poll-interval-ms:1000}")
+    public void poll() {
+        relay();
+        backlog.set(outboxMessageRepository.count());
+    }
+
+    /**
+     * Publish batches until the outbox is empty or a batch is not fully confirmed
+     *
+     * @return The number of messages published and confirmed
+     */
+    public int relay() {
+        long startMillis = System.currentTimeMillis();
+        int relayed = 0;
+        try {
+            while (true) {
+                int[] result = transactionTemplate.execute(status -> relayBatch());
+                int claimed = result[0];
+                int confirmed = result[1];
+                relayed += confirmed;
+                if (claimed < batchSize || confirmed < claimed) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error relaying outbox messages: {}", e.getMessage(), e);
+        }
+
+        if (relayed > 0) {
+            long elapsedMillis = Math.max(1, System.currentTimeMillis() - startMillis);
+            log.info("Relayed {} outbox messages in {} ms ({} messages/s)",
+                    relayed, elapsedMillis, relayed * 1000L / elapsedMillis);
+        }
+        return relayed;
+    }
+
+    /**
+     * Claim, publish and delete one batch
+     *
+     * @return The number of messages claimed and the number confirmed
+     */
+    private int[] relayBatch() {
+        List<OutboxMessage> messages = outboxMessageRepository.claim(batchSize);
+        if (messages.isEmpty()) {
+            return new int[] { 0, 0 };
+        }
+
+        List<CorrelationData> correlations = new ArrayList<>(messages.size());
+        for (OutboxMessage message : messages) {
+            CorrelationData correlationData = new CorrelationData(message.getOutboxMessageId().toString());
+            try {
+                rabbitTemplate.send(message.getExchange(), message.getRoutingKey(), toAmqpMessage(message), correlationData);
+                correlations.add(correlationData);
+            } catch (AmqpException e) {
+                log.warn("Error publishing outbox message {}: {}", message.getOutboxMessageId(), e.getMessage());
+                correlations.add(null);
+            }
+        }
+
+        // All confirms are waited for against one deadline; without publisher confirms a send that did not throw counts
+        boolean confirms = rabbitTemplate.getConnectionFactory().isPublisherConfirms();
+        long deadlineMillis = System.currentTimeMillis() + confirmTimeoutMs;
+        List<Long> confirmedIds = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            CorrelationData correlationData = correlations.get(i);
+            if (correlationData != null && (!confirms || isConfirmed(correlationData, deadlineMillis))) {
+                confirmedIds.add(messages.get(i).getOutboxMessageId());
+            }
+        }
+
+        outboxMessageRepository.deleteAll(confirmedIds);
+        if (confirmedIds.size() < messages.size()) {
+            log.warn("{} of {} outbox messages were not confirmed by the broker and will be published again",
+                    messages.size() - confirmedIds.size(), messages.size());
+        }
+        return new int[] { messages.size(), confirmedIds.size() };
+    }
+
+    private Message toAmqpMessage(OutboxMessage outboxMessage) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        properties.setContentEncoding(StandardCharsets.UTF_8.name());
+        properties.setMessageId(outboxMessage.getOutboxMessageId().toString());
+        if (outboxMessage.getTypeId() != null) {
+            properties.setHeader(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME, outboxMessage.getTypeId());
+        }
+        return new Message(outboxMessage.getPayload().getBytes(StandardCharsets.UTF_8), properties);
+    }
+
+    private boolean isConfirmed(CorrelationData correlationData, long deadlineMillis) {
+        try {
+            long waitMillis = Math.max(0, deadlineMillis - System.currentTimeMillis());
+            CorrelationData.Confirm confirm = correlationData.getFuture().get(waitMillis, TimeUnit.MILLISECONDS);
+            if (!confirm.isAck()) {
+                log.warn("Outbox message {} nacked by the broker: {}", correlationData.getId(), confirm.getReason());
+            }
+            return confirm.isAck();
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        relayExecutor.shutdown();
+    }
+}
@@ -1,5 +1,7 @@
 package com.batchprompt.jobs.core.service;
 
+import org.springframework.web.client.RestTemplate;
+
 import com.batchprompt.jobs.core.model.Model;
 
 import lombok.extern.slf4j.Slf4j;
@@ -18,9 +20,10 @@ public class XaiChatModel extends AbstractOpenAICompatibleChatModel {
      * @param modelId The name of the Xai model
      * @param providerModelId The provider model ID
      * @param apiKey The Xai API key
+     * @param restTemplate The pooled provider client
      */
-    public XaiChatModel(Model model, String apiKey) {
-        super(model, apiKey);
+    public XaiChatModel(Model model, String apiKey, RestTemplate restTemplate) {
+        super(model, apiKey, restTemplate);
     }
     
     @Override
@@ -0,0 +1,3 @@
+alter table model_provider add column max_connections int;
+
+update model_provider set max_connections = 50 where model_provider_id in ('OPENAI', 'GOOGLE', 'XAI');
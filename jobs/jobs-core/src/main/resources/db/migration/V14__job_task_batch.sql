@@ -0,0 +1,19 @@
+alter table job add column batch_mode boolean not null default false;
+
+create table if not exists job_task_batch (
+    job_task_batch_uuid uuid not null primary key,
+    job_uuid uuid not null references job (job_uuid),
+    model_id varchar not null,
+    provider_batch_id varchar,
+    status varchar not null,
+    task_count int not null,
+    error_message varchar,
+    created_at timestamp not null,
+    updated_at timestamp not null
+);
+
+create index if not exists idx_job_task_batch_status on job_task_batch (status);
+
+alter table job_task add column job_task_batch_uuid uuid;
+
+create index if not exists idx_job_task_job_task_batch_uuid on job_task (job_task_batch_uuid);
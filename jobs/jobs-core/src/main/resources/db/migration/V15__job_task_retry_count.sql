@@ -0,0 +1 @@
+alter table job_task add column retry_count int not null default 0;
@@ -0,0 +1,10 @@
+alter table job add column use_response_cache boolean not null default true;
+
+create table if not exists chat_response_cache (
+    cache_key varchar not null primary key,
+    model_id varchar not null,
+    response_text varchar not null,
+    created_at timestamp not null
+);
+
+create index if not exists idx_chat_response_cache_created_at on chat_response_cache (created_at);
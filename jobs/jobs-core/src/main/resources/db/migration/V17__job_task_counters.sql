@@ -0,0 +1,19 @@
+alter table job add column failed_task_count int not null default 0;
+alter table job add column insufficient_credits_task_count int not null default 0;
+
+-- Backfill the counters of existing jobs; from now on they are maintained as tasks finish
+update job j set
+    completed_task_count = c.completed_count,
+    failed_task_count = c.failed_count,
+    insufficient_credits_task_count = c.insufficient_credits_count,
+    credit_usage = c.credit_usage
+from (
+    select job_uuid,
+           count(*) filter (where status in ('COMPLETED', 'FAILED')) as completed_count,
+           count(*) filter (where status = 'FAILED') as failed_count,
+           count(*) filter (where status = 'INSUFFICIENT_CREDITS') as insufficient_credits_count,
+           coalesce(sum(credit_usage), 0) as credit_usage
+    from job_task
+    group by job_uuid
+) c
+where j.job_uuid = c.job_uuid;
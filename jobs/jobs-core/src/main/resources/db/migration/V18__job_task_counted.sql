@@ -0,0 +1,7 @@
+-- Marks finished tasks that have been added to their job's counters
+alter table job_task add column counted boolean not null default false;
+
+-- The counters backfilled by V17 already include every finished task
+update job_task set counted = true where status in ('COMPLETED', 'FAILED', 'INSUFFICIENT_CREDITS');
+
+create index if not exists idx_job_task_uncounted on job_task (job_uuid) where not counted;
@@ -0,0 +1,10 @@
+-- Messages written in the same transaction as the change that produces them and
+-- relayed to RabbitMQ by OutboxRelay; rows are deleted once the broker confirms them
+create table if not exists outbox_message (
+    outbox_message_id bigserial primary key,
+    exchange varchar(255) not null,
+    routing_key varchar(255) not null,
+    type_id varchar(255),
+    payload text not null,
+    created_at timestamp not null default now()
+);
@@ -0,0 +1,2 @@
+-- Supports reading a job's tasks in record order in keyset chunks
+create index if not exists idx_job_task_job_uuid_record_number on job_task (job_uuid, record_number);
@@ -0,0 +1,2 @@
+-- Format of the job's result file
+alter table job add column output_format varchar not null default 'XLSX';
@@ -0,0 +1,150 @@
+package com.batchprompt.jobs.core.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import com.batchprompt.jobs.core.model.ChatModelResponse;
+import com.batchprompt.jobs.core.model.Model;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.sun.net.httpserver.HttpServer;
+
+import jakarta.annotation.Nullable;
+
+/**
+ * Streams from a local SSE server that sends a few events quickly and then slows down,
+ * through the pooled provider client
+ */
+class ChatModelStreamingTest {
+
+    private static final long SLOW_EVENT_DELAY_MILLIS = 3000;
+
+    private HttpServer server;
+    private ModelProviderHttpClient httpClient;
+    private final AtomicInteger eventsWritten = new AtomicInteger();
+    private final CountDownLatch handlerDone = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/stream", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < 10; i++) {
+                    if (i >= 3) {
+                        Thread.sleep(SLOW_EVENT_DELAY_MILLIS);
+                    }
+                    out.write(("data: {\"text\":\"chunk" + i + " \"}\n\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                    eventsWritten.incrementAndGet();
+                }
+                out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+            } catch (IOException | InterruptedException e) {
+                // The client dropped the connection
+            } finally {
+                handlerDone.countDown();
+            }
+        });
+        server.start();
+        httpClient = new ModelProviderHttpClient("test", 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        httpClient.close();
+        server.stop(0);
+    }
+
+    @Test
+    void maxTokensStopsTheStreamWithoutReadingTheRest() throws InterruptedException {
+        // Each event is 7 characters, so the third event reaches 5 tokens
+        StreamingModel model = new StreamingModel(60);
+
+        long startMillis = System.currentTimeMillis();
+        ChatModelResponse response = model.generateChatResponse("prompt", null, 5, null);
+        long elapsedMillis = System.currentTimeMillis() - startMillis;
+
+        assertNull(response.getErrorMessage());
+        assertEquals("chunk0 chunk1 chunk2 ", response.getResponseText());
+        assertTrue(elapsedMillis < SLOW_EVENT_DELAY_MILLIS, "call took " + elapsedMillis + " ms");
+
+        // The server notices the dropped connection on its next write and stops
+        assertTrue(handlerDone.await(2 * SLOW_EVENT_DELAY_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(eventsWritten.get() < 10, eventsWritten.get() + " events written");
+    }
+
+    @Test
+    void stalledStreamIsAbortedAtTheDeadline() {
+        StreamingModel model = new StreamingModel(1);
+
+        long startMillis = System.currentTimeMillis();
+        ChatModelResponse response = model.generateChatResponse("prompt", null, null, null);
+        long elapsedMillis = System.currentTimeMillis() - startMillis;
+
+        assertTrue(response.getErrorMessage().contains("time budget"), response.getErrorMessage());
+        assertTrue(response.isRetryable());
+        assertTrue(elapsedMillis < SLOW_EVENT_DELAY_MILLIS, "call took " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void completeStreamIsReadToTheEnd() {
+        StreamingModel model = new StreamingModel(60);
+        server.removeContext("/stream");
+        server.createContext("/stream", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(("data: {\"text\":\"hello\"}\n\n"
+                        + ": keep-alive comment\n\n"
+                        + "data: {\"text\":\" world\"}\n\n"
+                        + "data: [DONE]\n\n").getBytes(StandardCharsets.UTF_8));
+            }
+        });
+
+        ChatModelResponse response = model.generateChatResponse("prompt", null, null, null);
+
+        assertNull(response.getErrorMessage());
+        assertFalse(response.isRetryable());
+        assertEquals("hello world", response.getResponseText());
+    }
+
+    /**
+     * Reads {"text": ...} events from the local server
+     */
+    private class StreamingModel extends AbstractChatModel {
+
+        StreamingModel(int streamingTimeoutSeconds) {
+            super(Model.builder()
+                    .modelId("test-model")
+                    .modelProviderModelId("test-model")
+                    .modelProviderProperties(JsonNodeFactory.instance.objectNode()
+                            .put("streamingTimeoutSeconds", streamingTimeoutSeconds))
+                    .build());
+        }
+
+        @Override
+        public ChatModelResponse generateChatResponse(String prompt, @Nullable JsonNode outputSchema,
+                                                      @Nullable Integer maxTokens, @Nullable Double temperature) {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/stream";
+            return streamChatResponse(httpClient.getRestTemplate(), url, new HttpHeaders(), "{}", prompt,
+                    maxTokens, outputSchema != null,
+                    (event, accumulator) -> accumulator.append(event.path("text").asText(null)));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.batchprompt.jobs.core.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.batchprompt.jobs.core.model.ChatModelResponse;
+import com.batchprompt.jobs.core.model.ChatResponseCacheEntry;
+import com.batchprompt.jobs.core.repository.ChatResponseCacheRepository;
+
+class ChatResponseCacheServiceTest {
+
+    private static final String KEY = "key";
+    private static final int TTL_DAYS = 1;
+
+    private ChatResponseCacheRepository chatResponseCacheRepository;
+    private ChatResponseCacheService cacheService;
+
+    @BeforeEach
+    void setUp() {
+        chatResponseCacheRepository = mock(ChatResponseCacheRepository.class);
+        cacheService = new ChatResponseCacheService(chatResponseCacheRepository, 100, TTL_DAYS);
+    }
+
+    @Test
+    void storedResponseIsServedLocallyWithoutTokens() {
+        cacheService.put(KEY, "model", ChatModelResponse.of("answer", 10, 5, 0, 15));
+
+        ChatModelResponse cached = cacheService.get(KEY);
+
+        assertEquals("answer", cached.getResponseText());
+        assertEquals(0, cached.getTotalTokens());
+        verify(chatResponseCacheRepository, never()).findById(anyString());
+    }
+
+    @Test
+    void failedResponseIsNotStored() {
+        cacheService.put(KEY, "model", ChatModelResponse.ofError("rate limited"));
+
+        assertNull(cacheService.get(KEY));
+    }
+
+    @Test
+    void sharedEntryIsKeptInTheLocalTier() {
+        givenSharedEntry(LocalDateTime.now());
+
+        assertEquals("answer", cacheService.get(KEY).getResponseText());
+        assertEquals("answer", cacheService.get(KEY).getResponseText());
+
+        verify(chatResponseCacheRepository, times(1)).findById(KEY);
+    }
+
+    @Test
+    void expiredSharedEntryIsAMiss() {
+        givenSharedEntry(LocalDateTime.now().minusDays(TTL_DAYS).minusMinutes(1));
+
+        assertNull(cacheService.get(KEY));
+    }
+
+    @Test
+    void localEntryExpiresWithTheSharedEntryItWasLoadedFrom() throws InterruptedException {
+        // Loaded just before it expires, so it is still a hit on the first lookup only
+        givenSharedEntry(LocalDateTime.now().minusDays(TTL_DAYS).plusNanos(300_000_000));
+        assertEquals("answer", cacheService.get(KEY).getResponseText());
+
+        Thread.sleep(400);
+
+        assertNull(cacheService.get(KEY));
+        verify(chatResponseCacheRepository, times(2)).findById(KEY);
+    }
+
+    private void givenSharedEntry(LocalDateTime createdAt) {
+        when(chatResponseCacheRepository.findById(KEY)).thenReturn(Optional.of(ChatResponseCacheEntry.builder()
+                .cacheKey(KEY)
+                .modelId("model")
+                .responseText("answer")
+                .createdAt(createdAt)
+                .build()));
+    }
+}
@@ -0,0 +1,79 @@
+package com.batchprompt.jobs.core.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ChatStreamAccumulatorTest {
+
+    private static final long NO_TIMEOUT = 60_000;
+
+    @Test
+    void keepsReadingUntilMaxTokens() {
+        ChatStreamAccumulator accumulator = new ChatStreamAccumulator(2, NO_TIMEOUT, false);
+
+        assertTrue(accumulator.append("abcd"));
+        assertFalse(accumulator.append("efgh"));
+
+        assertEquals(ChatStreamAccumulator.StopReason.MAX_TOKENS, accumulator.getStopReason());
+        assertEquals("abcdefgh", accumulator.getText());
+        assertEquals(2, accumulator.estimatedCompletionTokens());
+    }
+
+    @Test
+    void stopsWhenTheTopLevelJsonObjectCloses() {
+        ChatStreamAccumulator accumulator = new ChatStreamAccumulator(null, NO_TIMEOUT, true);
+
+        assertTrue(accumulator.append("Here: {\"a\": {\"b\": [1, 2]}, "));
+        assertFalse(accumulator.append("\"c\": 3} and some trailing text"));
+
+        assertEquals(ChatStreamAccumulator.StopReason.JSON_COMPLETE, accumulator.getStopReason());
+        assertEquals("Here: {\"a\": {\"b\": [1, 2]}, \"c\": 3}", accumulator.getText());
+    }
+
+    @Test
+    void ignoresBracesInsideStrings() {
+        ChatStreamAccumulator accumulator = new ChatStreamAccumulator(null, NO_TIMEOUT, true);
+
+        assertTrue(accumulator.append("{\"text\": \"a } b \\\" }\""));
+        assertNull(accumulator.getStopReason());
+        assertFalse(accumulator.append("}"));
+
+        assertEquals(ChatStreamAccumulator.StopReason.JSON_COMPLETE, accumulator.getStopReason());
+    }
+
+    @Test
+    void doesNotCutOffUnstructuredOutput() {
+        ChatStreamAccumulator accumulator = new ChatStreamAccumulator(null, NO_TIMEOUT, false);
+
+        assertTrue(accumulator.append("{\"a\": 1}"));
+        assertTrue(accumulator.append(" more"));
+
+        assertNull(accumulator.getStopReason());
+    }
+
+    @Test
+    void stopsOnceTheDeadlinePasses() throws InterruptedException {
+        ChatStreamAccumulator accumulator = new ChatStreamAccumulator(null, 10, false);
+        Thread.sleep(20);
+
+        assertFalse(accumulator.checkDeadline());
+        assertFalse(accumulator.append("late"));
+        assertEquals(ChatStreamAccumulator.StopReason.TIMEOUT, accumulator.getStopReason());
+        assertEquals(0, accumulator.remainingMillis());
+    }
+
+    @Test
+    void reportsUsageOnlyOnceSet() {
+        ChatStreamAccumulator accumulator = new ChatStreamAccumulator(null, NO_TIMEOUT, false);
+        assertFalse(accumulator.hasUsage());
+
+        accumulator.setUsage(10, 5, null, 15);
+
+        assertTrue(accumulator.hasUsage());
+        assertEquals(15, accumulator.getTotalTokens());
+    }
+}
@@ -0,0 +1,199 @@
+package com.batchprompt.jobs.core.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.batchprompt.jobs.core.QueueHelper;
+import com.batchprompt.jobs.core.exception.JobSubmissionException;
+import com.batchprompt.jobs.core.model.OutboxMessage;
+import com.batchprompt.jobs.core.repository.OutboxMessageRepository;
+import com.batchprompt.jobs.model.dto.JobTaskMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Task messages from enqueue to confirmed publish: written to the outbox with the model's
+ * queue, then published in confirmed batches where only unconfirmed messages go out again
+ */
+class MessageProducerTest {
+
+    private static final String EXCHANGE = "batchprompt.exchange";
+    private static final String MODEL_ID = "openai-gpt-4o-mini";
+    private static final String QUEUE = "openai-gpt-4o-mini-queue";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private ModelService modelService;
+    private OutboxMessageRepository outboxMessageRepository;
+    private OutboxRelay outboxRelay;
+    private MessageProducer messageProducer;
+
+    @BeforeEach
+    void setUp() {
+        RabbitTemplate rabbitTemplate = new RabbitTemplate();
+        rabbitTemplate.setMessageConverter(new Jackson2JsonMessageConverter());
+        modelService = mock(ModelService.class);
+        when(modelService.getQueueForModel(MODEL_ID)).thenReturn(QUEUE);
+        outboxMessageRepository = mock(OutboxMessageRepository.class);
+        outboxRelay = mock(OutboxRelay.class);
+
+        messageProducer = new MessageProducer(rabbitTemplate, modelService, mock(QueueHelper.class),
+                outboxMessageRepository, outboxRelay);
+        ReflectionTestUtils.setField(messageProducer, "exchangeName", EXCHANGE);
+
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    void taskMessagesAreWrittenToTheOutboxForTheModelQueue() throws Exception {
+        List<JobTaskMessage> taskMessages = taskMessages(2);
+
+        messageProducer.enqueueJobTasks(MODEL_ID, taskMessages);
+
+        List<OutboxMessage> rows = insertedRows();
+        assertEquals(2, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            OutboxMessage row = rows.get(i);
+            assertEquals(EXCHANGE, row.getExchange());
+            assertEquals(QUEUE, row.getRoutingKey());
+            assertEquals(JobTaskMessage.class.getName(), row.getTypeId());
+            assertEquals(taskMessages.get(i), objectMapper.readValue(row.getPayload(), JobTaskMessage.class));
+        }
+    }
+
+    @Test
+    void relayIsRequestedOnlyOnceTheTransactionCommits() {
+        messageProducer.enqueueJobTasks(MODEL_ID, taskMessages(1));
+        verify(outboxRelay, never()).requestRelay();
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        verify(outboxRelay).requestRelay();
+    }
+
+    @Test
+    void modelWithoutAQueueIsRejected() {
+        assertThrows(JobSubmissionException.class,
+                () -> messageProducer.enqueueJobTasks("unknown-model", taskMessages(1)));
+
+        verify(outboxMessageRepository, never()).insertAll(anyList());
+    }
+
+    @Test
+    void emptySubmissionWritesNothing() {
+        messageProducer.enqueueJobTasks(MODEL_ID, List.of());
+
+        verify(outboxMessageRepository, never()).insertAll(anyList());
+        assertTrue(TransactionSynchronizationManager.getSynchronizations().isEmpty());
+    }
+
+    @Test
+    void onlyUnconfirmedTaskMessagesArePublishedAgain() throws Exception {
+        List<JobTaskMessage> taskMessages = taskMessages(3);
+        messageProducer.enqueueJobTasks(MODEL_ID, taskMessages);
+        List<OutboxMessage> outbox = new ArrayList<>(insertedRows());
+        for (int i = 0; i < outbox.size(); i++) {
+            outbox.get(i).setOutboxMessageId(i + 1L);
+        }
+
+        // The broker nacks the second message the first time it is published
+        List<Message> published = new ArrayList<>();
+        AtomicInteger nacksLeft = new AtomicInteger(1);
+        OutboxRelay relay = relayOver(outbox, (message, correlationData) -> {
+            published.add(message);
+            boolean nack = correlationData.getId().equals("2") && nacksLeft.getAndDecrement() > 0;
+            correlationData.getFuture().complete(new CorrelationData.Confirm(!nack, nack ? "queue full" : null));
+        });
+
+        assertEquals(2, relay.relay());
+        assertEquals(3, published.size());
+
+        published.clear();
+        assertEquals(1, relay.relay());
+        assertEquals(1, published.size());
+        assertEquals(taskMessages.get(1), objectMapper.readValue(published.get(0).getBody(), JobTaskMessage.class));
+        assertTrue(outbox.isEmpty());
+    }
+
+    /**
+     * A relay over an in-memory outbox, publishing through a template that hands each send to the broker stand-in
+     */
+    @SuppressWarnings("unchecked")
+    private OutboxRelay relayOver(List<OutboxMessage> outbox, BrokerStandIn broker) {
+        OutboxMessageRepository relayRepository = mock(OutboxMessageRepository.class);
+        when(relayRepository.claim(anyInt())).thenAnswer(invocation -> List.copyOf(outbox));
+        when(relayRepository.deleteAll(anyList())).thenAnswer(invocation -> {
+            List<Long> ids = invocation.getArgument(0);
+            outbox.removeIf(message -> ids.contains(message.getOutboxMessageId()));
+            return ids.size();
+        });
+
+        RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+        ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+        when(rabbitTemplate.getConnectionFactory()).thenReturn(connectionFactory);
+        when(connectionFactory.isPublisherConfirms()).thenReturn(true);
+        doAnswer(invocation -> {
+            broker.publish(invocation.getArgument(2), invocation.getArgument(3));
+            return null;
+        }).when(rabbitTemplate).send(anyString(), anyString(), any(Message.class), any(CorrelationData.class));
+
+        OutboxRelay relay = new OutboxRelay(relayRepository, rabbitTemplate,
+                mock(PlatformTransactionManager.class), mock(ObjectProvider.class));
+        ReflectionTestUtils.setField(relay, "batchSize", 500);
+        ReflectionTestUtils.setField(relay, "confirmTimeoutMs", 200L);
+        return relay;
+    }
+
+    private interface BrokerStandIn {
+        void publish(Message message, CorrelationData correlationData);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<OutboxMessage> insertedRows() {
+        ArgumentCaptor<List<OutboxMessage>> rows = ArgumentCaptor.forClass(List.class);
+        verify(outboxMessageRepository).insertAll(rows.capture());
+        return rows.getValue();
+    }
+
+    private static List<JobTaskMessage> taskMessages(int count) {
+        List<JobTaskMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(new JobTaskMessage(UUID.randomUUID()));
+        }
+        return messages;
+    }
+}
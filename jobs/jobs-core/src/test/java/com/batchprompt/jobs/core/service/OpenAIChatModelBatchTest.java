@@ -0,0 +1,162 @@
+package com.batchprompt.jobs.core.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.jsonPath;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withBadRequest;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServiceUnavailable;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import com.batchprompt.jobs.core.model.ChatModelBatchRequest;
+import com.batchprompt.jobs.core.model.ChatModelBatchResult;
+import com.batchprompt.jobs.core.model.ChatModelResponse;
+import com.batchprompt.jobs.core.model.Model;
+
+class OpenAIChatModelBatchTest {
+
+    private static final String FILES_URL = "https://api.openai.com/v1/files";
+    private static final String BATCHES_URL = "https://api.openai.com/v1/batches";
+
+    private MockRestServiceServer server;
+    private OpenAIChatModel chatModel;
+
+    @BeforeEach
+    void setUp() {
+        RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        Model model = Model.builder()
+                .modelId("openai-gpt-4o-mini")
+                .modelProviderModelId("gpt-4o-mini")
+                .build();
+        chatModel = new OpenAIChatModel(model, "test-key", restTemplate);
+    }
+
+    @Test
+    void submitBatchUploadsInputFileAndCreatesBatch() throws Exception {
+        server.expect(requestTo(FILES_URL))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(header("Authorization", "Bearer test-key"))
+                .andRespond(withSuccess("{\"id\":\"file-in\"}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo(BATCHES_URL))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(jsonPath("$.input_file_id").value("file-in"))
+                .andExpect(jsonPath("$.endpoint").value("/v1/chat/completions"))
+                .andRespond(withSuccess("{\"id\":\"batch-1\",\"status\":\"validating\"}", MediaType.APPLICATION_JSON));
+
+        String batchId = chatModel.submitBatch(List.of(request("task-1"), request("task-2")));
+
+        assertEquals("batch-1", batchId);
+        server.verify();
+    }
+
+    @Test
+    void submitBatchServerErrorIsRetryable() {
+        server.expect(requestTo(FILES_URL))
+                .andRespond(withServiceUnavailable());
+
+        Exception e = assertThrows(HttpServerErrorException.class, () -> chatModel.submitBatch(List.of(request("task-1"))));
+
+        assertTrue(AbstractChatModel.isRetryableError(e));
+        server.verify();
+    }
+
+    @Test
+    void submitBatchBadRequestIsNotRetryable() {
+        server.expect(requestTo(FILES_URL))
+                .andRespond(withSuccess("{\"id\":\"file-in\"}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo(BATCHES_URL))
+                .andRespond(withBadRequest().body("{\"error\":{\"message\":\"invalid model\"}}")
+                        .contentType(MediaType.APPLICATION_JSON));
+
+        Exception e = assertThrows(HttpClientErrorException.class, () -> chatModel.submitBatch(List.of(request("task-1"))));
+
+        assertFalse(AbstractChatModel.isRetryableError(e));
+        server.verify();
+    }
+
+    @Test
+    void getBatchResultReportsInProgress() throws Exception {
+        server.expect(requestTo(BATCHES_URL + "/batch-1"))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess("{\"id\":\"batch-1\",\"status\":\"in_progress\"}", MediaType.APPLICATION_JSON));
+
+        ChatModelBatchResult result = chatModel.getBatchResult("batch-1");
+
+        assertEquals(ChatModelBatchResult.Status.IN_PROGRESS, result.getStatus());
+        assertNull(result.getResponses());
+        server.verify();
+    }
+
+    @Test
+    void getBatchResultMapsOutputAndErrorLinesByCustomId() throws Exception {
+        server.expect(requestTo(BATCHES_URL + "/batch-1"))
+                .andRespond(withSuccess("{\"id\":\"batch-1\",\"status\":\"completed\","
+                        + "\"output_file_id\":\"file-out\",\"error_file_id\":\"file-err\"}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo(FILES_URL + "/file-out/content"))
+                .andRespond(withSuccess(
+                        "{\"custom_id\":\"task-1\",\"response\":{\"status_code\":200,\"body\":{"
+                                + "\"choices\":[{\"message\":{\"content\":\"hello\"}}],"
+                                + "\"usage\":{\"prompt_tokens\":5,\"completion_tokens\":2,\"total_tokens\":7}}}}\n"
+                                + "{\"custom_id\":\"task-2\",\"response\":{\"status_code\":400,\"body\":{"
+                                + "\"error\":{\"message\":\"bad prompt\"}}}}\n",
+                        MediaType.TEXT_PLAIN));
+        server.expect(requestTo(FILES_URL + "/file-err/content"))
+                .andRespond(withSuccess(
+                        "{\"custom_id\":\"task-3\",\"response\":null,\"error\":{\"message\":\"expired\"}}\n",
+                        MediaType.TEXT_PLAIN));
+
+        ChatModelBatchResult result = chatModel.getBatchResult("batch-1");
+
+        assertEquals(ChatModelBatchResult.Status.COMPLETED, result.getStatus());
+        assertEquals(3, result.getResponses().size());
+
+        ChatModelResponse ok = result.getResponses().get("task-1");
+        assertEquals("hello", ok.getResponseText());
+        assertNull(ok.getErrorMessage());
+        assertEquals(5, ok.getPromptTokens());
+        assertEquals(2, ok.getCompletionTokens());
+        assertEquals(7, ok.getTotalTokens());
+
+        assertEquals("bad prompt", result.getResponses().get("task-2").getErrorMessage());
+        assertEquals("expired", result.getResponses().get("task-3").getErrorMessage());
+        server.verify();
+    }
+
+    @Test
+    void getBatchResultReportsFailedBatch() throws Exception {
+        server.expect(requestTo(BATCHES_URL + "/batch-1"))
+                .andRespond(withSuccess("{\"id\":\"batch-1\",\"status\":\"failed\","
+                        + "\"errors\":{\"data\":[{\"message\":\"input file is invalid\"}]}}", MediaType.APPLICATION_JSON));
+
+        ChatModelBatchResult result = chatModel.getBatchResult("batch-1");
+
+        assertEquals(ChatModelBatchResult.Status.FAILED, result.getStatus());
+        assertEquals("input file is invalid", result.getErrorMessage());
+        server.verify();
+    }
+
+    private static ChatModelBatchRequest request(String customId) {
+        return ChatModelBatchRequest.builder()
+                .customId(customId)
+                .prompt("Say hello")
+                .maxTokens(16)
+                .build();
+    }
+}
@@ -0,0 +1,248 @@
+package com.batchprompt.jobs.core.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.batchprompt.jobs.core.model.OutboxMessage;
+import com.batchprompt.jobs.core.repository.OutboxMessageRepository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class OutboxRelayTest {
+
+    private OutboxMessageRepository outboxMessageRepository;
+    private RabbitTemplate rabbitTemplate;
+    private ConnectionFactory connectionFactory;
+    private OutboxRelay outboxRelay;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        outboxMessageRepository = mock(OutboxMessageRepository.class);
+        rabbitTemplate = mock(RabbitTemplate.class);
+        connectionFactory = mock(ConnectionFactory.class);
+        when(rabbitTemplate.getConnectionFactory()).thenReturn(connectionFactory);
+        when(connectionFactory.isPublisherConfirms()).thenReturn(true);
+
+        outboxRelay = new OutboxRelay(outboxMessageRepository, rabbitTemplate,
+                mock(PlatformTransactionManager.class), mock(ObjectProvider.class));
+        ReflectionTestUtils.setField(outboxRelay, "batchSize", 500);
+        ReflectionTestUtils.setField(outboxRelay, "confirmTimeoutMs", 200L);
+    }
+
+    @Test
+    void deletesMessagesOnceTheWholeBatchIsConfirmed() {
+        when(outboxMessageRepository.claim(500)).thenReturn(messages(1L, 2L, 3L));
+        confirmWith(id -> new CorrelationData.Confirm(true, null));
+
+        int relayed = outboxRelay.relay();
+
+        assertEquals(3, relayed);
+        assertEquals(List.of(1L, 2L, 3L), deletedIds());
+    }
+
+    @Test
+    void keepsNackedMessagesInTheOutbox() {
+        when(outboxMessageRepository.claim(500)).thenReturn(messages(1L, 2L, 3L));
+        confirmWith(id -> new CorrelationData.Confirm(!id.equals("2"), id.equals("2") ? "queue full" : null));
+
+        int relayed = outboxRelay.relay();
+
+        assertEquals(2, relayed);
+        assertEquals(List.of(1L, 3L), deletedIds());
+    }
+
+    @Test
+    void keepsMessagesWithoutAConfirmBeforeTheTimeout() {
+        when(outboxMessageRepository.claim(500)).thenReturn(messages(1L, 2L));
+        // Only the first message is ever confirmed
+        confirmWith(id -> id.equals("1") ? new CorrelationData.Confirm(true, null) : null);
+
+        long startMillis = System.currentTimeMillis();
+        int relayed = outboxRelay.relay();
+
+        assertEquals(1, relayed);
+        assertEquals(List.of(1L), deletedIds());
+        // Both confirms share one deadline
+        assertTrue(System.currentTimeMillis() - startMillis < 2000);
+    }
+
+    @Test
+    void keepsMessagesThatFailedToSend() {
+        when(outboxMessageRepository.claim(500)).thenReturn(messages(1L, 2L));
+        confirmWith(id -> new CorrelationData.Confirm(true, null));
+        doThrow(new AmqpConnectException(new RuntimeException("connection refused")))
+                .when(rabbitTemplate).send(anyString(), anyString(), any(Message.class),
+                        argThat((CorrelationData c) -> c != null && c.getId().equals("2")));
+
+        int relayed = outboxRelay.relay();
+
+        assertEquals(1, relayed);
+        assertEquals(List.of(1L), deletedIds());
+    }
+
+    @Test
+    void countsSentMessagesWhenPublisherConfirmsAreDisabled() {
+        when(connectionFactory.isPublisherConfirms()).thenReturn(false);
+        when(outboxMessageRepository.claim(500)).thenReturn(messages(1L, 2L));
+
+        int relayed = outboxRelay.relay();
+
+        assertEquals(2, relayed);
+        assertEquals(List.of(1L, 2L), deletedIds());
+    }
+
+    @Test
+    void publishesToTheStoredExchangeAndRoutingKey() {
+        when(outboxMessageRepository.claim(500)).thenReturn(messages(1L));
+        confirmWith(id -> new CorrelationData.Confirm(true, null));
+
+        outboxRelay.relay();
+
+        ArgumentCaptor<Message> message = ArgumentCaptor.forClass(Message.class);
+        verify(rabbitTemplate).send(eq("batchprompt.exchange"), eq("job-task-test"), message.capture(), any(CorrelationData.class));
+        assertEquals("{\"jobTaskUuid\":null}", new String(message.getValue().getBody()));
+        assertEquals("1", message.getValue().getMessageProperties().getMessageId());
+        assertEquals(Map.of("__TypeId__", "com.batchprompt.jobs.model.dto.JobTaskMessage"),
+                message.getValue().getMessageProperties().getHeaders());
+    }
+
+    @Test
+    void drainsFullBatchesUntilOneComesBackShort() {
+        ReflectionTestUtils.setField(outboxRelay, "batchSize", 2);
+        when(outboxMessageRepository.claim(2)).thenReturn(messages(1L, 2L), messages(3L));
+        confirmWith(id -> new CorrelationData.Confirm(true, null));
+
+        int relayed = outboxRelay.relay();
+
+        assertEquals(3, relayed);
+        verify(outboxMessageRepository, times(2)).claim(2);
+        assertEquals(List.of(List.of(1L, 2L), List.of(3L)), allDeletedIds());
+    }
+
+    @Test
+    void stopsAfterABatchThatIsNotFullyConfirmed() {
+        ReflectionTestUtils.setField(outboxRelay, "batchSize", 2);
+        when(outboxMessageRepository.claim(2)).thenReturn(messages(1L, 2L));
+        confirmWith(id -> new CorrelationData.Confirm(!id.equals("2"), null));
+
+        int relayed = outboxRelay.relay();
+
+        // The broker is pushing back; the next poll tries again rather than spinning on the same rows
+        assertEquals(1, relayed);
+        verify(outboxMessageRepository, times(1)).claim(2);
+    }
+
+    @Test
+    void emptyOutboxDeletesNothing() {
+        when(outboxMessageRepository.claim(500)).thenReturn(List.of());
+
+        assertEquals(0, outboxRelay.relay());
+
+        verify(outboxMessageRepository, never()).deleteAll(any());
+    }
+
+    @Test
+    void requestedRelayRunsInTheBackground() {
+        when(outboxMessageRepository.claim(500)).thenReturn(List.of());
+
+        outboxRelay.requestRelay();
+
+        verify(outboxMessageRepository, timeout(1000)).claim(500);
+        outboxRelay.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void pollReportsTheBacklog() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ObjectProvider<MeterRegistry> meterRegistryProvider = mock(ObjectProvider.class);
+        doAnswer(invocation -> {
+            invocation.<Consumer<MeterRegistry>>getArgument(0).accept(meterRegistry);
+            return null;
+        }).when(meterRegistryProvider).ifAvailable(any());
+        OutboxRelay relay = new OutboxRelay(outboxMessageRepository, rabbitTemplate,
+                mock(PlatformTransactionManager.class), meterRegistryProvider);
+        ReflectionTestUtils.setField(relay, "batchSize", 500);
+        relay.registerMetrics();
+        when(outboxMessageRepository.claim(500)).thenReturn(List.of());
+        when(outboxMessageRepository.count()).thenReturn(42L);
+
+        relay.poll();
+
+        assertEquals(42.0, meterRegistry.get("batchprompt.outbox.backlog").gauge().value());
+    }
+
+    /**
+     * Complete each publish's confirm future with the confirm returned for its correlation id,
+     * or leave it pending if the function returns null
+     */
+    private void confirmWith(Function<String, CorrelationData.Confirm> confirms) {
+        doAnswer(invocation -> {
+            CorrelationData correlationData = invocation.getArgument(3);
+            CorrelationData.Confirm confirm = confirms.apply(correlationData.getId());
+            if (confirm != null) {
+                correlationData.getFuture().complete(confirm);
+            }
+            return null;
+        }).when(rabbitTemplate).send(anyString(), anyString(), any(Message.class), any(CorrelationData.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Long> deletedIds() {
+        ArgumentCaptor<List<Long>> ids = ArgumentCaptor.forClass(List.class);
+        verify(outboxMessageRepository).deleteAll(ids.capture());
+        return ids.getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<Long>> allDeletedIds() {
+        ArgumentCaptor<List<Long>> ids = ArgumentCaptor.forClass(List.class);
+        verify(outboxMessageRepository, atLeastOnce()).deleteAll(ids.capture());
+        return ids.getAllValues();
+    }
+
+    private static List<OutboxMessage> messages(Long... ids) {
+        return Arrays.stream(ids)
+                .map(id -> OutboxMessage.builder()
+                        .outboxMessageId(id)
+                        .exchange("batchprompt.exchange")
+                        .routingKey("job-task-test")
+                        .typeId("com.batchprompt.jobs.model.dto.JobTaskMessage")
+                        .payload("{\"jobTaskUuid\":null}")
+                        .build())
+                .toList();
+    }
+}
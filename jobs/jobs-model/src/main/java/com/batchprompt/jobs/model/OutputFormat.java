@@ -0,0 +1,5 @@
+package com.batchprompt.jobs.model;
+
+public enum OutputFormat {
+    XLSX, CSV, NDJSON, PARQUET
+}
@@ -3,6 +3,8 @@ package com.batchprompt.jobs.model.dto;
 import java.util.List;
 import java.util.UUID;
 
+import com.batchprompt.jobs.model.OutputFormat;
+
 import jakarta.validation.constraints.NotNull;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -30,6 +32,15 @@ public class JobDefinitionDto {
     private Double temperature;
     private Integer maxRecords;
     private Integer startRecordNumber;
+
+    // Run the job through the provider's asynchronous batch API instead of one request per task
+    private Boolean batchMode;
+
+    // Reuse cached responses for prompts already sent to the model with the same parameters (default true)
+    private Boolean useResponseCache;
+
+    // Format of the result file: XLSX (default), CSV, NDJSON or PARQUET
+    private OutputFormat outputFormat;
     
     // Target user ID when submitting a job on behalf of another user
     private String targetUserId;
@@ -4,6 +4,7 @@ import java.time.LocalDateTime;
 import java.util.UUID;
 
 import com.batchprompt.jobs.model.JobStatus;
+import com.batchprompt.jobs.model.OutputFormat;
 
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -41,4 +42,10 @@ public class JobDto {
     private Double creditEstimate;
 
     private String errorMessage;
+
+    private boolean batchMode;
+
+    private boolean useResponseCache;
+
+    private OutputFormat outputFormat;
 }
\ No newline at end of file
@@ -7,17 +7,15 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+/**
+ * Message for a task to be processed by a model. Only the task is identified; the
+ * worker loads the task and its job, so the message stays small and never carries
+ * job settings that could have changed since it was queued.
+ */
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
 public class JobTaskMessage {
     private UUID jobTaskUuid;
-    private UUID jobUuid;
-    private UUID fileRecordUuid;
-    private String modelId;
-    private UUID promptUuid;
-    private String userId;
-    private Integer maxTokens;
-    private Double temperature;
-}
\ No newline at end of file
+}
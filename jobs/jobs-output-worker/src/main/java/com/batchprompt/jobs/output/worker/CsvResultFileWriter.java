@@ -0,0 +1,38 @@
+package com.batchprompt.jobs.output.worker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+/**
+ * Writes result rows as RFC 4180 CSV with a header line, one row at a time
+ */
+class CsvResultFileWriter implements ResultFileWriter {
+
+    private final CSVPrinter printer;
+
+    CsvResultFileWriter(File file, List<String> headers) throws IOException {
+        this.printer = new CSVPrinter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8), CSVFormat.DEFAULT);
+        printer.printRecord(headers);
+    }
+
+    @Override
+    public void writeRow(List<Object> values) throws IOException {
+        printer.printRecord(values);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        printer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        printer.close();
+    }
+}
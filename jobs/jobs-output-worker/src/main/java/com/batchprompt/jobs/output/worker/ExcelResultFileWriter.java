@@ -0,0 +1,110 @@
+package com.batchprompt.jobs.output.worker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Writes result rows through a streaming workbook that keeps only the last row-access-window
+ * rows in memory and spills older rows to a temporary file, so the heap used does not grow with
+ * the number of rows. The workbook is written once at the end, and column widths are estimated
+ * from the header and the first sampled rows.
+ */
+class ExcelResultFileWriter implements ResultFileWriter {
+
+    /** Excel's maximum column width, in characters */
+    private static final int MAX_COLUMN_WIDTH_CHARS = 255;
+
+    private final File file;
+    private final int columnWidthSampleRows;
+    private final SXSSFWorkbook workbook;
+    private final Sheet sheet;
+    private final int[] columnWidths;
+    private int rowIndex;
+
+    ExcelResultFileWriter(File file, List<String> headers, int rowAccessWindowSize, int columnWidthSampleRows) {
+        this.file = file;
+        this.columnWidthSampleRows = columnWidthSampleRows;
+        this.workbook = new SXSSFWorkbook(rowAccessWindowSize);
+        this.workbook.setCompressTempFiles(true);
+        this.sheet = workbook.createSheet("Results");
+        this.columnWidths = new int[headers.size()];
+
+        // Create header row
+        Row headerRow = sheet.createRow(rowIndex++);
+        int colIndex = 0;
+        for (String header : headers) {
+            Cell cell = headerRow.createCell(colIndex++);
+            cell.setCellValue(header);
+        }
+        sampleColumnWidths(headerRow);
+    }
+
+    @Override
+    public void writeRow(List<Object> values) {
+        Row row = sheet.createRow(rowIndex++);
+        for (int i = 0; i < values.size(); i++) {
+            Cell cell = row.createCell(i);
+            Object value = values.get(i);
+            if (value instanceof Number number) {
+                cell.setCellValue(number.doubleValue());
+            } else if (value != null) {
+                cell.setCellValue(value.toString());
+            }
+        }
+        if (rowIndex <= columnWidthSampleRows + 1) {
+            sampleColumnWidths(row);
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        for (int i = 0; i < columnWidths.length; i++) {
+            sheet.setColumnWidth(i, Math.min(columnWidths[i] + 2, MAX_COLUMN_WIDTH_CHARS) * 256);
+        }
+        try (FileOutputStream fileOut = new FileOutputStream(file)) {
+            workbook.write(fileOut);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Remove the rows spilled to disk by the streaming workbook
+        workbook.dispose();
+        workbook.close();
+    }
+
+    /**
+     * Widen the estimated column widths to fit the values in a row
+     * 
+     * @param row The Excel row
+     */
+    private void sampleColumnWidths(Row row) {
+        for (Cell cell : row) {
+            int column = cell.getColumnIndex();
+            if (column >= columnWidths.length) {
+                continue;
+            }
+            int width = switch (cell.getCellType()) {
+                case STRING -> longestLine(cell.getStringCellValue());
+                case NUMERIC -> String.valueOf(cell.getNumericCellValue()).length();
+                default -> 0;
+            };
+            columnWidths[column] = Math.max(columnWidths[column], width);
+        }
+    }
+
+    private int longestLine(String value) {
+        int longest = 0;
+        for (String line : value.split("\\n")) {
+            longest = Math.max(longest, line.length());
+        }
+        return longest;
+    }
+}
@@ -2,29 +2,30 @@ package com.batchprompt.jobs.output.worker;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
 
 import com.batchprompt.files.client.FileClient;
+import com.batchprompt.files.client.FileRecordStream;
+import com.batchprompt.files.model.FileFormat;
 import com.batchprompt.files.model.dto.FileDto;
 import com.batchprompt.files.model.dto.FileFieldDto;
 import com.batchprompt.files.model.dto.FileRecordDto;
@@ -43,7 +44,9 @@ import com.batchprompt.prompts.model.PromptOutputMethod;
 import com.batchprompt.prompts.model.dto.PromptDto;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -60,12 +63,18 @@ public class JobOutputWorker {
     private final PromptClient promptClient;
     private final ObjectMapper objectMapper;
     private final JobService jobService;
+    private final ResultFileWriterFactory resultFileWriterFactory;
 
-    @Value("${job.output.task.batch.size:100}")
+    @Value("${jobs.output.task-batch-size:1000}")
     private int taskBatchSize;
+
+    @Value("${jobs.output.range-size:10000}")
+    private int outputRangeSize;
+
+    @Value("${jobs.output.parallelism:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}")
+    private int outputParallelism;
     
     @RabbitListener(queues = "${rabbitmq.queue.job-output.name}")
-    @Transactional
     public void processJobOutput(JobOutputMessage message) {
         UUID jobUuid = message.getJobUuid();
         boolean hasErrors = message.isHasErrors();
@@ -136,22 +145,23 @@ public class JobOutputWorker {
             // Update job status to GENERATING_OUTPUT
             job = jobService.updateJobStatus(job.getJobUuid(), JobStatus.GENERATING_OUTPUT);
             
-            // Generate Excel file
-            tempFile = generateExcelFile(job, prompt, outputFileFields, structuredFields);
+            // Generate the result file
+            FileFormat fileFormat = FileFormat.valueOf(job.getOutputFormat().name());
+            tempFile = generateResultFile(job, prompt, fileFormat, outputFileFields, structuredFields);
             if (tempFile == null) {
-                jobService.failJob(job.getJobUuid(), "Failed to generate Excel file");
+                jobService.failJob(job.getJobUuid(), "Failed to generate " + fileFormat + " file");
                 return;
             }
             
             // Create the result file name by adding the prompt name and the date/time in YYYYMMDDHHMMSS to the original file name
-            String fileName = createOutputFileName(inputFile, prompt); 
+            String fileName = createOutputFileName(inputFile, prompt, fileFormat); 
 
             // Use a try-with-resources to ensure the FileInputStream is properly closed
             try (FileInputStream fileInputStream = new FileInputStream(tempFile)) {
                 FileDto resultFileDto = fileClient.uploadFile(
                     fileInputStream,
                     fileName,
-                    "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+                    fileFormat.getContentType(),
                     tempFile.length(),
                     "RESULT",
                     null,
@@ -204,10 +214,11 @@ public class JobOutputWorker {
      * 
      * @param inputFile The input file
      * @param prompt The prompt
+     * @param fileFormat The format of the output file
      * @return The generated output file name
      */
 
-    private String createOutputFileName(FileDto inputFile, PromptDto prompt) {
+    private String createOutputFileName(FileDto inputFile, PromptDto prompt, FileFormat fileFormat) {
         String originalFileName = inputFile.getFileName();
         String promptName = prompt.getName().replaceAll("[^a-zA-Z0-9]", "_");
         String dateTime = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
@@ -217,89 +228,177 @@ public class JobOutputWorker {
         if (lastDotIndex != -1) {
             originalFileName = originalFileName.substring(0, lastDotIndex);
         }
-        return String.format("%s_%s_%s.xlsx", originalFileName, promptName, dateTime);
+        return String.format("%s_%s_%s.%s", originalFileName, promptName, dateTime, fileFormat.getExtension());
     }
     
     /**
-     * Generate Excel file with job results
+     * Generate the result file of a job in the job's output format. The job's record numbers are
+     * split into ranges that are rendered in parallel, each to its own spill file, and the spill
+     * files are appended to the result file in record order as they complete. At most
+     * output-parallelism ranges are rendered or waiting to be merged at any time.
      * 
      * @param job The job
      * @param prompt The prompt
-     * @param tasks The job tasks
-     * @return The temporary file containing the Excel data
+     * @param fileFormat The format of the result file
+     * @return The temporary file containing the results
      */
-    private File generateExcelFile(Job job, PromptDto prompt, List<FileFieldDto> outputFileFields, List<String> structuredFields) {
+    private File generateResultFile(Job job, PromptDto prompt, FileFormat fileFormat, List<FileFieldDto> outputFileFields, List<String> structuredFields) {
 
         File tempFile = null;
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        Deque<Future<File>> spills = new ArrayDeque<>();
         try {
             // Create a temporary file
-            tempFile = File.createTempFile("job_output_" + job.getJobUuid(), ".xlsx");
-            
-            try (Workbook workbook = new XSSFWorkbook();
-                 FileOutputStream fileOut = new FileOutputStream(tempFile)) {
-                
-                Sheet sheet = workbook.createSheet("Results");
-                
-                // Create header row
-                Row headerRow = sheet.createRow(0);
-                List<String> headers = getHeaders(job, prompt, outputFileFields, structuredFields);
-                int colIndex = 0;
-                
-                for (String header : headers) {
-                    Cell cell = headerRow.createCell(colIndex++);
-                    cell.setCellValue(header);
-                }
-
-                // Create data rows
-                int rowIndex = 1;
-                int page = 0;
-                Page<JobTask> taskPage;
-                do {
-                    Pageable pageable = PageRequest.of(page, taskBatchSize).withSort(Sort.by(Sort.Direction.ASC, "recordNumber"));
-                    taskPage = jobTaskRepository.findByJobUuid(job.getJobUuid(), pageable);
-                    for (JobTask task : taskPage.getContent()) {
-                        try {
-                            Row row = sheet.createRow(rowIndex++);
-                            populateRow(row, prompt, task, outputFileFields, structuredFields);
-                        } catch (Exception e) {
-                            log.error("Error processing task {} for job {}: {}", 
-                                      task.getJobTaskUuid(), job.getJobUuid(), e.getMessage());
-                            // Continue with the next task even if this one fails
-                        }
-                        
-                        // Flush workbook to disk periodically to keep memory usage low
-                        if (rowIndex % 100 == 0) {
-                            workbook.write(fileOut);
-                            fileOut.flush();
-                        }
+            tempFile = File.createTempFile("job_output_" + job.getJobUuid(), "." + fileFormat.getExtension());
+            List<String> headers = getHeaders(job, prompt, outputFileFields, structuredFields);
+
+            try (ResultFileWriter writer = resultFileWriterFactory.create(job.getOutputFormat(), tempFile, headers)) {
+                // Render the record ranges in parallel and merge them in order
+                List<RecordRange> ranges = getRecordRanges(job);
+                int nextRange = 0;
+                int rowCount = 0;
+                while (nextRange < ranges.size() || !spills.isEmpty()) {
+                    while (nextRange < ranges.size() && spills.size() < Math.max(outputParallelism, 1)) {
+                        RecordRange range = ranges.get(nextRange++);
+                        spills.add(executor.submit(() -> renderRange(job, prompt, range, outputFileFields, structuredFields)));
+                    }
+                    File spill = spills.peek().get();
+                    spills.poll();
+                    try {
+                        rowCount += appendRows(writer, spill);
+                    } finally {
+                        spill.delete();
                     }
-                    page++;
-                } while (taskPage.hasNext());
-                
-                // Auto-size columns
-                for (int i = 0; i < headers.size(); i++) {
-                    sheet.autoSizeColumn(i);
                 }
-                
-                // Write the workbook to the file
-                workbook.write(fileOut);
+                writer.finish();
+                log.info("Generated {} file with {} rows from {} ranges for job {}", fileFormat, rowCount, ranges.size(), job.getJobUuid());
             }
             
             // Return the temporary file reference instead of reading it into memory
             return tempFile;
             
         } catch (Exception e) {
-            log.error("Error generating Excel file for job {}: {}", job.getJobUuid(), e.getMessage());
+            log.error("Error generating {} file for job {}: {}", fileFormat, job.getJobUuid(), e.getMessage());
             // Clean up the temp file if there was an error
             if (tempFile != null && tempFile.exists()) {
                 tempFile.delete();
             }
             return null;
+        } finally {
+            executor.shutdownNow();
+            discardSpills(spills);
         }
     }
-    
+
+    /**
+     * Split the record numbers of a job's tasks into ranges of output-range-size records
+     * 
+     * @param job The job
+     * @return The ranges in record order, or an empty list if the job has no tasks
+     */
+    List<RecordRange> getRecordRanges(Job job) {
+        Integer minRecordNumber = jobTaskRepository.findMinRecordNumber(job.getJobUuid());
+        Integer maxRecordNumber = jobTaskRepository.findMaxRecordNumber(job.getJobUuid());
+        List<RecordRange> ranges = new ArrayList<>();
+        if (minRecordNumber == null || maxRecordNumber == null) {
+            return ranges;
+        }
+        for (long from = minRecordNumber; from <= maxRecordNumber; from += outputRangeSize) {
+            int to = (int) Math.min(from + outputRangeSize - 1, maxRecordNumber);
+            ranges.add(new RecordRange((int) from, to));
+        }
+        return ranges;
+    }
+
+    /**
+     * Render the rows of one record range to a spill file, one JSON array of cell values per line.
+     * Runs on a worker thread, so it only reads shared state.
+     * 
+     * @param job The job
+     * @param prompt The prompt
+     * @param range The record numbers to render
+     * @return The spill file
+     * @throws IOException If the spill file cannot be written
+     */
+    private File renderRange(Job job, PromptDto prompt, RecordRange range, List<FileFieldDto> outputFileFields, List<String> structuredFields) throws IOException {
+        File spill = File.createTempFile("job_output_" + job.getJobUuid() + "_" + range.from(), ".ndjson");
+        try (FileRecordStream records = outputFileFields.isEmpty() ? null
+                : fileClient.streamFileRecords(job.getFileUuid(), range.from(), range.to(), null);
+             SequenceWriter writer = objectMapper.writer().withRootValueSeparator("\n").writeValues(spill)) {
+            RecordCursor recordCursor = new RecordCursor(records);
+
+            // Read the range's tasks in record order one chunk at a time
+            int afterRecordNumber = range.from() - 1;
+            Pageable chunk = PageRequest.of(0, taskBatchSize);
+            List<JobTask> tasks;
+            do {
+                tasks = jobTaskRepository.findTasksBetween(job.getJobUuid(), afterRecordNumber, range.to(), chunk);
+                for (JobTask task : tasks) {
+                    List<Object> values;
+                    try {
+                        FileRecordDto recordDto = recordCursor.advanceTo(task.getRecordNumber());
+                        values = renderRow(prompt, task, recordDto, outputFileFields, structuredFields);
+                    } catch (Exception e) {
+                        log.error("Error processing task {} for job {}: {}", 
+                                  task.getJobTaskUuid(), job.getJobUuid(), e.getMessage());
+                        // Continue with the next task even if this one fails
+                        values = new ArrayList<>();
+                        values.add(task.getRecordNumber());
+                    }
+                    writer.write(values);
+                }
+                if (!tasks.isEmpty()) {
+                    afterRecordNumber = tasks.get(tasks.size() - 1).getRecordNumber();
+                }
+            } while (tasks.size() == taskBatchSize);
+            return spill;
+        } catch (IOException | RuntimeException e) {
+            spill.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Append the rows of a spill file to the result file
+     * 
+     * @param writer The result file writer
+     * @param spill The spill file written by renderRange
+     * @return The number of rows appended
+     * @throws IOException If the spill file cannot be read or the rows cannot be written
+     */
+    private int appendRows(ResultFileWriter writer, File spill) throws IOException {
+        int rowCount = 0;
+        try (MappingIterator<List<Object>> rows = objectMapper.readerFor(List.class).readValues(spill)) {
+            while (rows.hasNext()) {
+                writer.writeRow(rows.next());
+                rowCount++;
+            }
+        }
+        return rowCount;
+    }
+
     /**
-     * Get the headers for the Excel file
+     * Delete the spill files of ranges that were not merged. The executor has been shut down,
+     * so ranges still rendering are interrupted; wait for them so no spill file is left behind.
+     * 
+     * @param spills The ranges that were not merged
+     */
+    private void discardSpills(Deque<Future<File>> spills) {
+        for (Future<File> spill : spills) {
+            try {
+                spill.get().delete();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // The range failed and removed its own spill file
+            }
+        }
+        spills.clear();
+    }
+
+    /**
+     * Get the headers for the result file
      * 
      * @param job The job
      * @param prompt The prompt
@@ -364,31 +463,25 @@ public class JobOutputWorker {
     }
     
     /**
-     * Populate a row in the Excel file
+     * Render the cell values of a task's row: numbers for numeric cells, strings for text cells
+     * and null for empty cells
      * 
-     * @param row The Excel row
+     * @param prompt The prompt
      * @param task The job task
-     * @param headers The Excel headers
+     * @param recordDto The input record for the task, or null if it was not found
+     * @return The cell values in column order
      * @throws JsonProcessingException If there's an error parsing JSON
      */
-    private void populateRow(Row row, PromptDto prompt, JobTask task, List<FileFieldDto> outputFileFields, List<String> structuredFields) throws JsonProcessingException {
-        // Fetch the file record to get the record number
-        FileRecordDto recordDto = null;
-        try {
-            // Use null for authToken - the FileClient will automatically use service-to-service authentication
-            recordDto = fileClient.getFileRecord(task.getFileRecordUuid(), null);
-        } catch (Exception e) {
-            log.warn("Could not fetch record data for task {}: {}", task.getJobTaskUuid(), e.getMessage());
-        }
-
-        int colIndex = 0;
+    private List<Object> renderRow(PromptDto prompt, JobTask task, FileRecordDto recordDto, List<FileFieldDto> outputFileFields, List<String> structuredFields) throws JsonProcessingException {
+        List<Object> values = new ArrayList<>();
         
         // First column is record number
-        Cell recordNumberCell = row.createCell(colIndex++);
-        if (recordDto != null) {
-            recordNumberCell.setCellValue(recordDto.getRecordNumber());
+        if (task.getRecordNumber() != null) {
+            values.add(task.getRecordNumber());
+        } else if (recordDto != null) {
+            values.add(recordDto.getRecordNumber());
         } else {
-            recordNumberCell.setCellValue(row.getRowNum());
+            values.add(null);
         }
 
 
@@ -397,7 +490,6 @@ public class JobOutputWorker {
          */
         
          for (FileFieldDto field : outputFileFields) {
-            Cell cell = row.createCell(colIndex++);
             String fieldName = field.getFieldName();
             String value = null;
             
@@ -405,7 +497,7 @@ public class JobOutputWorker {
             if (recordDto != null && recordDto.getRecord() != null && recordDto.getRecord().has(fieldName)) {
                 value = jsonNodeToCellValue(recordDto.getRecord().get(fieldName));
             }
-            cell.setCellValue(value != null ? value : "");
+            values.add(value != null ? value : "");
         }        
         
         /*
@@ -414,7 +506,6 @@ public class JobOutputWorker {
         String errorMessage = null;
 
         if (prompt.getOutputMethod() == PromptOutputMethod.STRUCTURED || prompt.getOutputMethod() == PromptOutputMethod.BOTH) {
-            ;
             JsonNode jsonResponse = null;
 
             if (task.getResponseText() == null || task.getResponseText().isEmpty()) {
@@ -430,35 +521,33 @@ public class JobOutputWorker {
             }
 
             for (String field : structuredFields) {
-                Cell cell = row.createCell(colIndex++);
                 String value = null;
                 
                 // If we have valid JSON and it contains this property, use it
                 if (jsonResponse != null && jsonResponse.has(field)) {
                     value = jsonNodeToCellValue(jsonResponse.get(field));
                 }
-                cell.setCellValue(value != null ? value : "");
+                values.add(value != null ? value : "");
             }
         }
 
                
         // Add response text column
         if (prompt.getOutputMethod() != PromptOutputMethod.STRUCTURED) {
-            Cell responseTextCell = row.createCell(colIndex++);
-            if (task.getResponseText() != null) {
-                responseTextCell.setCellValue(task.getResponseText());
-            }
+            values.add(task.getResponseText());
         }
 
         // Add error message column
-        Cell errorCell = row.createCell(colIndex++);
         if (errorMessage != null) {
             // If we failed to parse JSON
-            errorCell.setCellValue(errorMessage);
+            values.add(errorMessage);
         } else if (task.getStatus() == TaskStatus.FAILED && task.getErrorMessage() != null) {
             // If task failed with error
-            errorCell.setCellValue(task.getErrorMessage());
+            values.add(task.getErrorMessage());
+        } else {
+            values.add(null);
         }
+        return values;
     }
 
     /**
@@ -482,4 +571,42 @@ public class JobOutputWorker {
         return value;
     }
 
-}
\ No newline at end of file
+    /**
+     * A range of record numbers rendered by one worker thread, inclusive at both ends
+     */
+    record RecordRange(int from, int to) {
+    }
+
+    /**
+     * Walks the input records in record number order alongside the tasks, which are in the
+     * same order, so each task can be matched with its record without a lookup per row
+     */
+    static class RecordCursor {
+
+        private final Iterator<FileRecordDto> records;
+        private FileRecordDto current;
+
+        RecordCursor(Iterator<FileRecordDto> records) {
+            this.records = records;
+        }
+
+        /**
+         * Skip ahead to the record with the given number
+         * 
+         * @param recordNumber The record number of the next task
+         * @return The record, or null if the file has no record with that number
+         */
+        FileRecordDto advanceTo(Integer recordNumber) {
+            if (records == null || recordNumber == null) {
+                return null;
+            }
+            while ((current == null || current.getRecordNumber() < recordNumber) && records.hasNext()) {
+                current = records.next();
+            }
+            if (current != null && recordNumber.equals(current.getRecordNumber())) {
+                return current;
+            }
+            return null;
+        }
+    }
+}
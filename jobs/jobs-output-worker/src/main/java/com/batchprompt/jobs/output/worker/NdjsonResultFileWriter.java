@@ -0,0 +1,48 @@
+package com.batchprompt.jobs.output.worker;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes result rows as newline-delimited JSON, one object per row keyed by column name
+ */
+class NdjsonResultFileWriter implements ResultFileWriter {
+
+    private final List<String> columnNames;
+    private final ObjectMapper objectMapper;
+    private final OutputStream out;
+
+    NdjsonResultFileWriter(File file, List<String> headers, ObjectMapper objectMapper) throws IOException {
+        this.columnNames = ResultFileWriter.uniqueColumnNames(headers);
+        this.objectMapper = objectMapper;
+        this.out = new BufferedOutputStream(new FileOutputStream(file));
+    }
+
+    @Override
+    public void writeRow(List<Object> values) throws IOException {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < values.size() && i < columnNames.size(); i++) {
+            row.put(columnNames.get(i), values.get(i));
+        }
+        out.write(objectMapper.writeValueAsBytes(row));
+        out.write('\n');
+    }
+
+    @Override
+    public void finish() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
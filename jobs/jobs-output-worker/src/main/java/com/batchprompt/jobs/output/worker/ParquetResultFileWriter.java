@@ -0,0 +1,76 @@
+package com.batchprompt.jobs.output.worker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.LocalOutputFile;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Types;
+
+/**
+ * Writes result rows as a Snappy-compressed Parquet file. The record number is an INT32 column
+ * and every other column is an optional UTF-8 string. Rows are buffered by the writer up to its
+ * row group size, so memory is bounded by the row group rather than the file.
+ */
+class ParquetResultFileWriter implements ResultFileWriter {
+
+    private final SimpleGroupFactory groupFactory;
+    private final ParquetWriter<Group> writer;
+
+    ParquetResultFileWriter(File file, List<String> headers) throws IOException {
+        List<String> columnNames = ResultFileWriter.uniqueColumnNames(headers);
+        Types.MessageTypeBuilder schemaBuilder = Types.buildMessage();
+        for (int i = 0; i < columnNames.size(); i++) {
+            if (i == 0) {
+                // The first column is the record number
+                schemaBuilder.optional(PrimitiveTypeName.INT32).named(columnNames.get(i));
+            } else {
+                schemaBuilder.optional(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named(columnNames.get(i));
+            }
+        }
+        MessageType schema = schemaBuilder.named("job_result");
+
+        this.groupFactory = new SimpleGroupFactory(schema);
+        this.writer = ExampleParquetWriter.builder(new LocalOutputFile(file.toPath()))
+                .withType(schema)
+                .withCompressionCodec(CompressionCodecName.SNAPPY)
+                .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+                .build();
+    }
+
+    @Override
+    public void writeRow(List<Object> values) throws IOException {
+        Group group = groupFactory.newGroup();
+        for (int i = 0; i < values.size() && i < group.getType().getFieldCount(); i++) {
+            Object value = values.get(i);
+            if (value == null) {
+                continue;
+            }
+            if (i == 0) {
+                group.add(i, ((Number) value).intValue());
+            } else {
+                group.add(i, value.toString());
+            }
+        }
+        writer.write(group);
+    }
+
+    @Override
+    public void finish() {
+        // The footer is written when the writer is closed
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,50 @@
+package com.batchprompt.jobs.output.worker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes the rows of a job's result file in one output format. A row is the list of cell values
+ * rendered for a task: numbers for numeric cells, strings for text cells and null for empty cells.
+ */
+interface ResultFileWriter extends Closeable {
+
+    /**
+     * Write the next row
+     * 
+     * @param values The cell values in column order
+     * @throws IOException If the row cannot be written
+     */
+    void writeRow(List<Object> values) throws IOException;
+
+    /**
+     * Complete the file once every row has been written. Closing without finishing discards the rows.
+     * 
+     * @throws IOException If the file cannot be written
+     */
+    void finish() throws IOException;
+
+    /**
+     * Make column names unique for formats that address columns by name, by adding a numeric
+     * suffix to repeated names
+     * 
+     * @param headers The column headers
+     * @return The unique column names in column order
+     */
+    static List<String> uniqueColumnNames(List<String> headers) {
+        Set<String> used = new HashSet<>();
+        List<String> names = new ArrayList<>();
+        for (String header : headers) {
+            String name = header;
+            for (int suffix = 2; !used.add(name); suffix++) {
+                name = header + "_" + suffix;
+            }
+            names.add(name);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,47 @@
+package com.batchprompt.jobs.output.worker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.batchprompt.jobs.model.OutputFormat;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Creates the writer for a job's output format
+ */
+@Component
+@RequiredArgsConstructor
+public class ResultFileWriterFactory {
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${jobs.output.row-access-window:100}")
+    private int rowAccessWindowSize;
+
+    @Value("${jobs.output.column-width-sample-rows:100}")
+    private int columnWidthSampleRows;
+
+    /**
+     * Open a writer for a result file
+     * 
+     * @param format The output format
+     * @param file The file to write
+     * @param headers The column headers
+     * @return The writer; must be closed
+     * @throws IOException If the file cannot be opened
+     */
+    ResultFileWriter create(OutputFormat format, File file, List<String> headers) throws IOException {
+        return switch (format) {
+            case XLSX -> new ExcelResultFileWriter(file, headers, rowAccessWindowSize, columnWidthSampleRows);
+            case CSV -> new CsvResultFileWriter(file, headers);
+            case NDJSON -> new NdjsonResultFileWriter(file, headers, objectMapper);
+            case PARQUET -> new ParquetResultFileWriter(file, headers);
+        };
+    }
+}
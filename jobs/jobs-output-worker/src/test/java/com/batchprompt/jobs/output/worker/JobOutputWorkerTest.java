@@ -0,0 +1,140 @@
+package com.batchprompt.jobs.output.worker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.batchprompt.files.model.dto.FileRecordDto;
+import com.batchprompt.jobs.core.model.Job;
+import com.batchprompt.jobs.core.repository.JobTaskRepository;
+import com.batchprompt.jobs.output.worker.JobOutputWorker.RecordCursor;
+import com.batchprompt.jobs.output.worker.JobOutputWorker.RecordRange;
+
+@ExtendWith(MockitoExtension.class)
+class JobOutputWorkerTest {
+
+    @Mock
+    private JobTaskRepository jobTaskRepository;
+
+    @InjectMocks
+    private JobOutputWorker jobOutputWorker;
+
+    private Job job;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(jobOutputWorker, "outputRangeSize", 10);
+        job = Job.builder().jobUuid(UUID.randomUUID()).build();
+    }
+
+    @Test
+    void jobWithoutTasksHasNoRanges() {
+        givenRecordNumbers(null, null);
+
+        assertEquals(List.of(), jobOutputWorker.getRecordRanges(job));
+    }
+
+    @Test
+    void singleRecordIsOneRange() {
+        givenRecordNumbers(7, 7);
+
+        assertEquals(List.of(new RecordRange(7, 7)), jobOutputWorker.getRecordRanges(job));
+    }
+
+    @Test
+    void spanShorterThanTheRangeSizeIsOneRange() {
+        givenRecordNumbers(1, 5);
+
+        assertEquals(List.of(new RecordRange(1, 5)), jobOutputWorker.getRecordRanges(job));
+    }
+
+    @Test
+    void spanOfWholeRangesEndsOnARangeBoundary() {
+        givenRecordNumbers(1, 20);
+
+        assertEquals(List.of(new RecordRange(1, 10), new RecordRange(11, 20)), jobOutputWorker.getRecordRanges(job));
+    }
+
+    @Test
+    void rangesStartAtTheFirstRecordAndTheLastIsCutShort() {
+        givenRecordNumbers(3, 25);
+
+        assertEquals(List.of(new RecordRange(3, 12), new RecordRange(13, 22), new RecordRange(23, 25)),
+                jobOutputWorker.getRecordRanges(job));
+    }
+
+    @Test
+    void rangesEndingAtTheLargestRecordNumberDoNotOverflow() {
+        ReflectionTestUtils.setField(jobOutputWorker, "outputRangeSize", 4);
+        givenRecordNumbers(Integer.MAX_VALUE - 5, Integer.MAX_VALUE);
+
+        assertEquals(List.of(new RecordRange(Integer.MAX_VALUE - 5, Integer.MAX_VALUE - 2),
+                        new RecordRange(Integer.MAX_VALUE - 1, Integer.MAX_VALUE)),
+                jobOutputWorker.getRecordRanges(job));
+    }
+
+    @Test
+    void cursorMatchesTasksToRecordsAcrossGaps() {
+        RecordCursor cursor = new RecordCursor(records(1, 2, 4, 5, 8));
+
+        assertEquals(1, cursor.advanceTo(1).getRecordNumber());
+        // No record 3; the cursor stops on record 4 without consuming it
+        assertNull(cursor.advanceTo(3));
+        assertEquals(4, cursor.advanceTo(4).getRecordNumber());
+        assertNull(cursor.advanceTo(6));
+        assertEquals(8, cursor.advanceTo(8).getRecordNumber());
+        // Past the last record
+        assertNull(cursor.advanceTo(9));
+    }
+
+    @Test
+    void cursorReturnsTheSameRecordForRepeatedRecordNumbers() {
+        RecordCursor cursor = new RecordCursor(records(1, 2));
+
+        FileRecordDto record = cursor.advanceTo(2);
+
+        assertSame(record, cursor.advanceTo(2));
+    }
+
+    @Test
+    void cursorSkipsTasksBeforeTheFirstRecord() {
+        RecordCursor cursor = new RecordCursor(records(5, 6));
+
+        assertNull(cursor.advanceTo(2));
+        assertEquals(5, cursor.advanceTo(5).getRecordNumber());
+    }
+
+    @Test
+    void cursorWithoutRecordsMatchesNothing() {
+        // Jobs without output fields do not stream the input file
+        RecordCursor cursor = new RecordCursor(null);
+
+        assertNull(cursor.advanceTo(1));
+        assertNull(new RecordCursor(records(1)).advanceTo(null));
+    }
+
+    private void givenRecordNumbers(Integer min, Integer max) {
+        when(jobTaskRepository.findMinRecordNumber(job.getJobUuid())).thenReturn(min);
+        when(jobTaskRepository.findMaxRecordNumber(job.getJobUuid())).thenReturn(max);
+    }
+
+    private static Iterator<FileRecordDto> records(int... recordNumbers) {
+        return Arrays.stream(recordNumbers)
+                .mapToObj(recordNumber -> FileRecordDto.builder().recordNumber(recordNumber).build())
+                .iterator();
+    }
+}
@@ -0,0 +1,186 @@
+package com.batchprompt.jobs.output.worker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.convert.GroupRecordConverter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.io.ColumnIOFactory;
+import org.apache.parquet.io.LocalInputFile;
+import org.apache.parquet.io.RecordReader;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Type;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.batchprompt.jobs.model.OutputFormat;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes the same rows in every output format and reads them back with the format's own reader
+ */
+class ResultFileWriterTest {
+
+    // The repeated header checks that formats addressing columns by name keep both columns
+    private static final List<String> HEADERS = List.of("record_number", "name", "name", "response_text", "error_message");
+
+    private static final List<List<Object>> ROWS = List.of(
+            Arrays.asList(1, "Alice", "a,b \"quoted\"\nsecond line", "résumé ✓", null),
+            Arrays.asList(2, "", null, "ok", "model error"));
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @TempDir
+    private File tempDir;
+
+    private ResultFileWriterFactory factory;
+
+    @BeforeEach
+    void setUp() {
+        factory = new ResultFileWriterFactory(objectMapper);
+        ReflectionTestUtils.setField(factory, "rowAccessWindowSize", 1);
+        ReflectionTestUtils.setField(factory, "columnWidthSampleRows", 100);
+    }
+
+    @Test
+    void excelRoundTrip() throws IOException {
+        File file = write(OutputFormat.XLSX);
+
+        try (InputStream in = new FileInputStream(file); XSSFWorkbook workbook = new XSSFWorkbook(in)) {
+            Sheet sheet = workbook.getSheet("Results");
+            assertEquals(2, sheet.getLastRowNum());
+            assertEquals(HEADERS, stringCells(sheet.getRow(0)));
+
+            Row first = sheet.getRow(1);
+            assertEquals(1.0, first.getCell(0).getNumericCellValue());
+            assertEquals("Alice", first.getCell(1).getStringCellValue());
+            assertEquals("a,b \"quoted\"\nsecond line", first.getCell(2).getStringCellValue());
+            assertEquals("résumé ✓", first.getCell(3).getStringCellValue());
+            assertEquals(CellType.BLANK, first.getCell(4).getCellType());
+
+            Row second = sheet.getRow(2);
+            assertEquals(2.0, second.getCell(0).getNumericCellValue());
+            assertEquals("model error", second.getCell(4).getStringCellValue());
+
+            // Widths are estimated from the sampled values: the longest line of column 2 is 12 characters
+            assertEquals((12 + 2) * 256, sheet.getColumnWidth(2));
+        }
+    }
+
+    @Test
+    void csvRoundTrip() throws IOException {
+        File file = write(OutputFormat.CSV);
+
+        try (CSVParser parser = CSVParser.parse(file, StandardCharsets.UTF_8, CSVFormat.DEFAULT)) {
+            List<CSVRecord> records = parser.getRecords();
+            assertEquals(3, records.size());
+            assertEquals(HEADERS, records.get(0).toList());
+            // CSV has no null; empty cells read back as empty strings
+            assertEquals(List.of("1", "Alice", "a,b \"quoted\"\nsecond line", "résumé ✓", ""), records.get(1).toList());
+            assertEquals(List.of("2", "", "", "ok", "model error"), records.get(2).toList());
+        }
+    }
+
+    @Test
+    void ndjsonRoundTrip() throws IOException {
+        File file = write(OutputFormat.NDJSON);
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        try (MappingIterator<Map<String, Object>> iterator = objectMapper.readerFor(Map.class).readValues(file)) {
+            iterator.forEachRemaining(rows::add);
+        }
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("record_number", 1);
+        first.put("name", "Alice");
+        first.put("name_2", "a,b \"quoted\"\nsecond line");
+        first.put("response_text", "résumé ✓");
+        first.put("error_message", null);
+        assertEquals(first, rows.get(0));
+        assertEquals(List.copyOf(first.keySet()), List.copyOf(rows.get(0).keySet()));
+        assertEquals("model error", rows.get(1).get("error_message"));
+        assertNull(rows.get(1).get("name_2"));
+    }
+
+    @Test
+    void parquetRoundTrip() throws IOException {
+        File file = write(OutputFormat.PARQUET);
+
+        List<Group> groups = new ArrayList<>();
+        MessageType schema;
+        try (ParquetFileReader reader = ParquetFileReader.open(new LocalInputFile(file.toPath()))) {
+            schema = reader.getFooter().getFileMetaData().getSchema();
+            PageReadStore rowGroup;
+            while ((rowGroup = reader.readNextRowGroup()) != null) {
+                RecordReader<Group> records = new ColumnIOFactory().getColumnIO(schema)
+                        .getRecordReader(rowGroup, new GroupRecordConverter(schema));
+                for (long i = 0; i < rowGroup.getRowCount(); i++) {
+                    groups.add(records.read());
+                }
+            }
+        }
+
+        assertEquals(List.of("record_number", "name", "name_2", "response_text", "error_message"),
+                schema.getFields().stream().map(Type::getName).toList());
+        assertEquals(PrimitiveTypeName.INT32, schema.getType(0).asPrimitiveType().getPrimitiveTypeName());
+        assertEquals(2, groups.size());
+
+        Group first = groups.get(0);
+        assertEquals(1, first.getInteger(0, 0));
+        assertEquals("Alice", first.getString(1, 0));
+        assertEquals("a,b \"quoted\"\nsecond line", first.getString(2, 0));
+        assertEquals("résumé ✓", first.getString(3, 0));
+        assertEquals(0, first.getFieldRepetitionCount(4));
+
+        Group second = groups.get(1);
+        assertEquals(2, second.getInteger(0, 0));
+        // An empty string is kept apart from a null
+        assertEquals("", second.getString(1, 0));
+        assertEquals(0, second.getFieldRepetitionCount(2));
+        assertEquals("model error", second.getString(4, 0));
+    }
+
+    private File write(OutputFormat format) throws IOException {
+        File file = new File(tempDir, "result." + format.name().toLowerCase());
+        try (ResultFileWriter writer = factory.create(format, file, HEADERS)) {
+            for (List<Object> row : ROWS) {
+                writer.writeRow(row);
+            }
+            writer.finish();
+        }
+        return file;
+    }
+
+    private static List<String> stringCells(Row row) {
+        List<String> values = new ArrayList<>();
+        row.forEach(cell -> values.add(cell.getStringCellValue()));
+        return values;
+    }
+}
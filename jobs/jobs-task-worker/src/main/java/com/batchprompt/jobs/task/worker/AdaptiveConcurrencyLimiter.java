@@ -0,0 +1,107 @@
+package com.batchprompt.jobs.task.worker;
+
+import com.batchprompt.jobs.core.model.ChatModelResponse;
+
+/**
+ * AIMD concurrency limiter for the calls made to a single model. The limit grows
+ * by roughly one call per round trip while the provider keeps answering, and is
+ * halved when the provider pushes back with a 429 or a 5xx. A Retry-After from
+ * the provider pauses the model entirely until it has passed.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.5;
+
+    // Calls that were already in flight when the first throttle arrived fail together; only back off once for them
+    private static final long DECREASE_COOLDOWN_MS = 2000;
+
+    // How long a caller that is over the limit waits before it tries again
+    private static final long OVER_LIMIT_WAIT_MS = 1000;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private int inFlight;
+    private long pausedUntilMillis;
+    private long lastDecreaseMillis;
+
+    /**
+     * Constructor
+     *
+     * @param initialLimit The number of concurrent calls allowed to start with
+     * @param maxLimit The most concurrent calls the limit may grow to
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int maxLimit) {
+        this.minLimit = 1;
+        this.maxLimit = Math.max(maxLimit, minLimit);
+        this.limit = Math.min(Math.max(initialLimit, minLimit), this.maxLimit);
+    }
+
+    /**
+     * Try to start a call
+     *
+     * @return 0 if the call may start, otherwise the number of milliseconds to wait before trying again
+     */
+    public synchronized long tryAcquire() {
+        long now = System.currentTimeMillis();
+        if (pausedUntilMillis > now) {
+            return pausedUntilMillis - now;
+        }
+        if (inFlight >= (int) limit) {
+            return OVER_LIMIT_WAIT_MS;
+        }
+        inFlight++;
+        return 0;
+    }
+
+    /**
+     * Finish a call started with {@link #tryAcquire()} and adjust the limit from the provider's response
+     *
+     * @param response The model response, or null if the model was never called
+     */
+    public synchronized void release(ChatModelResponse response) {
+        inFlight = Math.max(0, inFlight - 1);
+        if (response == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Integer httpStatus = response.getHttpStatus();
+
+        if (httpStatus != null && (httpStatus == 429 || httpStatus >= 500)) {
+            if (response.getRetryAfterMillis() != null) {
+                pausedUntilMillis = Math.max(pausedUntilMillis, now + response.getRetryAfterMillis());
+            }
+            if (now - lastDecreaseMillis >= DECREASE_COOLDOWN_MS) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                lastDecreaseMillis = now;
+            }
+            return;
+        }
+
+        if (response.getErrorMessage() != null || isNearQuota(response)) {
+            return;
+        }
+
+        // Additive increase: +1 once a full window of calls has succeeded
+        limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+
+    /**
+     * Whether the provider's remaining rate limit headers say there is no room to grow
+     */
+    private boolean isNearQuota(ChatModelResponse response) {
+        Integer remainingRequests = response.getRateLimitRemainingRequests();
+        Integer remainingTokens = response.getRateLimitRemainingTokens();
+        return (remainingRequests != null && remainingRequests < limit)
+                || (remainingTokens != null && remainingTokens <= 0);
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
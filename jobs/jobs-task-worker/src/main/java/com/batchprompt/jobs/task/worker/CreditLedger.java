@@ -0,0 +1,356 @@
+package com.batchprompt.jobs.task.worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.batchprompt.jobs.core.service.JobCreditService;
+import com.batchprompt.users.client.AccountClient;
+import com.batchprompt.users.model.dto.AccountCreditTransactionDto;
+import com.batchprompt.users.model.dto.AccountDto;
+
+import jakarta.annotation.Nullable;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Worker-side credit ledger. Each job reserves a block of credits from the user's
+ * account and tasks are checked and debited against that block locally, so a task
+ * no longer calls users-api to check the balance and post its debit. Debits are
+ * queued per account and sent to users-api in batches, every flush-batch-size
+ * debits or every flush interval; a new block is only reserved (one balance call
+ * per account) when the current one runs out. As before the ledger, tasks are billed
+ * to the first of the user's accounts with credits available, so a job moves on to
+ * the next account once one is used up.
+ * <p>
+ * Reservations are held in this worker's memory only; users-api does not know about
+ * them. Each worker reserves independently, so with N workers running tasks for one
+ * user the account can be overdrawn by up to N reservation blocks. Debits queued
+ * but not yet flushed are lost if the worker stops without running its shutdown
+ * flush, so a crash can leave up to flush-batch-size debits per account unbilled.
+ * The block size is capped at {@value #MAX_RESERVATION_BLOCK} credits to bound both.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class CreditLedger {
+
+    static final double MAX_RESERVATION_BLOCK = 1000;
+
+    private final AccountClient accountClient;
+    private final JobCreditService jobCreditService;
+
+    @Value("${jobs.credits.reservation-block:100}")
+    private double reservationBlock;
+
+    @Value("${jobs.credits.reservation-idle-ms:300000}")
+    private long reservationIdleMs;
+
+    @Value("${jobs.credits.flush-batch-size:100}")
+    private int flushBatchSize;
+
+    // Flushes triggered by batch size run here, one at a time
+    private final ExecutorService flushExecutor = Executors.newSingleThreadExecutor();
+
+    private final Map<UUID, JobReservation> reservations = new ConcurrentHashMap<>();
+    private final Map<UUID, AccountLedger> accounts = new ConcurrentHashMap<>();
+
+    /**
+     * Credits reserved for one job on the account its tasks are debited from. The account
+     * is chosen when the first block is reserved and may change when a block runs out.
+     * <p>
+     * Guarded by a ReentrantLock rather than a monitor: reserving a block calls users-api
+     * with the lock held, and a virtual thread blocking inside synchronized would pin its
+     * carrier thread for the length of the call.
+     */
+    private static class JobReservation {
+        private final ReentrantLock lock = new ReentrantLock();
+        private UUID accountUuid;
+        private double remaining;
+        private long lastUsedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Debits not yet sent to users-api, and the credits reserved by jobs on this worker.
+     * Its monitor only guards in-memory updates; no users-api call is made while it is held.
+     */
+    private static class AccountLedger {
+        private final List<AccountCreditTransactionDto> pendingDebits = new ArrayList<>();
+        private double pendingAmount;
+        private double reserved;
+    }
+
+    @PostConstruct
+    public void capReservationBlock() {
+        if (reservationBlock > MAX_RESERVATION_BLOCK) {
+            log.warn("jobs.credits.reservation-block {} is above the maximum, using {}", reservationBlock, MAX_RESERVATION_BLOCK);
+            reservationBlock = MAX_RESERVATION_BLOCK;
+        }
+    }
+
+    /**
+     * Check that a job has credits left for another task, reserving a new block from the
+     * user's account if its current reservation is used up
+     *
+     * @param jobUuid The job
+     * @param userId The user the job's tasks are billed to
+     * @return false if the user has no credits left
+     */
+    public boolean reserve(UUID jobUuid, String userId) {
+        JobReservation reservation = reservations.computeIfAbsent(jobUuid, id -> new JobReservation());
+
+        // Tasks of one job wait here while a block is reserved, rather than each reserving their own
+        reservation.lock.lock();
+        try {
+            reservation.lastUsedMillis = System.currentTimeMillis();
+            if (reservation.remaining > 0) {
+                return true;
+            }
+            return reserveBlock(jobUuid, userId, reservation);
+        } finally {
+            reservation.lock.unlock();
+        }
+    }
+
+    /**
+     * Debit a task's credits from its job's reservation and queue the debit for users-api
+     *
+     * @param jobUuid The job
+     * @param userId The user the task is billed to
+     * @param billingAccountUuid The account to debit if the job holds no reservation, as resolved
+     *                           once by the caller with {@link #selectAccount(String)}; if null, one
+     *                           is selected for this debit
+     * @param jobTaskUuid The task
+     * @param credits The credits used by the task
+     */
+    public void debit(UUID jobUuid, String userId, @Nullable UUID billingAccountUuid, UUID jobTaskUuid, double credits) {
+        JobReservation reservation = reservations.get(jobUuid);
+        UUID reservedAccountUuid = null;
+        if (reservation != null) {
+            reservation.lock.lock();
+            try {
+                reservedAccountUuid = reservation.accountUuid;
+                if (reservedAccountUuid != null) {
+                    // The last task of a block may overrun it, as it did when the balance was only checked for > 0
+                    reservation.remaining -= credits;
+                }
+            } finally {
+                reservation.lock.unlock();
+            }
+        }
+
+        // Tasks not reserved through this ledger (provider batch results) use the caller's account
+        boolean reserved = reservedAccountUuid != null;
+        UUID accountUuid = reserved ? reservedAccountUuid
+                : billingAccountUuid != null ? billingAccountUuid
+                : selectAccount(userId);
+        if (accountUuid == null) {
+            log.error("No accounts found for user {}, credits for task {} not debited", userId, jobTaskUuid);
+            return;
+        }
+
+        // Create a transaction DTO to debit credits (negative amount represents debit)
+        // The UUID is assigned here so a batch retried after a lost response is not applied twice
+        AccountCreditTransactionDto transactionDto = new AccountCreditTransactionDto();
+        transactionDto.setTransactionUuid(UUID.randomUUID());
+        transactionDto.setAccountUuid(accountUuid);
+        transactionDto.setChangeAmount(-1 * credits);
+        transactionDto.setReason("Task credits used: " + jobTaskUuid);
+        transactionDto.setReferenceId(jobTaskUuid.toString());
+
+        AccountLedger ledger = accounts.computeIfAbsent(accountUuid, id -> new AccountLedger());
+        boolean flushNow;
+        synchronized (ledger) {
+            ledger.pendingDebits.add(transactionDto);
+            ledger.pendingAmount += credits;
+            if (reserved) {
+                ledger.reserved = Math.max(0, ledger.reserved - credits);
+            }
+            flushNow = ledger.pendingDebits.size() == flushBatchSize;
+        }
+
+        if (flushNow) {
+            try {
+                flushExecutor.execute(() -> flushAccount(accountUuid, ledger));
+            } catch (RejectedExecutionException e) {
+                // Shutting down; the final flush picks these up
+            }
+        }
+    }
+
+    /**
+     * Reserve the next block of credits for a job from the first of the user's accounts with
+     * credits available. Credits already reserved by other jobs on this worker and debits not
+     * yet sent are not available.
+     */
+    private boolean reserveBlock(UUID jobUuid, String userId, JobReservation reservation) {
+        List<AccountDto> userAccounts = jobCreditService.getUserAccounts(userId);
+        if (userAccounts == null || userAccounts.isEmpty()) {
+            log.error("No accounts found for user {}", userId);
+            return false;
+        }
+
+        // An overrun of the last block was already debited; the next block starts from zero
+        reservation.remaining = Math.max(0, reservation.remaining);
+
+        for (AccountDto account : userAccounts) {
+            UUID accountUuid = account.getAccountUuid();
+            Integer balance = getAccountBalance(accountUuid);
+            if (balance == null) {
+                continue;
+            }
+
+            AccountLedger ledger = accounts.computeIfAbsent(accountUuid, id -> new AccountLedger());
+            synchronized (ledger) {
+                double available = balance - ledger.pendingAmount - ledger.reserved;
+                if (available <= 0) {
+                    continue;
+                }
+                double block = Math.min(reservationBlock, available);
+                reservation.accountUuid = accountUuid;
+                reservation.remaining += block;
+                ledger.reserved += block;
+                log.debug("Reserved {} credits for job {} on account {}", block, jobUuid, accountUuid);
+                return true;
+            }
+        }
+
+        log.warn("No credits left to reserve for job {} on any account of user {}", jobUuid, userId);
+        return false;
+    }
+
+    /**
+     * The account balance less the debits not yet sent and the credits reserved by jobs on this worker
+     *
+     * @return The available credits, or 0 if the balance could not be read
+     */
+    private double getAvailableCredits(UUID accountUuid) {
+        Integer balance = getAccountBalance(accountUuid);
+        if (balance == null) {
+            return 0;
+        }
+        AccountLedger ledger = accounts.get(accountUuid);
+        if (ledger == null) {
+            return balance;
+        }
+        synchronized (ledger) {
+            return balance - ledger.pendingAmount - ledger.reserved;
+        }
+    }
+
+    /**
+     * Send queued debits to users-api and release the reservations of idle jobs
+     */
+    @Scheduled(fixedDelayString = "${jobs.credits.flush-interval-ms:5000}")
+    public void flush() {
+        accounts.forEach(this::flushAccount);
+
+        long idleBefore = System.currentTimeMillis() - reservationIdleMs;
+        reservations.entrySet().removeIf(entry -> {
+            JobReservation reservation = entry.getValue();
+            // Skip a reservation that is busy reserving a block; it is in use, not idle
+            if (!reservation.lock.tryLock()) {
+                return false;
+            }
+            try {
+                if (reservation.lastUsedMillis >= idleBefore) {
+                    return false;
+                }
+                AccountLedger ledger = reservation.accountUuid != null ? accounts.get(reservation.accountUuid) : null;
+                if (ledger != null && reservation.remaining > 0) {
+                    synchronized (ledger) {
+                        ledger.reserved = Math.max(0, ledger.reserved - reservation.remaining);
+                    }
+                }
+                return true;
+            } finally {
+                reservation.lock.unlock();
+            }
+        });
+    }
+
+    private void flushAccount(UUID accountUuid, AccountLedger ledger) {
+        List<AccountCreditTransactionDto> debits;
+        synchronized (ledger) {
+            if (ledger.pendingDebits.isEmpty()) {
+                return;
+            }
+            debits = new ArrayList<>(ledger.pendingDebits);
+            ledger.pendingDebits.clear();
+        }
+
+        try {
+            accountClient.addCreditsBatch(debits);
+        } catch (Exception e) {
+            // Keep the debits for the next flush
+            log.error("Error debiting {} task credits from account {}: {}", debits.size(), accountUuid, e.getMessage());
+            synchronized (ledger) {
+                ledger.pendingDebits.addAll(0, debits);
+            }
+            return;
+        }
+
+        double flushedAmount = 0;
+        for (AccountCreditTransactionDto debit : debits) {
+            // Debits are negative changes
+            flushedAmount -= debit.getChangeAmount();
+        }
+        synchronized (ledger) {
+            ledger.pendingAmount -= flushedAmount;
+        }
+        log.debug("Flushed {} credit debits ({} credits) for account {}", debits.size(), flushedAmount, accountUuid);
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flushExecutor.shutdown();
+        accounts.forEach(this::flushAccount);
+    }
+
+    /**
+     * The first of the user's accounts with credits available, or the first account if none has any,
+     * for debits made without a reservation. Calls users-api for the accounts and each balance, so
+     * callers debiting many tasks resolve it once and pass it to {@link #debit}.
+     *
+     * @param userId The user
+     * @return The account, or null if the user has no accounts
+     */
+    public UUID selectAccount(String userId) {
+        List<AccountDto> userAccounts = jobCreditService.getUserAccounts(userId);
+        if (userAccounts == null || userAccounts.isEmpty()) {
+            return null;
+        }
+        for (AccountDto account : userAccounts) {
+            if (getAvailableCredits(account.getAccountUuid()) > 0) {
+                return account.getAccountUuid();
+            }
+        }
+        return userAccounts.get(0).getAccountUuid();
+    }
+
+    private Integer getAccountBalance(UUID accountUuid) {
+        try {
+            ResponseEntity<Integer> response = accountClient.getAccountBalance(accountUuid);
+            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
+                return response.getBody();
+            }
+            log.error("Could not retrieve balance for account {}", accountUuid);
+        } catch (Exception e) {
+            log.error("Error retrieving balance for account {}: {}", accountUuid, e.getMessage());
+        }
+        return null;
+    }
+}
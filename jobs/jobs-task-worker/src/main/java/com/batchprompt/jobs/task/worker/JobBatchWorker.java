@@ -0,0 +1,249 @@
+package com.batchprompt.jobs.task.worker;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.batchprompt.jobs.core.model.ChatModelBatchRequest;
+import com.batchprompt.jobs.core.model.ChatModelBatchResult;
+import com.batchprompt.jobs.core.model.ChatModelResponse;
+import com.batchprompt.jobs.core.model.Job;
+import com.batchprompt.jobs.core.model.JobTask;
+import com.batchprompt.jobs.core.model.JobTaskBatch;
+import com.batchprompt.jobs.core.model.JobTaskBatch.BatchStatus;
+import com.batchprompt.jobs.core.repository.JobRepository;
+import com.batchprompt.jobs.core.repository.JobTaskBatchRepository;
+import com.batchprompt.jobs.core.repository.JobTaskRepository;
+import com.batchprompt.jobs.core.service.AbstractChatModel;
+import com.batchprompt.jobs.core.service.JobCreditService;
+import com.batchprompt.jobs.core.service.JobService;
+import com.batchprompt.jobs.core.service.JobStatusUpdater;
+import com.batchprompt.jobs.core.service.JobTaskBatchService;
+import com.batchprompt.jobs.core.service.ModelService;
+import com.batchprompt.jobs.model.JobStatus;
+import com.batchprompt.jobs.model.TaskStatus;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs batch mode jobs through the provider batch APIs. SUBMITTED tasks are
+ * claimed in groups, submitted as one provider batch, and the results are
+ * mapped back onto the tasks once the provider has finished the batch.
+ * Claimed tasks are recorded as a PENDING batch before the provider call; if
+ * the call fails transiently, or the worker stops before the batch is
+ * submitted, the tasks are released and claimed again on a later poll.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class JobBatchWorker {
+
+    private static final List<JobStatus> ACTIVE_JOB_STATUSES = List.of(JobStatus.SUBMITTED, JobStatus.PROCESSING);
+
+    private final JobRepository jobRepository;
+    private final JobTaskRepository jobTaskRepository;
+    private final JobTaskBatchRepository jobTaskBatchRepository;
+    private final JobTaskBatchService jobTaskBatchService;
+    private final JobService jobService;
+    private final JobStatusUpdater jobStatusUpdater;
+    private final ModelService modelService;
+    private final JobCreditService jobCreditService;
+    private final PromptSchemaCache promptSchemaCache;
+    private final JobTaskWorker jobTaskWorker;
+    private final CreditLedger creditLedger;
+
+    @Value("${jobs.batch.max-requests-per-batch:1000}")
+    private int maxRequestsPerBatch;
+
+    @Value("${jobs.batch.pending-timeout-ms:900000}")
+    private long pendingTimeoutMs;
+
+    @Scheduled(fixedDelayString = "${jobs.batch.poll-interval-ms:60000}")
+    public void processBatches() {
+        for (Job job : jobRepository.findByBatchModeTrueAndStatusIn(ACTIVE_JOB_STATUSES)) {
+            try {
+                submitPendingTasks(job);
+            } catch (Exception e) {
+                log.error("Error submitting batches for job {}: {}", job.getJobUuid(), e.getMessage(), e);
+            }
+        }
+
+        for (JobTaskBatch batch : jobTaskBatchRepository.findByStatus(BatchStatus.SUBMITTED)) {
+            try {
+                collectBatch(batch);
+            } catch (Exception e) {
+                log.error("Error polling batch {} for job {}: {}", batch.getJobTaskBatchUuid(), batch.getJobUuid(), e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Release tasks whose batch never reached the provider: PENDING batches older than the
+     * pending timeout, and PROCESSING tasks that point at a batch with no row
+     */
+    @Scheduled(fixedDelayString = "${jobs.batch.recovery-interval-ms:300000}")
+    public void recoverStaleBatches() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(pendingTimeoutMs, ChronoUnit.MILLIS);
+        for (JobTaskBatch batch : jobTaskBatchRepository.findByStatusAndUpdatedAtBefore(BatchStatus.PENDING, cutoff)) {
+            try {
+                jobTaskBatchService.releaseBatch(batch.getJobTaskBatchUuid(), "Batch was not submitted before the pending timeout");
+            } catch (Exception e) {
+                log.error("Error releasing stale batch {} for job {}: {}", batch.getJobTaskBatchUuid(), batch.getJobUuid(), e.getMessage(), e);
+            }
+        }
+
+        int orphaned = jobTaskRepository.releaseOrphanedBatchTasks();
+        if (orphaned > 0) {
+            log.warn("Released {} PROCESSING tasks without a batch", orphaned);
+        }
+    }
+
+    /**
+     * Submit every SUBMITTED task of a job that is not yet part of a provider batch
+     *
+     * @param job The batch mode job
+     */
+    private void submitPendingTasks(Job job) throws Exception {
+        AbstractChatModel chatModel = modelService.getChatModel(job.getModelId());
+        if (chatModel == null || !chatModel.supportsBatch()) {
+            jobService.failJob(job.getJobUuid(), "Model does not support batch mode: " + job.getModelId());
+            return;
+        }
+
+        if (!jobCreditService.checkUserHasSufficientCredits(job.getUserId())) {
+            int updated = jobTaskRepository.updateUnbatchedTaskStatus(job.getJobUuid(), TaskStatus.SUBMITTED,
+                    TaskStatus.INSUFFICIENT_CREDITS, "Insufficient credits available to process this task");
+            if (updated > 0) {
+                log.warn("{} tasks of job {} marked as INSUFFICIENT_CREDITS for user: {}", updated, job.getJobUuid(), job.getUserId());
+                jobStatusUpdater.tasksFinished(job.getJobUuid());
+            }
+            return;
+        }
+
+        JsonNode outputSchema = null;
+        while (true) {
+            JobTaskBatch batch = jobTaskBatchService.claimBatch(job, maxRequestsPerBatch);
+            if (batch == null) {
+                return;
+            }
+            UUID batchUuid = batch.getJobTaskBatchUuid();
+
+            if (outputSchema == null) {
+                outputSchema = promptSchemaCache.getOutputSchema(job.getJobUuid(), job.getPromptUuid());
+            }
+
+            List<JobTask> tasks = jobTaskRepository.findByJobTaskBatchUuid(batchUuid);
+            List<ChatModelBatchRequest> requests = new ArrayList<>(tasks.size());
+            for (JobTask task : tasks) {
+                requests.add(ChatModelBatchRequest.builder()
+                        .customId(task.getJobTaskUuid().toString())
+                        .prompt(task.getPromptText())
+                        .outputSchema(outputSchema)
+                        .maxTokens(job.getMaxTokens())
+                        .temperature(job.getTemperature())
+                        .build());
+            }
+
+            String providerBatchId;
+            try {
+                providerBatchId = chatModel.submitBatch(requests);
+            } catch (Exception e) {
+                if (AbstractChatModel.isRetryableError(e)) {
+                    log.warn("Transient error submitting batch {} for job {}, releasing its tasks: {}", batchUuid, job.getJobUuid(), e.getMessage());
+                    jobTaskBatchService.releaseBatch(batchUuid, e.getMessage());
+                    return;
+                }
+                log.error("Failed to submit batch {} for job {}: {}", batchUuid, job.getJobUuid(), e.getMessage(), e);
+                if (jobTaskBatchRepository.transitionStatus(batchUuid, BatchStatus.PENDING, BatchStatus.FAILED, e.getMessage()) == 1) {
+                    completeTasks(job, tasks, Map.of(), "Failed to submit provider batch: " + e.getMessage());
+                }
+                return;
+            }
+
+            if (jobTaskBatchRepository.markSubmitted(batchUuid, providerBatchId) == 0) {
+                // Released by the recovery sweep while the provider call was running; the
+                // tasks will be submitted again, so this provider batch's results are not collected
+                log.warn("Batch {} for job {} was released before provider batch {} was recorded", batchUuid, job.getJobUuid(), providerBatchId);
+                continue;
+            }
+            log.info("Submitted batch {} with {} tasks for job {}", batchUuid, tasks.size(), job.getJobUuid());
+
+            jobStatusUpdater.taskStarted(job.getJobUuid());
+        }
+    }
+
+    /**
+     * Poll a submitted batch and, once the provider has finished it, map the results onto its tasks
+     *
+     * @param batch The submitted batch
+     */
+    private void collectBatch(JobTaskBatch batch) throws Exception {
+        AbstractChatModel chatModel = modelService.getChatModel(batch.getModelId());
+        if (chatModel == null) {
+            log.error("Model {} not found for batch {}", batch.getModelId(), batch.getJobTaskBatchUuid());
+            return;
+        }
+
+        ChatModelBatchResult result = chatModel.getBatchResult(batch.getProviderBatchId());
+        if (result.getStatus() == ChatModelBatchResult.Status.IN_PROGRESS) {
+            log.debug("Batch {} for job {} still in progress", batch.getJobTaskBatchUuid(), batch.getJobUuid());
+            return;
+        }
+
+        BatchStatus newStatus = result.getStatus() == ChatModelBatchResult.Status.COMPLETED
+                ? BatchStatus.COMPLETED
+                : BatchStatus.FAILED;
+
+        // Only one worker gets to apply the results
+        if (jobTaskBatchRepository.transitionStatus(batch.getJobTaskBatchUuid(), BatchStatus.SUBMITTED,
+                newStatus, result.getErrorMessage()) == 0) {
+            return;
+        }
+
+        Job job = jobService.getJobById(batch.getJobUuid());
+        if (job == null) {
+            log.error("Job not found for batch {}: {}", batch.getJobTaskBatchUuid(), batch.getJobUuid());
+            return;
+        }
+
+        List<JobTask> tasks = jobTaskRepository.findByJobTaskBatchUuid(batch.getJobTaskBatchUuid());
+        Map<String, ChatModelResponse> responses = result.getResponses() != null ? result.getResponses() : Map.of();
+        String missingResultError = result.getErrorMessage() != null
+                ? result.getErrorMessage()
+                : "No result returned by the provider batch";
+        completeTasks(job, tasks, responses, missingResultError);
+
+        log.info("Batch {} for job {} finished with status {} ({} of {} results returned)",
+                batch.getJobTaskBatchUuid(), batch.getJobUuid(), newStatus, responses.size(), tasks.size());
+    }
+
+    /**
+     * Complete the tasks of a batch with their responses; the job status is refreshed on the next status flush.
+     * Batch tasks hold no credit reservation, so the account they are billed to is looked up once for the batch;
+     * tasks without a response are not billed.
+     */
+    private void completeTasks(Job job, List<JobTask> tasks, Map<String, ChatModelResponse> responses, String missingResultError) {
+        UUID billingAccountUuid = !responses.isEmpty() && job.getUserId() != null
+                ? creditLedger.selectAccount(job.getUserId())
+                : null;
+        for (JobTask task : tasks) {
+            if (task.getStatus() != TaskStatus.PROCESSING) {
+                continue;
+            }
+            ChatModelResponse response = responses.get(task.getJobTaskUuid().toString());
+            if (response == null) {
+                response = ChatModelResponse.ofError(missingResultError);
+            }
+            jobTaskWorker.completeTaskWithTokens(task, job.getUserId(), billingAccountUuid, response);
+        }
+    }
+}
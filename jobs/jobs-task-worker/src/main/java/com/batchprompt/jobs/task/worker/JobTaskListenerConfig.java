@@ -2,10 +2,16 @@ package com.batchprompt.jobs.task.worker;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
+import org.springframework.amqp.AmqpException;
 import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.EnableRabbit;
 import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
@@ -13,6 +19,7 @@ import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.listener.RabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
 import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
 import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
@@ -21,9 +28,19 @@ import org.springframework.messaging.handler.annotation.support.DefaultMessageHa
 import org.springframework.messaging.handler.annotation.support.MessageHandlerMethodFactory;
 
 import com.batchprompt.jobs.core.config.WorkerConfig;
+import com.batchprompt.jobs.core.config.WorkerConfig.ExecutionMode;
 import com.batchprompt.jobs.core.config.WorkerConfig.WorkerConfiguration;
+import com.batchprompt.jobs.core.model.ChatModelResponse;
+import com.batchprompt.jobs.core.model.Job;
+import com.batchprompt.jobs.core.model.JobTask;
+import com.batchprompt.jobs.core.service.MessageProducer;
+import com.batchprompt.jobs.model.dto.JobTaskMessage;
+import com.rabbitmq.client.Channel;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -45,14 +62,31 @@ public class JobTaskListenerConfig implements RabbitListenerConfigurer {
     @Autowired
     private JobTaskWorker jobTaskWorker;
 
+    @Autowired
+    private JobTaskPrefetcher jobTaskPrefetcher;
+
     @Autowired
     private MessageConverter jsonMessageConverter;
     
     // Map to store all created listener containers
     private final Map<String, SimpleMessageListenerContainer> listenerContainers = new HashMap<>();
     
-    // Map to store rate limiting semaphores (one per minute) for each queue
-    private final Map<String, RateLimitingSemaphore> rateLimiters = new HashMap<>();
+    @Autowired
+    private MessageProducer messageProducer;
+    
+    // Map to store the request and token rate limiter for each queue
+    private final Map<String, TokenBucketRateLimiter> rateLimiters = new HashMap<>();
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Adaptive concurrency limiter for each model, created on first use
+    private final Map<String, AdaptiveConcurrencyLimiter> concurrencyLimiters = new ConcurrentHashMap<>();
+
+    // Executor for queues running in virtual thread mode
+    private final ExecutorService virtualThreadExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
     
     @PostConstruct
     public void initializeListeners() {
@@ -77,6 +111,7 @@ public class JobTaskListenerConfig implements RabbitListenerConfigurer {
         String queueName = workerConfig.getQueue();
         int concurrentRequests = workerConfig.getConcurrentRequests();
         int rateLimit = workerConfig.getRateLimit();
+        int tokensPerMinute = workerConfig.getTokensPerMinute();
         
         if (queueName == null || queueName.isEmpty()) {
             log.warn("Queue name is empty for worker configuration");
@@ -88,13 +123,14 @@ public class JobTaskListenerConfig implements RabbitListenerConfigurer {
             return;
         }
         
-        log.info("Creating listener for queue {} with concurrency {} and rate limit {}/minute", 
-                queueName, concurrentRequests, rateLimit);
+        log.info("Creating listener for queue {} with concurrency {}, rate limit {}/minute and {} execution", 
+                queueName, concurrentRequests, rateLimit, workerConfig.getExecutionMode());
 
-        // Initialize rate limiter if rate limit is specified
-        if (rateLimit > 0) {
-            rateLimiters.put(queueName, new RateLimitingSemaphore(rateLimit));
-            log.info("Rate limiter created for queue {} with limit {}/minute", queueName, rateLimit);
+        // Initialize rate limiter if a request or token limit is specified
+        if (rateLimit > 0 || tokensPerMinute > 0) {
+            rateLimiters.put(queueName, new TokenBucketRateLimiter(rateLimit, tokensPerMinute));
+            log.info("Rate limiter created for queue {} with limits {} requests/minute and {} tokens/minute",
+                    queueName, rateLimit, tokensPerMinute);
         }
 
         /*
@@ -104,52 +140,25 @@ public class JobTaskListenerConfig implements RabbitListenerConfigurer {
 
         SimpleMessageListenerContainer container = new SimpleMessageListenerContainer(connectionFactory);
         container.setQueueNames(queueName);
-        container.setConcurrentConsumers(concurrentRequests);
-        container.setMaxConcurrentConsumers(concurrentRequests);
-        container.setAcknowledgeMode(AcknowledgeMode.AUTO);
-        
-        // Set message listener to process job task messages
-        container.setMessageListener(message -> {
-            try {
-                Object convertedMessage = jsonMessageConverter.fromMessage(message);
-                if (convertedMessage instanceof com.batchprompt.jobs.model.dto.JobTaskMessage) {
-                    // Apply rate limiting if configured
-                    RateLimitingSemaphore rateLimiter = rateLimiters.get(queueName);
-                    if (rateLimiter != null) {
-                        boolean acquired = false;
-                        try {
-                            // Try to acquire a permit with a timeout
-                            acquired = rateLimiter.tryAcquire(30, TimeUnit.SECONDS);
-                            if (!acquired) {
-                                log.warn("Rate limit exceeded for queue {}. Message processing delayed.", queueName);
-                                // Try again with longer timeout - this will block the consumer thread
-                                acquired = rateLimiter.tryAcquire(5, TimeUnit.MINUTES);
-                                if (!acquired) {
-                                    log.error("Failed to acquire rate limiting permit after extended wait for queue {}", queueName);
-                                    // Let the message be requeued by not acknowledging it
-                                    return;
-                                }
-                            }
-                            
-                            // Process the message with the acquired rate limit permit
-                            jobTaskWorker.processJobTask((com.batchprompt.jobs.model.dto.JobTaskMessage) convertedMessage);
-                        } finally {
-                            // Release the permit when done
-                            if (acquired) {
-                                rateLimiter.release();
-                            }
-                        }
-                    } else {
-                        // No rate limiting required, process message directly
-                        jobTaskWorker.processJobTask((com.batchprompt.jobs.model.dto.JobTaskMessage) convertedMessage);
-                    }
-                } else {
-                    log.error("Received message of unexpected type: {}", convertedMessage.getClass().getName());
+
+        if (workerConfig.getExecutionMode() == ExecutionMode.VIRTUAL) {
+            configureVirtualThreadListener(container, queueName, workerConfig.getMaxInFlight());
+        } else {
+            container.setConcurrentConsumers(concurrentRequests);
+            // Adaptive queues may need more consumers than they start with while the limit grows
+            container.setMaxConcurrentConsumers(workerConfig.isAdaptiveConcurrency()
+                    ? Math.max(concurrentRequests, workerConfig.getMaxInFlight())
+                    : concurrentRequests);
+            container.setAcknowledgeMode(AcknowledgeMode.AUTO);
+
+            // Set message listener to process job task messages
+            container.setMessageListener(message -> {
+                if (!processMessage(queueName, message, toJobTaskMessage(queueName, message))) {
+                    // Rejected messages are requeued by the container
+                    throw new AmqpException("Message from queue " + queueName + " returned to the queue");
                 }
-            } catch (Exception e) {
-                log.error("Error processing message from queue {}: {}", queueName, e.getMessage(), e);
-            }
-        });
+            });
+        }
         
         // Start the container
         container.start();
@@ -159,6 +168,263 @@ public class JobTaskListenerConfig implements RabbitListenerConfigurer {
         
         log.info("Listener for queue {} started with concurrency {}", queueName, concurrentRequests);
     }
+
+    /**
+     * Configure a container that runs each task on its own virtual thread.
+     * A single consumer receives up to maxInFlight unacknowledged messages
+     * (the prefetch) and hands each one to a virtual thread. Messages are only
+     * acknowledged once processing finishes, so anything in flight when the
+     * worker dies is redelivered by the broker. Each delivered task is registered with the
+     * prefetcher right away, so the rows of the whole window are loaded together.
+     *
+     * @param container The container to configure
+     * @param queueName The name of the queue
+     * @param maxInFlight The maximum number of tasks processed at once
+     */
+    private void configureVirtualThreadListener(SimpleMessageListenerContainer container, String queueName, int maxInFlight) {
+        Semaphore inFlight = new Semaphore(maxInFlight);
+
+        container.setConcurrentConsumers(1);
+        container.setMaxConcurrentConsumers(1);
+        container.setPrefetchCount(maxInFlight);
+        container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        container.setMessageListener((ChannelAwareMessageListener) (message, channel) -> {
+            long deliveryTag = message.getMessageProperties().getDeliveryTag();
+            JobTaskMessage jobTaskMessage = toJobTaskMessage(queueName, message);
+            if (jobTaskMessage != null) {
+                jobTaskPrefetcher.prefetch(jobTaskMessage.getJobTaskUuid());
+            }
+
+            // Prefetch normally keeps us below the limit; this only guards against broker misconfiguration
+            inFlight.acquire();
+            try {
+                virtualThreadExecutor.execute(() -> {
+                    boolean handled = false;
+                    try {
+                        handled = processMessage(queueName, message, jobTaskMessage);
+                    } finally {
+                        acknowledge(queueName, channel, deliveryTag, handled);
+                        inFlight.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Shutting down - leave the message unacknowledged so the broker redelivers it
+                inFlight.release();
+                if (jobTaskMessage != null) {
+                    jobTaskPrefetcher.discard(jobTaskMessage.getJobTaskUuid());
+                }
+                log.warn("Worker shutting down, message from queue {} will be redelivered", queueName);
+            }
+        });
+
+        log.info("Queue {} uses virtual threads with up to {} tasks in flight", queueName, maxInFlight);
+    }
+
+    /**
+     * Acknowledge (or return to the queue) a message from a virtual thread. Channels are
+     * not safe for concurrent use, so acknowledgements are serialized per channel.
+     */
+    private void acknowledge(String queueName, Channel channel, long deliveryTag, boolean handled) {
+        try {
+            synchronized (channel) {
+                if (handled) {
+                    channel.basicAck(deliveryTag, false);
+                } else {
+                    channel.basicNack(deliveryTag, false, true);
+                }
+            }
+        } catch (Exception e) {
+            // The channel was closed (e.g. connection loss); the broker will redeliver the message
+            log.warn("Could not acknowledge message {} from queue {}: {}", deliveryTag, queueName, e.getMessage());
+        }
+    }
+
+    /**
+     * Convert a raw message to a job task message
+     *
+     * @return The job task message, or null if the message could not be converted
+     */
+    private JobTaskMessage toJobTaskMessage(String queueName, Message message) {
+        try {
+            Object convertedMessage = jsonMessageConverter.fromMessage(message);
+            if (convertedMessage instanceof JobTaskMessage jobTaskMessage && jobTaskMessage.getJobTaskUuid() != null) {
+                return jobTaskMessage;
+            }
+            log.error("Received message of unexpected type: {}", convertedMessage.getClass().getName());
+        } catch (Exception e) {
+            log.error("Error converting message from queue {}: {}", queueName, e.getMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Load the task behind a job task message and run it through the worker, applying the queue's rate limit.
+     * Messages that are over the rate limit are parked in a delay queue instead of blocking the thread.
+     *
+     * @param queueName The name of the queue the message came from
+     * @param message The raw message
+     * @param jobTaskMessage The converted message, or null if it could not be converted
+     * @return false if the message could not be handled and should be returned to the queue
+     */
+    private boolean processMessage(String queueName, Message message, JobTaskMessage jobTaskMessage) {
+        if (jobTaskMessage == null) {
+            // Already logged; a message that cannot be read is dropped
+            return true;
+        }
+        JobTask jobTask;
+        Job job;
+        try {
+            jobTask = jobTaskPrefetcher.getJobTask(jobTaskMessage.getJobTaskUuid());
+            job = jobTask != null ? jobTaskPrefetcher.getJob(jobTask.getJobUuid()) : null;
+        } catch (Exception e) {
+            // The task could not be loaded, not processed; return it to the queue
+            log.error("Error loading job task {}: {}", jobTaskMessage.getJobTaskUuid(), e.getMessage());
+            return false;
+        }
+        if (jobTask == null) {
+            log.error("Job task not found: {}", jobTaskMessage.getJobTaskUuid());
+            return true;
+        }
+        if (job == null) {
+            log.error("Job not found for task {}: {}", jobTask.getJobTaskUuid(), jobTask.getJobUuid());
+            return true;
+        }
+
+        try {
+            AdaptiveConcurrencyLimiter concurrencyLimiter = getConcurrencyLimiter(queueName, jobTask.getModelId());
+            if (concurrencyLimiter != null) {
+                long waitMs = concurrencyLimiter.tryAcquire();
+                if (waitMs > 0) {
+                    log.debug("Concurrency limit {} reached for model {}, delaying task {} by {} ms",
+                            concurrencyLimiter.getLimit(), jobTask.getModelId(), jobTask.getJobTaskUuid(), waitMs);
+                    return delay(queueName, message, waitMs);
+                }
+            }
+
+            ChatModelResponse response = null;
+            try {
+                TokenBucketRateLimiter rateLimiter = rateLimiters.get(queueName);
+                int estimatedTokens = estimateTokens(jobTask, job);
+
+                if (rateLimiter != null) {
+                    long waitMs = rateLimiter.tryAcquire(estimatedTokens);
+                    if (waitMs > 0) {
+                        log.debug("Rate limit reached for queue {}, delaying task {} by {} ms",
+                                queueName, jobTask.getJobTaskUuid(), waitMs);
+                        return delay(queueName, message, waitMs);
+                    }
+                }
+
+                response = jobTaskWorker.processJobTask(jobTask, job);
+
+                // Return over-estimated tokens to the bucket (or charge the shortfall)
+                if (rateLimiter != null) {
+                    rateLimiter.reconcile(estimatedTokens, actualTokens(response));
+                }
+            } finally {
+                if (concurrencyLimiter != null) {
+                    concurrencyLimiter.release(response);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error processing message from queue {}: {}", queueName, e.getMessage(), e);
+        }
+        return true;
+    }
+
+    /**
+     * Park a message in a delay queue so it is redelivered once the wait has passed
+     *
+     * @return false if the message could not be delayed and should be returned to the queue
+     */
+    private boolean delay(String queueName, Message message, long waitMs) {
+        try {
+            messageProducer.requeueWithDelay(queueName, message, waitMs);
+            return true;
+        } catch (Exception e) {
+            log.error("Could not delay message from queue {}: {}", queueName, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Get the adaptive concurrency limiter for a model, creating it and its gauges on first use
+     *
+     * @param queueName The queue the model's tasks arrive on
+     * @param modelId The model id
+     * @return The limiter, or null if the queue does not use adaptive concurrency
+     */
+    private AdaptiveConcurrencyLimiter getConcurrencyLimiter(String queueName, String modelId) {
+        WorkerConfiguration queueConfig = workerConfig.getWorkerConfigForQueue(queueName);
+        if (queueConfig == null || !queueConfig.isAdaptiveConcurrency() || modelId == null) {
+            return null;
+        }
+
+        return concurrencyLimiters.computeIfAbsent(modelId, id -> {
+            AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+                    queueConfig.getConcurrentRequests(), queueConfig.getMaxInFlight());
+            Gauge.builder("batchprompt.worker.concurrency.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+                    .description("Current adaptive concurrency limit for calls to a model")
+                    .tag("model", id)
+                    .register(meterRegistry);
+            Gauge.builder("batchprompt.worker.concurrency.in-flight", limiter, AdaptiveConcurrencyLimiter::getInFlight)
+                    .description("Calls to a model currently in flight")
+                    .tag("model", id)
+                    .register(meterRegistry);
+            log.info("Adaptive concurrency limiter created for model {} starting at {} (max {})",
+                    id, limiter.getLimit(), queueConfig.getMaxInFlight());
+            return limiter;
+        });
+    }
+
+    /**
+     * Estimate the tokens a task will use from the estimates calculated during job validation
+     */
+    private int estimateTokens(JobTask jobTask, Job job) {
+        int promptTokens = jobTask.getEstimatedPromptTokens() != null ? jobTask.getEstimatedPromptTokens() : 0;
+        int completionTokens = jobTask.getEstimatedCompletionTokens() != null ? jobTask.getEstimatedCompletionTokens() : 0;
+        if (job.getMaxTokens() != null) {
+            completionTokens = Math.min(completionTokens, job.getMaxTokens());
+        }
+        return promptTokens + completionTokens;
+    }
+
+    private int actualTokens(ChatModelResponse response) {
+        if (response == null) {
+            return 0;
+        }
+        if (response.getTotalTokens() != null) {
+            return response.getTotalTokens();
+        }
+        int tokens = 0;
+        if (response.getPromptTokens() != null) {
+            tokens += response.getPromptTokens();
+        }
+        if (response.getCompletionTokens() != null) {
+            tokens += response.getCompletionTokens();
+        }
+        if (response.getThinkingTokens() != null) {
+            tokens += response.getThinkingTokens();
+        }
+        return tokens;
+    }
+
+    /**
+     * Stop consuming and let in-flight virtual thread tasks finish before the
+     * channels are closed. Anything still unacknowledged is redelivered.
+     */
+    @PreDestroy
+    public void shutdownListeners() {
+        virtualThreadExecutor.shutdown();
+        try {
+            if (!virtualThreadExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("In-flight job tasks did not finish within {} seconds", SHUTDOWN_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        listenerContainers.values().forEach(SimpleMessageListenerContainer::stop);
+    }
     
     @Bean
     public RabbitListenerContainerFactory<SimpleMessageListenerContainer> rabbitListenerContainerFactory(MessageConverter jsonMessageConverter) {
@@ -179,48 +445,4 @@ public class JobTaskListenerConfig implements RabbitListenerConfigurer {
     public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
         registrar.setMessageHandlerMethodFactory(messageHandlerMethodFactory());
     }
-    
-    /**
-     * A rate limiting semaphore that resets permits periodically based on a time window
-     */
-    private static class RateLimitingSemaphore {
-        private final Semaphore semaphore;
-        private final int maxPermits;
-        private long lastResetTime;
-        
-        public RateLimitingSemaphore(int permits) {
-            this.maxPermits = permits;
-            this.semaphore = new Semaphore(permits);
-            this.lastResetTime = System.currentTimeMillis();
-        }
-        
-        public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
-            checkAndResetPermits();
-            return semaphore.tryAcquire(timeout, unit);
-        }
-        
-        public void release() {
-            semaphore.release();
-        }
-        
-        /**
-         * Check if a minute has passed since the last reset and reset permits if needed
-         */
-        private synchronized void checkAndResetPermits() {
-            long now = System.currentTimeMillis();
-            long elapsedTimeMs = now - lastResetTime;
-            
-            // Reset permits every minute (60,000 ms)
-            if (elapsedTimeMs >= 60_000) {
-                int currentPermits = semaphore.availablePermits();
-                int permitsToAdd = maxPermits - currentPermits;
-                
-                if (permitsToAdd > 0) {
-                    semaphore.release(permitsToAdd);
-                }
-                
-                lastResetTime = now;
-            }
-        }
-    }
 }
\ No newline at end of file
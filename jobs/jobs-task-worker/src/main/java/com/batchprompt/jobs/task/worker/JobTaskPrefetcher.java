@@ -0,0 +1,198 @@
+package com.batchprompt.jobs.task.worker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.batchprompt.jobs.core.model.Job;
+import com.batchprompt.jobs.core.model.JobTask;
+import com.batchprompt.jobs.core.repository.JobTaskRepository;
+import com.batchprompt.jobs.core.service.JobService;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Loads the rows behind task messages in bulk. Each message is registered as it is
+ * delivered, and the first task that needs its row loads every registered task in a
+ * single IN (...) query, so a whole prefetch window costs one query instead of one per
+ * task. Jobs are cached for a short TTL, which also bounds how long a cancelled job
+ * keeps starting tasks on this worker.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class JobTaskPrefetcher {
+
+    private final JobTaskRepository jobTaskRepository;
+    private final JobService jobService;
+
+    @Value("${jobs.task-prefetch.max-batch-size:500}")
+    private int maxBatchSize;
+
+    @Value("${jobs.task-prefetch.job-ttl-ms:5000}")
+    private long jobTtlMs;
+
+    private final Map<UUID, CompletableFuture<JobTask>> tasks = new ConcurrentHashMap<>();
+    private final Queue<UUID> pending = new ConcurrentLinkedQueue<>();
+    // A lock rather than a monitor: the bulk query runs while it is held, and a virtual
+    // thread blocked inside synchronized would pin its carrier for the length of the query
+    private final ReentrantLock loadLock = new ReentrantLock();
+
+    private final Map<UUID, CachedJob> jobs = new ConcurrentHashMap<>();
+
+    private record CachedJob(Job job, long expiresAtMillis) {
+        boolean isExpired(long now) {
+            return expiresAtMillis <= now;
+        }
+    }
+
+    /**
+     * Register a delivered task so its row is included in the next bulk load
+     *
+     * @param jobTaskUuid The task
+     */
+    public void prefetch(UUID jobTaskUuid) {
+        register(jobTaskUuid);
+    }
+
+    /**
+     * Drop a registered task that will not be processed, e.g. because the worker is shutting down
+     *
+     * @param jobTaskUuid The task
+     */
+    public void discard(UUID jobTaskUuid) {
+        tasks.remove(jobTaskUuid);
+    }
+
+    /**
+     * Get a task, loading it together with all other registered tasks if it is not loaded yet.
+     * The task is handed out once; a redelivery of its message loads it again.
+     *
+     * @param jobTaskUuid The task
+     * @return The task, or null if it does not exist
+     */
+    public JobTask getJobTask(UUID jobTaskUuid) {
+        CompletableFuture<JobTask> task = register(jobTaskUuid);
+        try {
+            if (!task.isDone()) {
+                loadLock.lock();
+                try {
+                    // Another task's load may have picked this one up while we waited
+                    while (!task.isDone()) {
+                        if (!loadPending()) {
+                            // Discarded while we waited; register it again so the next load includes it
+                            tasks.put(jobTaskUuid, task);
+                            pending.add(jobTaskUuid);
+                        }
+                    }
+                } finally {
+                    loadLock.unlock();
+                }
+            }
+            return task.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        } finally {
+            tasks.remove(jobTaskUuid, task);
+        }
+    }
+
+    /**
+     * Get a job from the cache, loading it if it is not cached or has expired
+     *
+     * @param jobUuid The job
+     * @return The job, or null if it does not exist
+     */
+    public Job getJob(UUID jobUuid) {
+        long now = System.currentTimeMillis();
+        CachedJob cached = jobs.get(jobUuid);
+        if (cached != null && !cached.isExpired(now)) {
+            return cached.job();
+        }
+
+        Job job = jobService.getJobById(jobUuid);
+        if (job != null) {
+            jobs.put(jobUuid, new CachedJob(job, now + jobTtlMs));
+        }
+        return job;
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        jobs.values().removeIf(cached -> cached.isExpired(now));
+    }
+
+    /**
+     * Load up to max-batch-size registered tasks in one query. Called with the load lock held.
+     *
+     * @return false if no tasks were waiting to be loaded
+     */
+    private boolean loadPending() {
+        List<UUID> ids = new ArrayList<>();
+        UUID id;
+        while (ids.size() < maxBatchSize && (id = pending.poll()) != null) {
+            if (tasks.containsKey(id)) {
+                ids.add(id);
+            }
+        }
+        if (ids.isEmpty()) {
+            return false;
+        }
+
+        try {
+            Map<UUID, JobTask> loaded = new HashMap<>();
+            for (JobTask jobTask : jobTaskRepository.findAllById(ids)) {
+                loaded.put(jobTask.getJobTaskUuid(), jobTask);
+            }
+            for (UUID jobTaskUuid : ids) {
+                complete(jobTaskUuid, loaded.get(jobTaskUuid), null);
+            }
+            log.debug("Loaded {} of {} prefetched job tasks", loaded.size(), ids.size());
+        } catch (RuntimeException e) {
+            log.error("Error loading {} job tasks: {}", ids.size(), e.getMessage());
+            for (UUID jobTaskUuid : ids) {
+                complete(jobTaskUuid, null, e);
+            }
+        }
+        return true;
+    }
+
+    private CompletableFuture<JobTask> register(UUID jobTaskUuid) {
+        CompletableFuture<JobTask> task = new CompletableFuture<>();
+        CompletableFuture<JobTask> registered = tasks.putIfAbsent(jobTaskUuid, task);
+        if (registered != null) {
+            return registered;
+        }
+        pending.add(jobTaskUuid);
+        return task;
+    }
+
+    private void complete(UUID jobTaskUuid, JobTask jobTask, RuntimeException error) {
+        CompletableFuture<JobTask> task = tasks.get(jobTaskUuid);
+        if (task == null) {
+            return;
+        }
+        if (error != null) {
+            task.completeExceptionally(error);
+        } else {
+            task.complete(jobTask);
+        }
+    }
+}
@@ -2,32 +2,33 @@ package com.batchprompt.jobs.task.worker;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.batchprompt.jobs.core.config.WorkerConfig;
+import com.batchprompt.jobs.core.config.WorkerConfig.WorkerConfiguration;
 import com.batchprompt.jobs.core.model.ChatModelResponse;
 import com.batchprompt.jobs.core.model.Job;
 import com.batchprompt.jobs.core.model.JobTask;
 import com.batchprompt.jobs.core.repository.JobTaskRepository;
 import com.batchprompt.jobs.core.service.AbstractChatModel;
-import com.batchprompt.jobs.core.service.JobCreditService;
+import com.batchprompt.jobs.core.service.ChatResponseCacheService;
 import com.batchprompt.jobs.core.service.JobPricingService;
-import com.batchprompt.jobs.core.service.JobService;
+import com.batchprompt.jobs.core.service.JobStatusUpdater;
+import com.batchprompt.jobs.core.service.MessageProducer;
 import com.batchprompt.jobs.core.service.ModelService;
 import com.batchprompt.jobs.model.JobStatus;
 import com.batchprompt.jobs.model.TaskStatus;
 import com.batchprompt.jobs.model.dto.JobTaskMessage;
-import com.batchprompt.prompts.client.PromptClient;
-import com.batchprompt.prompts.model.dto.PromptDto;
-import com.batchprompt.users.client.AccountClient;
-import com.batchprompt.users.model.dto.AccountCreditTransactionDto;
-import com.batchprompt.users.model.dto.AccountDto;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
+import jakarta.annotation.Nullable;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -37,124 +38,231 @@ import lombok.extern.slf4j.Slf4j;
 public class JobTaskWorker {
 
     private final JobTaskRepository jobTaskRepository;
-    private final JobService jobService;
+    private final JobStatusUpdater jobStatusUpdater;
     private final ModelService modelService;
-    private final PromptClient promptClient;
-    private final ObjectMapper objectMapper;
+    private final PromptSchemaCache promptSchemaCache;
     private final JobPricingService jobPricingService;
-    private final JobCreditService jobCreditService;
-    private final AccountClient accountClient;
+    private final CreditLedger creditLedger;
+    private final WorkerConfig workerConfig;
+    private final MessageProducer messageProducer;
+    private final ChatResponseCacheService chatResponseCacheService;
 
-    // This method will be called by the listener configurations created in JobTaskListenerConfig
-    public void processJobTask(JobTaskMessage message) {
-        UUID jobTaskUuid = message.getJobTaskUuid();
-        UUID jobUuid = message.getJobUuid();
+    // Statuses a task can be finished from; anything else means another delivery already finished it
+    private static final List<TaskStatus> UNFINISHED_STATUSES = List.of(TaskStatus.SUBMITTED, TaskStatus.PROCESSING);
+
+    // Retry budget for each model, created on first use
+    private final Map<String, RetryBudget> retryBudgets = new ConcurrentHashMap<>();
+
+    /**
+     * Process a job task. This method will be called by the listener configurations created in JobTaskListenerConfig
+     * 
+     * @param jobTask The task, loaded by {@link JobTaskPrefetcher}
+     * @param job The task's job
+     * @return The model response, or null if the model was not called
+     */
+    public ChatModelResponse processJobTask(JobTask jobTask, Job job) {
+        UUID jobTaskUuid = jobTask.getJobTaskUuid();
+        UUID jobUuid = job.getJobUuid();
+        String modelId = jobTask.getModelId();
        
-        log.info("Processing job task: {} for model: {}", jobTaskUuid, message.getModelId());
+        log.info("Processing job task: {} for model: {}", jobTaskUuid, modelId);
         
-        JobTask jobTask = null;
+        boolean started = false;
+        ChatModelResponse chatResponse = null;
         
         try {
-            // Use a separate transaction to get and update the job task status to Processing
-            jobTask = updateTaskToProcessing(jobTaskUuid);
-            if (jobTask == null) {
-                return; // Already logged in the updateTaskToProcessing method
+            // Move the task to Processing, unless its job was cancelled or the task already finished
+            started = startTask(jobTask, job);
+            if (!started) {
+                return null; // Already logged in the startTask method
             }
 
-            // Check if the user has sufficient credits before proceeding
-            if (!jobCreditService.checkUserHasSufficientCredits(message.getUserId())) {
-                // Mark the task as insufficient credits and update the job status
+            // Check the job's credit reservation before proceeding
+            if (!creditLedger.reserve(jobUuid, job.getUserId())) {
+                // Mark the task as insufficient credits, which also updates the job status
                 updateTaskToInsufficientCredits(jobTaskUuid);
-                jobService.updateJobStatus(jobUuid);
-                log.warn("Task {} marked as INSUFFICIENT_CREDITS for user: {}", jobTaskUuid, message.getUserId());
-                return;
+                log.warn("Task {} marked as INSUFFICIENT_CREDITS for user: {}", jobTaskUuid, job.getUserId());
+                return null;
             }
             
             // Step 2: Get the ChatModel for the model id. If job status is Submitted, update it to Processing
-            AbstractChatModel chatModel = modelService.getChatModel(message.getModelId());
+            AbstractChatModel chatModel = modelService.getChatModel(modelId);
             if (chatModel == null) {
-                throw new Exception("Model not found: " + message.getModelId());
+                throw new Exception("Model not found: " + modelId);
             }
             
             // Update job status if needed
-            jobService.updateJobStatus(jobUuid);
+            jobStatusUpdater.taskStarted(jobUuid);
             
             // Step 3: Use the ChatModel to generate the response
-            // Get prompt text
-            // Use user auth token if available, otherwise service-to-service authentication will be used
-            PromptDto promptDto = promptClient.getPrompt(message.getPromptUuid(), null);
-            if (promptDto == null) {
-                throw new Exception("Prompt not found: " + message.getPromptUuid());
-            }
-            
-            // Convert output schema to JsonNode if it exists
-            JsonNode outputSchema = null;
-            if (promptDto.getResponseJsonSchema() != null && !promptDto.getResponseJsonSchema().isBlank()) {
-                outputSchema = objectMapper.readTree(promptDto.getResponseJsonSchema());
+            // The output schema is loaded once per job and shared by all of its tasks
+            JsonNode outputSchema = promptSchemaCache.getOutputSchema(jobUuid, job.getPromptUuid());
+
+            // Reuse the response if the same prompt was already sent with the same parameters
+            String cacheKey = null;
+            if (job.isUseResponseCache()) {
+                cacheKey = chatResponseCacheService.buildKey(chatModel, jobTask.getPromptText(), outputSchema,
+                        job.getMaxTokens(), job.getTemperature());
+                ChatModelResponse cachedResponse = chatResponseCacheService.get(cacheKey);
+                if (cachedResponse != null) {
+                    log.info("Job task {} completed from the response cache", jobTaskUuid);
+                    completeTaskWithTokens(jobTask, job.getUserId(), cachedResponse);
+                    return null;
+                }
             }
 
             // Use the new chat model response method to get response with token counts
-            ChatModelResponse chatResponse = chatModel.generateChatResponse(
+            chatResponse = chatModel.generateChatResponse(
                     jobTask.getPromptText(),
                     outputSchema,
-                    message.getMaxTokens(),
-                    message.getTemperature()
+                    job.getMaxTokens(),
+                    job.getTemperature()
             );
+
+            if (cacheKey != null) {
+                chatResponseCacheService.put(cacheKey, modelId, chatResponse);
+            }
             
+            WorkerConfiguration retryConfig = getRetryConfiguration(modelId);
+            RetryBudget retryBudget = retryBudgets.computeIfAbsent(modelId,
+                    id -> new RetryBudget(retryConfig.getRetryBudgetPercent()));
+            retryBudget.recordCall();
+
+            // Transient failures go back to the queue after a backoff instead of failing the task
+            boolean retryable = chatResponse.getErrorMessage() != null && chatResponse.isRetryable();
+            if (retryable && scheduleRetry(jobTask, chatResponse, retryConfig, retryBudget)) {
+                return chatResponse;
+            }
+
             // Step 4: If successful, update status to Completed in a separate transaction
-            completeTaskWithTokens(jobTask, message.getUserId(), chatResponse);
+            completeTaskWithTokens(jobTask, job.getUserId(), chatResponse);
+
+            if (retryable) {
+                sendToDeadLetterQueue(jobTask);
+            }
             
         } catch (Exception e) {
             // Step 5: If failed, update status to Failed in a separate transaction
             log.error("Error processing job task: {}", jobTaskUuid, e);
-            if (jobTask != null) {
+            if (started) {
                 failTask(jobTaskUuid, e.getMessage());
             }
-        } {
-            // Step 6: Update job status to Completed or Failed
-            jobService.updateJobStatus(jobUuid);
         }
+        return chatResponse;
     }
     
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public JobTask updateTaskToProcessing(UUID jobTaskUuid) {
-        JobTask jobTask = jobTaskRepository.findById(jobTaskUuid).orElse(null);
-        if (jobTask == null) {
-            log.error("Job task not found: {}", jobTaskUuid);
-            return null;
+    /**
+     * Return a task that failed with a transient error to its queue after an exponential
+     * backoff with jitter, honouring any Retry-After from the provider
+     *
+     * @return true if the retry was scheduled or the task is no longer processing (for example
+     *         cancelled while the call was running), false if the task has exhausted its retries
+     */
+    boolean scheduleRetry(JobTask jobTask, ChatModelResponse chatResponse,
+                          WorkerConfiguration retryConfig, RetryBudget retryBudget) {
+        UUID jobTaskUuid = jobTask.getJobTaskUuid();
+        int retryCount = jobTask.getRetryCount();
+
+        if (retryCount >= retryConfig.getMaxRetries()) {
+            log.warn("Job task {} failed after {} retries: {}", jobTaskUuid, retryCount, chatResponse.getErrorMessage());
+            return false;
+        }
+        if (!retryBudget.tryWithdraw()) {
+            log.warn("Retry budget exhausted for model {}, job task {} will not be retried", jobTask.getModelId(), jobTaskUuid);
+            return false;
+        }
+
+        long backoffMs = Math.min(retryConfig.getRetryMaxDelayMs(), retryConfig.getRetryBaseDelayMs() << Math.min(retryCount, 20));
+        long delayMs = backoffMs / 2 + ThreadLocalRandom.current().nextLong(backoffMs / 2 + 1);
+        if (chatResponse.getRetryAfterMillis() != null) {
+            delayMs = Math.max(delayMs, chatResponse.getRetryAfterMillis());
+        }
+
+        // Guarded, so a task cancelled while the call was running is not resubmitted
+        if (jobTaskRepository.retryTask(jobTaskUuid, retryCount + 1, chatResponse.getErrorMessage()) == 0) {
+            log.info("Job task {} is no longer processing, retry skipped", jobTaskUuid);
+            return true;
         }
+        jobTask.setStatus(TaskStatus.SUBMITTED);
+        jobTask.setRetryCount(retryCount + 1);
+        jobTask.setErrorMessage(chatResponse.getErrorMessage());
 
-        Job job = jobService.getJobById(jobTask.getJobUuid());
-        if (job == null) {
-            log.error("Job not found for task {}: {}", jobTaskUuid, jobTask.getJobUuid());
-            return null;
+        try {
+            messageProducer.sendJobTaskWithDelay(jobTask.getModelId(), new JobTaskMessage(jobTaskUuid), delayMs);
+        } catch (Exception e) {
+            log.error("Could not schedule retry for job task {}: {}", jobTaskUuid, e.getMessage());
+            return false;
         }
 
+        log.info("Job task {} failed with a transient error, retry {} of {} in {} ms",
+                jobTaskUuid, retryCount + 1, retryConfig.getMaxRetries(), delayMs);
+        return true;
+    }
+
+    private void sendToDeadLetterQueue(JobTask jobTask) {
+        try {
+            messageProducer.sendJobTaskToDeadLetterQueue(jobTask.getModelId(), new JobTaskMessage(jobTask.getJobTaskUuid()));
+        } catch (Exception e) {
+            log.error("Could not send job task {} to the dead-letter queue: {}", jobTask.getJobTaskUuid(), e.getMessage());
+        }
+    }
+
+    /**
+     * Get the retry settings from the worker configuration of the model's queue
+     */
+    private WorkerConfiguration getRetryConfiguration(String modelId) {
+        WorkerConfiguration queueConfig = workerConfig.getWorkerConfigForQueue(modelService.getQueueForModel(modelId));
+        return queueConfig != null ? queueConfig : new WorkerConfiguration();
+    }
+
+    /**
+     * Move a prefetched task to PROCESSING. Only the status is written, so the task row is not read again.
+     *
+     * @return false if the task should not be processed
+     */
+    private boolean startTask(JobTask jobTask, Job job) {
+        UUID jobTaskUuid = jobTask.getJobTaskUuid();
+
         if (job.getStatus() == JobStatus.CANCELLED) {
             log.info("Job task {} cancelled due to job status: {}", jobTaskUuid, job.getStatus());
-            jobTask.setStatus(TaskStatus.CANCELLED);
-            jobTaskRepository.save(jobTask);
-            return null;
+            jobTaskRepository.transitionStatus(jobTaskUuid, UNFINISHED_STATUSES, TaskStatus.CANCELLED);
+            promptSchemaCache.evict(job.getJobUuid());
+            return false;
         }
-        
-        // If already completed or failed, don't process again
-        if (jobTask.getStatus() == TaskStatus.COMPLETED || jobTask.getStatus() == TaskStatus.FAILED) {
+
+        // If already finished, don't process again
+        LocalDateTime beginTimestamp = LocalDateTime.now();
+        if (jobTaskRepository.startTask(jobTaskUuid, UNFINISHED_STATUSES, beginTimestamp) == 0) {
             log.info("Job task {} already in final state: {}", jobTaskUuid, jobTask.getStatus());
-            return null;
+            return false;
         }
-        
+
         jobTask.setStatus(TaskStatus.PROCESSING);
-        jobTask.setBeginTimestamp(LocalDateTime.now());
-        
-        return jobTaskRepository.save(jobTask);
+        jobTask.setBeginTimestamp(beginTimestamp);
+        return true;
     }
 
-    private void completeTaskWithTokens(JobTask jobTask, String userId, ChatModelResponse chatResponse) {
-        UUID jobTaskUuid = jobTask.getJobTaskUuid();        
+    /**
+     * Record a model response on a task, calculate its cost and debit the user's credits
+     * from the job's reservation
+     */
+    void completeTaskWithTokens(JobTask jobTask, String userId, ChatModelResponse chatResponse) {
+        completeTaskWithTokens(jobTask, userId, null, chatResponse);
+    }
+
+    /**
+     * Record a model response on a task, calculate its cost and debit the user's credits.
+     * Used by {@link JobBatchWorker} for results returned by provider batches, which hold
+     * no reservation and are debited from the billing account it resolved for the batch.
+     */
+    void completeTaskWithTokens(JobTask jobTask, String userId, @Nullable UUID billingAccountUuid, ChatModelResponse chatResponse) {
+        UUID jobTaskUuid = jobTask.getJobTaskUuid();
+        TaskStatus status = chatResponse.getErrorMessage() != null ? TaskStatus.FAILED : TaskStatus.COMPLETED;
+
         jobTask.setResponseText(chatResponse.getResponseText());
         jobTask.setErrorMessage(chatResponse.getErrorMessage()); // Clear any previous error message
         jobTask.setEndTimestamp(LocalDateTime.now());
-        jobTask.setStatus(chatResponse.getErrorMessage() != null ? TaskStatus.FAILED : TaskStatus.COMPLETED);
+        jobTask.setStatus(status);
         
         // Set token usage information
         jobTask.setPromptTokens(chatResponse.getPromptTokens());
@@ -176,36 +284,21 @@ public class JobTaskWorker {
             log.warn("Could not calculate cost for job task {}", jobTaskUuid);
         }
         
-        // Save the task with calculated cost and credit usage
-        jobTaskRepository.save(jobTask);
+        // Write the status with the response, cost and credit usage in one guarded update, so a
+        // redelivered task is not finished, debited and counted twice
+        if (jobTaskRepository.finishTask(jobTaskUuid, UNFINISHED_STATUSES, status,
+                jobTask.getResponseText(), jobTask.getErrorMessage(), jobTask.getEndTimestamp(),
+                jobTask.getPromptTokens(), jobTask.getCompletionTokens(), jobTask.getTotalTokens(),
+                jobTask.getCalculatedCostUsd(), jobTask.getCreditUsage()) == 0) {
+            log.info("Job task {} already finished, response ignored", jobTaskUuid);
+            return;
+        }
+        jobStatusUpdater.tasksFinished(jobTask.getJobUuid());
         
-        // Debit the credits used from the user's account (if credit usage is calculated)
-        if (jobTask.getCreditUsage() != null && userId != null) {
-            try {
-                
-                // Create a transaction DTO to debit credits (negative amount represents debit)
-                AccountCreditTransactionDto transactionDto = new AccountCreditTransactionDto();
-                transactionDto.setChangeAmount(-1 * jobTask.getCreditUsage()); // Negative amount for debit
-                transactionDto.setReason("Task credits used: " + jobTask.getJobTaskUuid());
-                transactionDto.setReferenceId(jobTask.getJobTaskUuid().toString());
-                
-                // Get the first account for the user
-                List<AccountDto> accounts = jobCreditService.getUserAccounts(userId);
-                
-                if (accounts != null && !accounts.isEmpty()) {
-                    UUID accountUuid = accounts.get(0).getAccountUuid();
-                    
-                    // Call the account client to debit credits
-                    accountClient.addCredits(accountUuid, transactionDto);
-                    log.info("Debited {} credits from account {} for task {}", 
-                            jobTask.getCreditUsage(), accountUuid, jobTaskUuid);
-                } else {
-                    log.error("No accounts found for user {}", userId);
-                }
-            } catch (Exception e) {
-                // Don't fail the task if debiting fails, just log the error
-                log.error("Error debiting credits for task {}: {}", jobTaskUuid, e.getMessage(), e);
-            }
+        // Debit the credits used from the job's reservation; the ledger posts the debit to the user's account
+        if (jobTask.getCreditUsage() != null && jobTask.getCreditUsage() > 0 && userId != null) {
+            creditLedger.debit(jobTask.getJobUuid(), userId, billingAccountUuid, jobTaskUuid, jobTask.getCreditUsage());
+            log.info("Debited {} credits for task {}", jobTask.getCreditUsage(), jobTaskUuid);
         }
         
         if (chatResponse.getTotalTokens() != null) {
@@ -225,12 +318,14 @@ public class JobTaskWorker {
             log.error("Job task not found: {}", jobTaskUuid);
             return;
         }
+
+        if (jobTaskRepository.endTask(jobTaskUuid, UNFINISHED_STATUSES, TaskStatus.FAILED,
+                errorMessage, LocalDateTime.now()) == 0) {
+            log.info("Job task {} already finished with status {}", jobTaskUuid, jobTask.getStatus());
+            return;
+        }
         
-        jobTask.setStatus(TaskStatus.FAILED);
-        jobTask.setErrorMessage(errorMessage);
-        jobTask.setEndTimestamp(LocalDateTime.now());
-        
-        jobTaskRepository.save(jobTask);
+        jobStatusUpdater.tasksFinished(jobTask.getJobUuid());
     }
 
     @Transactional(propagation = Propagation.REQUIRES_NEW)
@@ -240,12 +335,14 @@ public class JobTaskWorker {
             log.error("Job task not found: {}", jobTaskUuid);
             return;
         }
+
+        if (jobTaskRepository.endTask(jobTaskUuid, UNFINISHED_STATUSES, TaskStatus.INSUFFICIENT_CREDITS,
+                "Insufficient credits available to process this task", LocalDateTime.now()) == 0) {
+            log.info("Job task {} already finished with status {}", jobTaskUuid, jobTask.getStatus());
+            return;
+        }
         
-        jobTask.setStatus(TaskStatus.INSUFFICIENT_CREDITS);
-        jobTask.setErrorMessage("Insufficient credits available to process this task");
-        jobTask.setEndTimestamp(LocalDateTime.now());
-        
-        jobTaskRepository.save(jobTask);
+        jobStatusUpdater.tasksFinished(jobTask.getJobUuid());
         log.info("Job task {} marked as INSUFFICIENT_CREDITS", jobTaskUuid);
     }
 
@@ -3,9 +3,11 @@ package com.batchprompt.jobs.task.worker;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @ComponentScan
+@EnableScheduling
 public class JobsTaskWorkerApplication {
 
     public static void main(String[] args) {
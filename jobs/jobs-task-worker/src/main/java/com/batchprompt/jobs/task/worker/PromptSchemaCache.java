@@ -0,0 +1,124 @@
+package com.batchprompt.jobs.task.worker;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.batchprompt.prompts.client.PromptClient;
+import com.batchprompt.prompts.model.dto.PromptDto;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Caches the parsed output schema of each job's prompt, so tasks don't call
+ * prompts-api and re-parse the schema for every record. Entries are kept per job
+ * (a job keeps the schema it started with even if the prompt is edited) and
+ * expire after a TTL so finished jobs drop out of the cache.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class PromptSchemaCache {
+
+    private final PromptClient promptClient;
+    private final ObjectMapper objectMapper;
+
+    @Value("${jobs.prompt-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    private final Map<UUID, CachedSchema> schemasByJob = new ConcurrentHashMap<>();
+
+    /**
+     * The schema is loaded once per job; concurrent tasks of the same job wait on the same load
+     */
+    private record CachedSchema(CompletableFuture<JsonNode> outputSchema, long expiresAtMillis) {
+        boolean isExpired(long now) {
+            return expiresAtMillis <= now;
+        }
+    }
+
+    /**
+     * Get the parsed output schema of a job's prompt
+     *
+     * @param jobUuid The job
+     * @param promptUuid The job's prompt
+     * @return The output schema, or null if the prompt has none
+     * @throws Exception If the prompt could not be loaded
+     */
+    public JsonNode getOutputSchema(UUID jobUuid, UUID promptUuid) throws Exception {
+        while (true) {
+            long now = System.currentTimeMillis();
+            CachedSchema cached = schemasByJob.get(jobUuid);
+            if (cached != null && !cached.isExpired(now)) {
+                return join(cached);
+            }
+
+            CachedSchema loading = new CachedSchema(new CompletableFuture<>(), now + ttlSeconds * 1000);
+            boolean claimed = cached == null
+                    ? schemasByJob.putIfAbsent(jobUuid, loading) == null
+                    : schemasByJob.replace(jobUuid, cached, loading);
+            if (!claimed) {
+                // Another task of the job is loading it
+                continue;
+            }
+
+            try {
+                loading.outputSchema().complete(loadOutputSchema(promptUuid));
+            } catch (Exception e) {
+                // Don't cache failures; the next task tries again
+                schemasByJob.remove(jobUuid, loading);
+                loading.outputSchema().completeExceptionally(e);
+            }
+            return join(loading);
+        }
+    }
+
+    /**
+     * Drop the cached schema of a job
+     *
+     * @param jobUuid The job
+     */
+    public void evict(UUID jobUuid) {
+        schemasByJob.remove(jobUuid);
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        schemasByJob.values().removeIf(cached -> cached.isExpired(now));
+    }
+
+    private JsonNode join(CachedSchema cached) throws Exception {
+        try {
+            return cached.outputSchema().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private JsonNode loadOutputSchema(UUID promptUuid) throws Exception {
+        // Service-to-service authentication is used when no user token is passed
+        PromptDto promptDto = promptClient.getPrompt(promptUuid, null);
+        if (promptDto == null) {
+            throw new Exception("Prompt not found: " + promptUuid);
+        }
+
+        log.debug("Loaded output schema for prompt {}", promptUuid);
+        if (promptDto.getResponseJsonSchema() != null && !promptDto.getResponseJsonSchema().isBlank()) {
+            return objectMapper.readTree(promptDto.getResponseJsonSchema());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,47 @@
+package com.batchprompt.jobs.task.worker;
+
+/**
+ * Retry budget for a single model. Every call deposits a fraction of a retry and
+ * every retry withdraws a whole one, so retries stay at a fixed percentage of the
+ * traffic to the model. A small reserve lets occasional failures be retried when
+ * traffic is low.
+ */
+public class RetryBudget {
+
+    private static final double MIN_RESERVE = 10;
+
+    private final double depositPerCall;
+    private final double maxBalance;
+    private double balance;
+
+    /**
+     * Constructor
+     *
+     * @param retryPercent Retries allowed as a percentage of calls
+     */
+    public RetryBudget(int retryPercent) {
+        this.depositPerCall = Math.max(retryPercent, 0) / 100.0;
+        this.maxBalance = Math.max(MIN_RESERVE, depositPerCall * 1000);
+        this.balance = MIN_RESERVE;
+    }
+
+    /**
+     * Record a call to the model
+     */
+    public synchronized void recordCall() {
+        balance = Math.min(maxBalance, balance + depositPerCall);
+    }
+
+    /**
+     * Try to spend one retry from the budget
+     *
+     * @return true if the retry may go ahead
+     */
+    public synchronized boolean tryWithdraw() {
+        if (balance < 1) {
+            return false;
+        }
+        balance -= 1;
+        return true;
+    }
+}
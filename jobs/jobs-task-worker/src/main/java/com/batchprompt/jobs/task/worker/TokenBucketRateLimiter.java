@@ -0,0 +1,97 @@
+package com.batchprompt.jobs.task.worker;
+
+/**
+ * Token bucket rate limiter for a single model queue. Two buckets are kept, one
+ * for requests per minute and one for provider tokens per minute. Both refill
+ * continuously instead of resetting once a minute, and nothing is held for the
+ * duration of a call - callers that cannot be admitted are told how long to wait.
+ */
+public class TokenBucketRateLimiter {
+
+    private static final double NANOS_PER_MINUTE = 60_000_000_000d;
+
+    private final double requestsPerMinute;
+    private final double tokensPerMinute;
+    private double availableRequests;
+    private double availableTokens;
+    private long lastRefillNanos;
+
+    /**
+     * Constructor
+     *
+     * @param requestsPerMinute Requests allowed per minute, 0 for no limit
+     * @param tokensPerMinute Tokens allowed per minute, 0 for no limit
+     */
+    public TokenBucketRateLimiter(int requestsPerMinute, int tokensPerMinute) {
+        this.requestsPerMinute = Math.max(requestsPerMinute, 0);
+        this.tokensPerMinute = Math.max(tokensPerMinute, 0);
+        this.availableRequests = this.requestsPerMinute;
+        this.availableTokens = this.tokensPerMinute;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Try to take one request and the given number of tokens from the buckets
+     *
+     * @param tokens The estimated number of tokens the request will use
+     * @return 0 if the request was admitted, otherwise the number of milliseconds until it could be
+     */
+    public synchronized long tryAcquire(int tokens) {
+        refill();
+
+        double requestWaitMs = 0;
+        if (requestsPerMinute > 0 && availableRequests < 1) {
+            requestWaitMs = (1 - availableRequests) / requestsPerMinute * 60_000;
+        }
+
+        double tokenWaitMs = 0;
+        if (tokensPerMinute > 0) {
+            // A request larger than the whole bucket is admitted once the bucket is full
+            double needed = Math.min(tokens, tokensPerMinute);
+            if (availableTokens < needed) {
+                tokenWaitMs = (needed - availableTokens) / tokensPerMinute * 60_000;
+            }
+        }
+
+        long waitMs = (long) Math.ceil(Math.max(requestWaitMs, tokenWaitMs));
+        if (waitMs > 0) {
+            return waitMs;
+        }
+
+        if (requestsPerMinute > 0) {
+            availableRequests -= 1;
+        }
+        if (tokensPerMinute > 0) {
+            availableTokens -= tokens;
+        }
+        return 0;
+    }
+
+    /**
+     * Correct the token bucket once the actual usage of an admitted request is known.
+     * Over-estimates are returned to the bucket and under-estimates are charged.
+     *
+     * @param estimatedTokens The tokens charged when the request was admitted
+     * @param actualTokens The tokens the provider reported
+     */
+    public synchronized void reconcile(int estimatedTokens, int actualTokens) {
+        if (tokensPerMinute <= 0) {
+            return;
+        }
+        refill();
+        availableTokens = Math.min(tokensPerMinute, availableTokens + estimatedTokens - actualTokens);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double elapsedMinutes = (now - lastRefillNanos) / NANOS_PER_MINUTE;
+        lastRefillNanos = now;
+
+        if (requestsPerMinute > 0) {
+            availableRequests = Math.min(requestsPerMinute, availableRequests + elapsedMinutes * requestsPerMinute);
+        }
+        if (tokensPerMinute > 0) {
+            availableTokens = Math.min(tokensPerMinute, availableTokens + elapsedMinutes * tokensPerMinute);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.batchprompt.jobs.task.worker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.batchprompt.jobs.core.model.ChatModelResponse;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    void holdsCallsOverTheLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 10);
+
+        assertEquals(0, limiter.tryAcquire());
+        assertEquals(0, limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire() > 0);
+
+        limiter.release(null);
+
+        assertEquals(0, limiter.tryAcquire());
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    void growsByAboutOneCallPerRoundTrip() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 10);
+
+        // Each success adds 1/limit: 2, 2.5, 2.9, 3.24
+        for (int i = 0; i < 3; i++) {
+            limiter.tryAcquire();
+            limiter.release(success());
+        }
+
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    void neverGrowsPastTheMaximum() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 3);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire();
+            limiter.release(success());
+        }
+
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    void halvesOnceForABurstOfThrottles() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 10);
+        for (int i = 0; i < 4; i++) {
+            limiter.tryAcquire();
+        }
+
+        // Calls already in flight when the first 429 arrived only back off once
+        for (int i = 0; i < 4; i++) {
+            limiter.release(throttled(429, null));
+        }
+
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void serverErrorsAlsoBackOffButNeverBelowOne() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 10);
+        limiter.tryAcquire();
+
+        limiter.release(throttled(503, null));
+
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    void retryAfterPausesTheModel() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 10);
+        limiter.tryAcquire();
+
+        limiter.release(throttled(429, 5000L));
+
+        long waitMs = limiter.tryAcquire();
+        assertTrue(waitMs > 4000 && waitMs <= 5000, "waited " + waitMs + " ms");
+    }
+
+    @Test
+    void doesNotGrowWhenTheProviderIsNearItsQuota() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 10);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire();
+            limiter.release(ChatModelResponse.builder()
+                    .responseText("ok")
+                    .httpStatus(200)
+                    .rateLimitRemainingRequests(1)
+                    .build());
+        }
+
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    void otherErrorsLeaveTheLimitAlone() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 10);
+        limiter.tryAcquire();
+
+        limiter.release(ChatModelResponse.ofError("bad request"));
+
+        assertEquals(2, limiter.getLimit());
+    }
+
+    private static ChatModelResponse success() {
+        return ChatModelResponse.builder().responseText("ok").httpStatus(200).build();
+    }
+
+    private static ChatModelResponse throttled(int httpStatus, Long retryAfterMillis) {
+        return ChatModelResponse.builder()
+                .errorMessage("throttled")
+                .httpStatus(httpStatus)
+                .retryAfterMillis(retryAfterMillis)
+                .retryable(true)
+                .build();
+    }
+}
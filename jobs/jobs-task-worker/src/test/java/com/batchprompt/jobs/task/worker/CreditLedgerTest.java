@@ -0,0 +1,201 @@
+package com.batchprompt.jobs.task.worker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.batchprompt.jobs.core.service.JobCreditService;
+import com.batchprompt.users.client.AccountClient;
+import com.batchprompt.users.model.dto.AccountCreditTransactionDto;
+import com.batchprompt.users.model.dto.AccountDto;
+
+class CreditLedgerTest {
+
+    private static final String USER_ID = "user-1";
+    private static final UUID ACCOUNT = UUID.randomUUID();
+    private static final UUID SECOND_ACCOUNT = UUID.randomUUID();
+
+    private AccountClient accountClient;
+    private JobCreditService jobCreditService;
+    private CreditLedger creditLedger;
+
+    @BeforeEach
+    void setUp() {
+        accountClient = mock(AccountClient.class);
+        jobCreditService = mock(JobCreditService.class);
+        when(jobCreditService.getUserAccounts(USER_ID)).thenReturn(List.of(
+                AccountDto.builder().accountUuid(ACCOUNT).build(),
+                AccountDto.builder().accountUuid(SECOND_ACCOUNT).build()));
+        when(accountClient.getAccountBalance(SECOND_ACCOUNT)).thenReturn(ResponseEntity.ok(0));
+        when(accountClient.addCreditsBatch(anyList())).thenReturn(ResponseEntity.ok(0));
+
+        creditLedger = new CreditLedger(accountClient, jobCreditService);
+        ReflectionTestUtils.setField(creditLedger, "reservationBlock", 100.0);
+        ReflectionTestUtils.setField(creditLedger, "reservationIdleMs", 300000L);
+        ReflectionTestUtils.setField(creditLedger, "flushBatchSize", 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        creditLedger.flushOnShutdown();
+    }
+
+    @Test
+    void tasksAreCheckedAgainstTheReservedBlock() {
+        givenBalance(1000);
+        UUID jobUuid = UUID.randomUUID();
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(creditLedger.reserve(jobUuid, USER_ID));
+            creditLedger.debit(jobUuid, USER_ID, null, UUID.randomUUID(), 30);
+        }
+
+        // One block covers all three tasks: one account lookup and one balance call
+        verify(jobCreditService, times(1)).getUserAccounts(USER_ID);
+        verify(accountClient, times(1)).getAccountBalance(ACCOUNT);
+        verify(accountClient, never()).addCreditsBatch(anyList());
+    }
+
+    @Test
+    void overrunOfTheLastBlockIsDebitedAndLeftOutOfTheNextBlock() {
+        givenBalance(150);
+        UUID jobUuid = UUID.randomUUID();
+
+        assertTrue(creditLedger.reserve(jobUuid, USER_ID));
+        // Overruns the 100 credit block by 20
+        creditLedger.debit(jobUuid, USER_ID, null, UUID.randomUUID(), 120);
+
+        // 150 less the 120 pending leaves 30 for the next block
+        assertTrue(creditLedger.reserve(jobUuid, USER_ID));
+        creditLedger.debit(jobUuid, USER_ID, null, UUID.randomUUID(), 30);
+        assertFalse(creditLedger.reserve(jobUuid, USER_ID));
+
+        creditLedger.flush();
+        assertEquals(List.of(-120.0, -30.0), flushedAmounts(ACCOUNT));
+    }
+
+    @Test
+    void movesOnToTheNextAccountOnceOneIsUsedUp() {
+        givenBalance(100);
+        when(accountClient.getAccountBalance(SECOND_ACCOUNT)).thenReturn(ResponseEntity.ok(500));
+        UUID jobUuid = UUID.randomUUID();
+
+        assertTrue(creditLedger.reserve(jobUuid, USER_ID));
+        creditLedger.debit(jobUuid, USER_ID, null, UUID.randomUUID(), 100);
+        assertTrue(creditLedger.reserve(jobUuid, USER_ID));
+        creditLedger.debit(jobUuid, USER_ID, null, UUID.randomUUID(), 10);
+
+        creditLedger.flush();
+        assertEquals(List.of(-100.0), flushedAmounts(ACCOUNT));
+        assertEquals(List.of(-10.0), flushedAmounts(SECOND_ACCOUNT));
+    }
+
+    @Test
+    void flushesOnceTheBatchSizeIsReached() {
+        givenBalance(1000);
+        ReflectionTestUtils.setField(creditLedger, "flushBatchSize", 3);
+        UUID jobUuid = UUID.randomUUID();
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(creditLedger.reserve(jobUuid, USER_ID));
+            creditLedger.debit(jobUuid, USER_ID, null, UUID.randomUUID(), 1);
+        }
+
+        verify(accountClient, timeout(1000)).addCreditsBatch(argThat(debits -> debits.size() == 3));
+    }
+
+    @Test
+    void failedFlushKeepsTheDebitsForTheNextFlush() {
+        givenBalance(1000);
+        when(accountClient.addCreditsBatch(anyList()))
+                .thenThrow(new RuntimeException("users-api unavailable"))
+                .thenReturn(ResponseEntity.ok(2));
+        UUID jobUuid = UUID.randomUUID();
+        creditLedger.reserve(jobUuid, USER_ID);
+        creditLedger.debit(jobUuid, USER_ID, null, UUID.randomUUID(), 5);
+        creditLedger.debit(jobUuid, USER_ID, null, UUID.randomUUID(), 7);
+
+        creditLedger.flush();
+        creditLedger.flush();
+
+        List<List<AccountCreditTransactionDto>> batches = flushedBatches(2);
+        // The retry sends the same transactions, so users-api can skip any it already applied
+        assertEquals(transactionUuids(batches.get(0)), transactionUuids(batches.get(1)));
+
+        // Nothing is left to send
+        creditLedger.flush();
+        verify(accountClient, times(2)).addCreditsBatch(anyList());
+    }
+
+    @Test
+    void idleReservationsAreReleased() throws InterruptedException {
+        givenBalance(100);
+        UUID idleJobUuid = UUID.randomUUID();
+        UUID otherJobUuid = UUID.randomUUID();
+
+        assertTrue(creditLedger.reserve(idleJobUuid, USER_ID));
+        // The idle job holds the whole balance
+        assertFalse(creditLedger.reserve(otherJobUuid, USER_ID));
+
+        ReflectionTestUtils.setField(creditLedger, "reservationIdleMs", 0L);
+        Thread.sleep(5);
+        creditLedger.flush();
+
+        assertTrue(creditLedger.reserve(otherJobUuid, USER_ID));
+    }
+
+    @Test
+    void debitWithoutAReservationUsesTheGivenAccount() {
+        creditLedger.debit(UUID.randomUUID(), USER_ID, SECOND_ACCOUNT, UUID.randomUUID(), 4);
+
+        creditLedger.flush();
+
+        assertEquals(List.of(-4.0), flushedAmounts(SECOND_ACCOUNT));
+        verify(jobCreditService, never()).getUserAccounts(any());
+    }
+
+    private void givenBalance(int balance) {
+        when(accountClient.getAccountBalance(ACCOUNT)).thenReturn(ResponseEntity.ok(balance));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<AccountCreditTransactionDto>> flushedBatches(int count) {
+        ArgumentCaptor<List<AccountCreditTransactionDto>> debits = ArgumentCaptor.forClass(List.class);
+        verify(accountClient, times(count)).addCreditsBatch(debits.capture());
+        return debits.getAllValues();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Double> flushedAmounts(UUID accountUuid) {
+        ArgumentCaptor<List<AccountCreditTransactionDto>> debits = ArgumentCaptor.forClass(List.class);
+        verify(accountClient, timeout(1000).atLeastOnce()).addCreditsBatch(debits.capture());
+        return debits.getAllValues().stream()
+                .flatMap(List::stream)
+                .filter(debit -> debit.getAccountUuid().equals(accountUuid))
+                .map(AccountCreditTransactionDto::getChangeAmount)
+                .toList();
+    }
+
+    private static List<UUID> transactionUuids(List<AccountCreditTransactionDto> debits) {
+        return debits.stream().map(AccountCreditTransactionDto::getTransactionUuid).toList();
+    }
+}
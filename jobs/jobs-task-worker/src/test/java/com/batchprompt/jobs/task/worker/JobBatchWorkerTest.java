@@ -0,0 +1,258 @@
+package com.batchprompt.jobs.task.worker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withBadRequest;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServiceUnavailable;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import com.batchprompt.jobs.core.model.ChatModelResponse;
+import com.batchprompt.jobs.core.model.Job;
+import com.batchprompt.jobs.core.model.JobTask;
+import com.batchprompt.jobs.core.model.JobTaskBatch;
+import com.batchprompt.jobs.core.model.JobTaskBatch.BatchStatus;
+import com.batchprompt.jobs.core.model.Model;
+import com.batchprompt.jobs.core.repository.JobRepository;
+import com.batchprompt.jobs.core.repository.JobTaskBatchRepository;
+import com.batchprompt.jobs.core.repository.JobTaskRepository;
+import com.batchprompt.jobs.core.service.JobCreditService;
+import com.batchprompt.jobs.core.service.JobService;
+import com.batchprompt.jobs.core.service.JobStatusUpdater;
+import com.batchprompt.jobs.core.service.JobTaskBatchService;
+import com.batchprompt.jobs.core.service.ModelService;
+import com.batchprompt.jobs.core.service.OpenAIChatModel;
+import com.batchprompt.jobs.model.TaskStatus;
+
+@ExtendWith(MockitoExtension.class)
+class JobBatchWorkerTest {
+
+    private static final String MODEL_ID = "openai-gpt-4o-mini";
+    private static final String FILES_URL = "https://api.openai.com/v1/files";
+    private static final String BATCHES_URL = "https://api.openai.com/v1/batches";
+
+    @Mock
+    private JobRepository jobRepository;
+    @Mock
+    private JobTaskRepository jobTaskRepository;
+    @Mock
+    private JobTaskBatchRepository jobTaskBatchRepository;
+    @Mock
+    private JobTaskBatchService jobTaskBatchService;
+    @Mock
+    private JobService jobService;
+    @Mock
+    private JobStatusUpdater jobStatusUpdater;
+    @Mock
+    private ModelService modelService;
+    @Mock
+    private JobCreditService jobCreditService;
+    @Mock
+    private PromptSchemaCache promptSchemaCache;
+    @Mock
+    private JobTaskWorker jobTaskWorker;
+    @Mock
+    private CreditLedger creditLedger;
+
+    @InjectMocks
+    private JobBatchWorker jobBatchWorker;
+
+    private MockRestServiceServer server;
+    private OpenAIChatModel chatModel;
+    private Job job;
+    private JobTaskBatch batch;
+    private JobTask task1;
+    private JobTask task2;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(jobBatchWorker, "maxRequestsPerBatch", 1000);
+        ReflectionTestUtils.setField(jobBatchWorker, "pendingTimeoutMs", 900000L);
+
+        RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        chatModel = new OpenAIChatModel(Model.builder()
+                .modelId(MODEL_ID)
+                .modelProviderModelId("gpt-4o-mini")
+                .build(), "test-key", restTemplate);
+
+        job = Job.builder()
+                .jobUuid(UUID.randomUUID())
+                .userId("user-1")
+                .promptUuid(UUID.randomUUID())
+                .modelId(MODEL_ID)
+                .batchMode(true)
+                .build();
+        batch = JobTaskBatch.builder()
+                .jobTaskBatchUuid(UUID.randomUUID())
+                .jobUuid(job.getJobUuid())
+                .modelId(MODEL_ID)
+                .status(BatchStatus.PENDING)
+                .taskCount(2)
+                .build();
+        task1 = task();
+        task2 = task();
+    }
+
+    @Test
+    void submitsClaimedTasksAndRecordsProviderBatchId() {
+        givenClaimedBatch();
+        server.expect(requestTo(FILES_URL))
+                .andRespond(withSuccess("{\"id\":\"file-in\"}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo(BATCHES_URL))
+                .andRespond(withSuccess("{\"id\":\"batch-1\"}", MediaType.APPLICATION_JSON));
+        when(jobTaskBatchRepository.markSubmitted(batch.getJobTaskBatchUuid(), "batch-1")).thenReturn(1);
+
+        jobBatchWorker.processBatches();
+
+        server.verify();
+        verify(jobTaskBatchRepository).markSubmitted(batch.getJobTaskBatchUuid(), "batch-1");
+        verify(jobStatusUpdater).taskStarted(job.getJobUuid());
+        verify(jobTaskBatchService, never()).releaseBatch(any(), any());
+        verify(jobTaskWorker, never()).completeTaskWithTokens(any(), any(), any(), any());
+    }
+
+    @Test
+    void transientSubmitFailureReleasesClaimedTasks() {
+        givenClaimedBatch();
+        server.expect(requestTo(FILES_URL)).andRespond(withServiceUnavailable());
+
+        jobBatchWorker.processBatches();
+
+        server.verify();
+        verify(jobTaskBatchService).releaseBatch(eq(batch.getJobTaskBatchUuid()), any());
+        verify(jobTaskBatchRepository, never()).transitionStatus(any(), any(), any(), any());
+        verify(jobTaskWorker, never()).completeTaskWithTokens(any(), any(), any(), any());
+    }
+
+    @Test
+    void permanentSubmitFailureFailsClaimedTasks() {
+        givenClaimedBatch();
+        server.expect(requestTo(FILES_URL))
+                .andRespond(withSuccess("{\"id\":\"file-in\"}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo(BATCHES_URL))
+                .andRespond(withBadRequest().body("{\"error\":{\"message\":\"invalid model\"}}")
+                        .contentType(MediaType.APPLICATION_JSON));
+        when(jobTaskBatchRepository.transitionStatus(eq(batch.getJobTaskBatchUuid()), eq(BatchStatus.PENDING),
+                eq(BatchStatus.FAILED), any())).thenReturn(1);
+
+        jobBatchWorker.processBatches();
+
+        server.verify();
+        verify(jobTaskBatchService, never()).releaseBatch(any(), any());
+        ArgumentCaptor<ChatModelResponse> responses = ArgumentCaptor.forClass(ChatModelResponse.class);
+        verify(jobTaskWorker).completeTaskWithTokens(eq(task1), eq("user-1"), isNull(), responses.capture());
+        verify(jobTaskWorker).completeTaskWithTokens(eq(task2), eq("user-1"), isNull(), any());
+        assertTrue(responses.getValue().getErrorMessage().startsWith("Failed to submit provider batch"));
+        // Nothing to bill, so no account is looked up
+        verify(creditLedger, never()).selectAccount(any());
+    }
+
+    @Test
+    void completedBatchMapsResultsOntoTasks() {
+        batch.setStatus(BatchStatus.SUBMITTED);
+        batch.setProviderBatchId("batch-1");
+        when(jobRepository.findByBatchModeTrueAndStatusIn(any())).thenReturn(List.of());
+        when(jobTaskBatchRepository.findByStatus(BatchStatus.SUBMITTED)).thenReturn(List.of(batch));
+        when(modelService.getChatModel(MODEL_ID)).thenReturn(chatModel);
+        when(jobTaskBatchRepository.transitionStatus(batch.getJobTaskBatchUuid(), BatchStatus.SUBMITTED,
+                BatchStatus.COMPLETED, null)).thenReturn(1);
+        when(jobService.getJobById(job.getJobUuid())).thenReturn(job);
+        when(jobTaskRepository.findByJobTaskBatchUuid(batch.getJobTaskBatchUuid())).thenReturn(List.of(task1, task2));
+        UUID accountUuid = UUID.randomUUID();
+        when(creditLedger.selectAccount("user-1")).thenReturn(accountUuid);
+
+        server.expect(requestTo(BATCHES_URL + "/batch-1"))
+                .andRespond(withSuccess("{\"id\":\"batch-1\",\"status\":\"completed\",\"output_file_id\":\"file-out\"}",
+                        MediaType.APPLICATION_JSON));
+        server.expect(requestTo(FILES_URL + "/file-out/content"))
+                .andRespond(withSuccess("{\"custom_id\":\"" + task1.getJobTaskUuid() + "\",\"response\":{\"status_code\":200,"
+                        + "\"body\":{\"choices\":[{\"message\":{\"content\":\"hello\"}}],"
+                        + "\"usage\":{\"prompt_tokens\":5,\"completion_tokens\":2,\"total_tokens\":7}}}}\n",
+                        MediaType.TEXT_PLAIN));
+
+        jobBatchWorker.processBatches();
+
+        server.verify();
+        ArgumentCaptor<ChatModelResponse> first = ArgumentCaptor.forClass(ChatModelResponse.class);
+        ArgumentCaptor<ChatModelResponse> second = ArgumentCaptor.forClass(ChatModelResponse.class);
+        verify(jobTaskWorker).completeTaskWithTokens(eq(task1), eq("user-1"), eq(accountUuid), first.capture());
+        verify(jobTaskWorker).completeTaskWithTokens(eq(task2), eq("user-1"), eq(accountUuid), second.capture());
+        // The billing account is resolved once for the whole batch
+        verify(creditLedger).selectAccount("user-1");
+
+        assertEquals("hello", first.getValue().getResponseText());
+        assertEquals(7, first.getValue().getTotalTokens());
+        assertNull(first.getValue().getErrorMessage());
+        assertEquals("No result returned by the provider batch", second.getValue().getErrorMessage());
+    }
+
+    @Test
+    void inProgressBatchIsLeftSubmitted() {
+        batch.setStatus(BatchStatus.SUBMITTED);
+        batch.setProviderBatchId("batch-1");
+        when(jobRepository.findByBatchModeTrueAndStatusIn(any())).thenReturn(List.of());
+        when(jobTaskBatchRepository.findByStatus(BatchStatus.SUBMITTED)).thenReturn(List.of(batch));
+        when(modelService.getChatModel(MODEL_ID)).thenReturn(chatModel);
+        server.expect(requestTo(BATCHES_URL + "/batch-1"))
+                .andRespond(withSuccess("{\"id\":\"batch-1\",\"status\":\"in_progress\"}", MediaType.APPLICATION_JSON));
+
+        jobBatchWorker.processBatches();
+
+        server.verify();
+        verify(jobTaskBatchRepository, never()).transitionStatus(any(), any(), any(), any());
+        verify(jobTaskWorker, never()).completeTaskWithTokens(any(), any(), any(), any());
+    }
+
+    @Test
+    void recoverStaleBatchesReleasesPendingBatchesAndOrphanedTasks() {
+        when(jobTaskBatchRepository.findByStatusAndUpdatedAtBefore(eq(BatchStatus.PENDING), any(LocalDateTime.class)))
+                .thenReturn(List.of(batch));
+
+        jobBatchWorker.recoverStaleBatches();
+
+        verify(jobTaskBatchService).releaseBatch(eq(batch.getJobTaskBatchUuid()), anyString());
+        verify(jobTaskRepository).releaseOrphanedBatchTasks();
+    }
+
+    private void givenClaimedBatch() {
+        when(jobRepository.findByBatchModeTrueAndStatusIn(any())).thenReturn(List.of(job));
+        when(modelService.getChatModel(MODEL_ID)).thenReturn(chatModel);
+        when(jobCreditService.checkUserHasSufficientCredits("user-1")).thenReturn(true);
+        when(jobTaskBatchService.claimBatch(job, 1000)).thenReturn(batch, (JobTaskBatch) null);
+        when(jobTaskRepository.findByJobTaskBatchUuid(batch.getJobTaskBatchUuid())).thenReturn(List.of(task1, task2));
+    }
+
+    private JobTask task() {
+        return JobTask.builder()
+                .jobTaskUuid(UUID.randomUUID())
+                .jobUuid(job.getJobUuid())
+                .modelId(MODEL_ID)
+                .status(TaskStatus.PROCESSING)
+                .build();
+    }
+}
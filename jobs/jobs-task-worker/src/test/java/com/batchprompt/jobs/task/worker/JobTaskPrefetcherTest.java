@@ -0,0 +1,161 @@
+package com.batchprompt.jobs.task.worker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.batchprompt.jobs.core.model.Job;
+import com.batchprompt.jobs.core.model.JobTask;
+import com.batchprompt.jobs.core.repository.JobTaskRepository;
+import com.batchprompt.jobs.core.service.JobService;
+
+class JobTaskPrefetcherTest {
+
+    private JobTaskRepository jobTaskRepository;
+    private JobService jobService;
+    private JobTaskPrefetcher prefetcher;
+
+    // The ids passed to each bulk load, copied as the list is not kept by the prefetcher
+    private final List<List<UUID>> loads = new ArrayList<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        jobTaskRepository = mock(JobTaskRepository.class);
+        jobService = mock(JobService.class);
+        when(jobTaskRepository.findAllById(anyIterable())).thenAnswer(invocation -> {
+            List<UUID> ids = new ArrayList<>();
+            ((Iterable<UUID>) invocation.getArgument(0)).forEach(ids::add);
+            loads.add(ids);
+            return ids.stream()
+                    .map(id -> JobTask.builder().jobTaskUuid(id).build())
+                    .toList();
+        });
+
+        prefetcher = new JobTaskPrefetcher(jobTaskRepository, jobService);
+        ReflectionTestUtils.setField(prefetcher, "maxBatchSize", 500);
+        ReflectionTestUtils.setField(prefetcher, "jobTtlMs", 5000L);
+    }
+
+    @Test
+    void loadsTheWholeWindowInOneQuery() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+        prefetcher.prefetch(first);
+        prefetcher.prefetch(second);
+        prefetcher.prefetch(third);
+
+        assertEquals(first, prefetcher.getJobTask(first).getJobTaskUuid());
+        assertEquals(second, prefetcher.getJobTask(second).getJobTaskUuid());
+        assertEquals(third, prefetcher.getJobTask(third).getJobTaskUuid());
+
+        assertEquals(List.of(List.of(first, second, third)), loads);
+    }
+
+    @Test
+    void loadsAtMostMaxBatchSizeTasksPerQuery() {
+        ReflectionTestUtils.setField(prefetcher, "maxBatchSize", 2);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+        prefetcher.prefetch(first);
+        prefetcher.prefetch(second);
+        prefetcher.prefetch(third);
+
+        // The third task is not in the first window, so its caller loads again
+        assertEquals(third, prefetcher.getJobTask(third).getJobTaskUuid());
+        assertEquals(first, prefetcher.getJobTask(first).getJobTaskUuid());
+
+        assertEquals(List.of(List.of(first, second), List.of(third)), loads);
+    }
+
+    @Test
+    void taskNotPrefetchedIsLoadedOnItsOwn() {
+        UUID jobTaskUuid = UUID.randomUUID();
+
+        assertEquals(jobTaskUuid, prefetcher.getJobTask(jobTaskUuid).getJobTaskUuid());
+
+        assertEquals(List.of(List.of(jobTaskUuid)), loads);
+    }
+
+    @Test
+    void redeliveredTaskIsLoadedAgain() {
+        UUID jobTaskUuid = UUID.randomUUID();
+        prefetcher.prefetch(jobTaskUuid);
+        prefetcher.getJobTask(jobTaskUuid);
+
+        // The first delivery was handed out, so the redelivery reads the row again
+        prefetcher.prefetch(jobTaskUuid);
+        prefetcher.getJobTask(jobTaskUuid);
+
+        assertEquals(List.of(List.of(jobTaskUuid), List.of(jobTaskUuid)), loads);
+    }
+
+    @Test
+    void discardedTaskIsLeftOutOfTheLoad() {
+        UUID discarded = UUID.randomUUID();
+        UUID kept = UUID.randomUUID();
+        prefetcher.prefetch(discarded);
+        prefetcher.prefetch(kept);
+
+        prefetcher.discard(discarded);
+        prefetcher.getJobTask(kept);
+
+        assertEquals(List.of(List.of(kept)), loads);
+    }
+
+    @Test
+    void missingRowIsReturnedAsNull() {
+        doReturn(List.of()).when(jobTaskRepository).findAllById(anyIterable());
+
+        assertNull(prefetcher.getJobTask(UUID.randomUUID()));
+    }
+
+    @Test
+    void loadErrorIsThrownToEveryTaskInTheWindow() {
+        DataAccessResourceFailureException error = new DataAccessResourceFailureException("connection lost");
+        doThrow(error).when(jobTaskRepository).findAllById(anyIterable());
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        prefetcher.prefetch(first);
+        prefetcher.prefetch(second);
+
+        assertSame(error, assertThrows(DataAccessResourceFailureException.class, () -> prefetcher.getJobTask(first)));
+        assertSame(error, assertThrows(DataAccessResourceFailureException.class, () -> prefetcher.getJobTask(second)));
+        verify(jobTaskRepository, times(1)).findAllById(anyIterable());
+    }
+
+    @Test
+    void jobIsCachedUntilItsTtlPasses() throws InterruptedException {
+        ReflectionTestUtils.setField(prefetcher, "jobTtlMs", 50L);
+        UUID jobUuid = UUID.randomUUID();
+        Job job = Job.builder().jobUuid(jobUuid).build();
+        when(jobService.getJobById(jobUuid)).thenReturn(job);
+
+        assertSame(job, prefetcher.getJob(jobUuid));
+        assertSame(job, prefetcher.getJob(jobUuid));
+        verify(jobService, times(1)).getJobById(jobUuid);
+
+        Thread.sleep(60);
+        prefetcher.getJob(jobUuid);
+        verify(jobService, times(2)).getJobById(jobUuid);
+    }
+}
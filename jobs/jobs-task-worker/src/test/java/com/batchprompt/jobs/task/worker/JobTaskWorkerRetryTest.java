@@ -0,0 +1,169 @@
+package com.batchprompt.jobs.task.worker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.batchprompt.jobs.core.config.WorkerConfig.WorkerConfiguration;
+import com.batchprompt.jobs.core.model.ChatModelResponse;
+import com.batchprompt.jobs.core.model.JobTask;
+import com.batchprompt.jobs.core.repository.JobTaskRepository;
+import com.batchprompt.jobs.core.service.MessageProducer;
+import com.batchprompt.jobs.model.TaskStatus;
+import com.batchprompt.jobs.model.dto.JobTaskMessage;
+
+@ExtendWith(MockitoExtension.class)
+class JobTaskWorkerRetryTest {
+
+    private static final String MODEL_ID = "openai-gpt-4o-mini";
+    private static final String ERROR = "HTTP 503 from provider";
+
+    @Mock
+    private JobTaskRepository jobTaskRepository;
+    @Mock
+    private MessageProducer messageProducer;
+
+    @InjectMocks
+    private JobTaskWorker jobTaskWorker;
+
+    private WorkerConfiguration retryConfig;
+
+    @BeforeEach
+    void setUp() {
+        retryConfig = new WorkerConfiguration();
+        retryConfig.setMaxRetries(25);
+        retryConfig.setRetryBaseDelayMs(1000);
+        retryConfig.setRetryMaxDelayMs(60_000);
+    }
+
+    @Test
+    void firstRetryWaitsBetweenHalfAndAllOfTheBaseDelay() {
+        long delayMs = scheduledDelay(0, transientError(null));
+
+        assertTrue(delayMs >= 500 && delayMs <= 1000, "delay " + delayMs + " ms");
+    }
+
+    @Test
+    void delayDoublesWithEachRetry() {
+        long delayMs = scheduledDelay(3, transientError(null));
+
+        assertTrue(delayMs >= 4000 && delayMs <= 8000, "delay " + delayMs + " ms");
+    }
+
+    @Test
+    void delayIsCappedAtTheMaximum() {
+        long delayMs = scheduledDelay(20, transientError(null));
+
+        assertTrue(delayMs >= 30_000 && delayMs <= 60_000, "delay " + delayMs + " ms");
+    }
+
+    @Test
+    void retryAfterFromTheProviderIsHonoured() {
+        long delayMs = scheduledDelay(0, transientError(120_000L));
+
+        assertEquals(120_000, delayMs);
+    }
+
+    @Test
+    void taskIsRequeuedAsSubmittedWithItsRetryCounted() {
+        JobTask task = task(2);
+        when(jobTaskRepository.retryTask(task.getJobTaskUuid(), 3, ERROR)).thenReturn(1);
+
+        assertTrue(jobTaskWorker.scheduleRetry(task, transientError(null), retryConfig, new RetryBudget(20)));
+
+        assertEquals(TaskStatus.SUBMITTED, task.getStatus());
+        assertEquals(3, task.getRetryCount());
+        verify(messageProducer).sendJobTaskWithDelay(eq(MODEL_ID), eq(new JobTaskMessage(task.getJobTaskUuid())), anyLong());
+    }
+
+    @Test
+    void exhaustedRetriesAreNotScheduled() {
+        retryConfig.setMaxRetries(3);
+
+        assertFalse(jobTaskWorker.scheduleRetry(task(3), transientError(null), retryConfig, new RetryBudget(20)));
+
+        verify(jobTaskRepository, never()).retryTask(any(), anyInt(), any());
+        verify(messageProducer, never()).sendJobTaskWithDelay(any(), any(), anyLong());
+    }
+
+    @Test
+    void exhaustedRetryBudgetIsNotScheduled() {
+        RetryBudget budget = new RetryBudget(0);
+        while (budget.tryWithdraw()) {
+            // Spend the starting reserve
+        }
+
+        assertFalse(jobTaskWorker.scheduleRetry(task(0), transientError(null), retryConfig, budget));
+
+        verify(jobTaskRepository, never()).retryTask(any(), anyInt(), any());
+    }
+
+    @Test
+    void taskNoLongerProcessingIsNotRequeued() {
+        JobTask task = task(0);
+        when(jobTaskRepository.retryTask(task.getJobTaskUuid(), 1, ERROR)).thenReturn(0);
+
+        // Handled: the task was cancelled while the call ran, so it is neither retried nor failed
+        assertTrue(jobTaskWorker.scheduleRetry(task, transientError(null), retryConfig, new RetryBudget(20)));
+
+        verify(messageProducer, never()).sendJobTaskWithDelay(any(), any(), anyLong());
+    }
+
+    @Test
+    void failedRequeueFallsBackToFailingTheTask() {
+        JobTask task = task(0);
+        when(jobTaskRepository.retryTask(task.getJobTaskUuid(), 1, ERROR)).thenReturn(1);
+        doThrow(new RuntimeException("broker unavailable"))
+                .when(messageProducer).sendJobTaskWithDelay(any(), any(), anyLong());
+
+        assertFalse(jobTaskWorker.scheduleRetry(task, transientError(null), retryConfig, new RetryBudget(20)));
+    }
+
+    private long scheduledDelay(int retryCount, ChatModelResponse response) {
+        JobTask task = task(retryCount);
+        when(jobTaskRepository.retryTask(task.getJobTaskUuid(), retryCount + 1, ERROR)).thenReturn(1);
+
+        assertTrue(jobTaskWorker.scheduleRetry(task, response, retryConfig, new RetryBudget(20)));
+
+        ArgumentCaptor<Long> delayMs = ArgumentCaptor.forClass(Long.class);
+        verify(messageProducer).sendJobTaskWithDelay(eq(MODEL_ID), any(), delayMs.capture());
+        return delayMs.getValue();
+    }
+
+    private static ChatModelResponse transientError(Long retryAfterMillis) {
+        return ChatModelResponse.builder()
+                .errorMessage(ERROR)
+                .httpStatus(503)
+                .retryAfterMillis(retryAfterMillis)
+                .retryable(true)
+                .build();
+    }
+
+    private static JobTask task(int retryCount) {
+        return JobTask.builder()
+                .jobTaskUuid(UUID.randomUUID())
+                .jobUuid(UUID.randomUUID())
+                .modelId(MODEL_ID)
+                .status(TaskStatus.PROCESSING)
+                .retryCount(retryCount)
+                .build();
+    }
+}
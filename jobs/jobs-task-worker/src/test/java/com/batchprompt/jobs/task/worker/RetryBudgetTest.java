@@ -0,0 +1,51 @@
+package com.batchprompt.jobs.task.worker;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class RetryBudgetTest {
+
+    @Test
+    void reserveCoversOccasionalRetriesWithoutTraffic() {
+        RetryBudget budget = new RetryBudget(0);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(budget.tryWithdraw(), "retry " + i);
+        }
+        assertFalse(budget.tryWithdraw());
+    }
+
+    @Test
+    void callsEarnRetriesAtTheConfiguredPercentage() {
+        RetryBudget budget = new RetryBudget(50);
+        drain(budget);
+
+        budget.recordCall();
+        assertFalse(budget.tryWithdraw());
+        budget.recordCall();
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+    }
+
+    @Test
+    void balanceIsCappedAtAThousandCallsWorth() {
+        RetryBudget budget = new RetryBudget(10);
+
+        for (int i = 0; i < 100_000; i++) {
+            budget.recordCall();
+        }
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(budget.tryWithdraw(), "retry " + i);
+        }
+        assertFalse(budget.tryWithdraw());
+    }
+
+    private static void drain(RetryBudget budget) {
+        while (budget.tryWithdraw()) {
+            // Spend the starting reserve
+        }
+    }
+}
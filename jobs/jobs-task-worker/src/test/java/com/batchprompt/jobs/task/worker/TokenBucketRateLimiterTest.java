@@ -0,0 +1,89 @@
+package com.batchprompt.jobs.task.worker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class TokenBucketRateLimiterTest {
+
+    @Test
+    void admitsRequestsUpToTheRequestsPerMinute() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(60, 0);
+
+        for (int i = 0; i < 60; i++) {
+            assertEquals(0, limiter.tryAcquire(0), "request " + i);
+        }
+
+        // One request refills every second
+        long waitMs = limiter.tryAcquire(0);
+        assertTrue(waitMs > 900 && waitMs <= 1000, "waited " + waitMs + " ms");
+    }
+
+    @Test
+    void refillsContinuously() throws InterruptedException {
+        // 100 requests a second
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(6000, 0);
+        int admitted = 0;
+        while (limiter.tryAcquire(0) == 0) {
+            admitted++;
+        }
+        assertTrue(admitted >= 6000);
+
+        Thread.sleep(50);
+
+        assertEquals(0, limiter.tryAcquire(0));
+    }
+
+    @Test
+    void waitsForEnoughTokens() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(0, 1000);
+
+        assertEquals(0, limiter.tryAcquire(600));
+
+        // 200 more tokens are needed, at 1000 a minute
+        long waitMs = limiter.tryAcquire(600);
+        assertTrue(waitMs > 11_000 && waitMs <= 12_000, "waited " + waitMs + " ms");
+    }
+
+    @Test
+    void admitsARequestLargerThanTheBucketOnceTheBucketIsFull() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(0, 1000);
+
+        assertEquals(0, limiter.tryAcquire(5000));
+
+        // The whole request is charged, so the bucket takes over four minutes to refill
+        assertTrue(limiter.tryAcquire(1) > 4 * 60_000);
+    }
+
+    @Test
+    void reconcileReturnsAnOverEstimate() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(0, 1000);
+        assertEquals(0, limiter.tryAcquire(1000));
+
+        limiter.reconcile(1000, 200);
+
+        assertEquals(0, limiter.tryAcquire(800));
+    }
+
+    @Test
+    void reconcileChargesAnUnderEstimate() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(0, 1000);
+        assertEquals(0, limiter.tryAcquire(100));
+
+        limiter.reconcile(100, 600);
+
+        // 400 tokens are left
+        assertTrue(limiter.tryAcquire(500) > 0);
+        assertEquals(0, limiter.tryAcquire(400));
+    }
+
+    @Test
+    void zeroMeansNoLimit() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(0, 0);
+
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(0, limiter.tryAcquire(100_000));
+        }
+    }
+}
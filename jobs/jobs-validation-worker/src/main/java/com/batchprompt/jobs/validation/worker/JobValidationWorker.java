@@ -1,23 +1,27 @@
 package com.batchprompt.jobs.validation.worker;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.domain.Page;
 import org.springframework.stereotype.Service;
 
 import com.batchprompt.files.client.FileClient;
+import com.batchprompt.files.client.FileRecordStream;
 import com.batchprompt.files.model.dto.FileRecordDto;
 import com.batchprompt.jobs.core.exception.JobSubmissionException;
 import com.batchprompt.jobs.core.model.Job;
 import com.batchprompt.jobs.core.model.JobTask;
 import com.batchprompt.jobs.core.model.JobValidationResultMessage;
+import com.batchprompt.jobs.core.model.ModelCost;
 import com.batchprompt.jobs.core.repository.JobRepository;
-import com.batchprompt.jobs.core.repository.JobTaskRepository;
+import com.batchprompt.jobs.core.repository.JobTaskJdbcRepository;
 import com.batchprompt.jobs.core.repository.JobValidationResultMessageRepository;
 import com.batchprompt.jobs.core.service.CreditCalculationService;
 import com.batchprompt.jobs.core.service.JobNotificationService;
@@ -38,11 +42,14 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class JobValidationWorker {
 
+    // Placeholders in the prompt text, e.g. {{fieldName}}
+    private static final Pattern PLACEHOLDER_PATTERN = Pattern.compile("\\{\\{\\s*([^\\s]+)\\s*\\}\\}");
+
     private final JobService jobService;
     private final JobRepository jobRepository;
     private final FileClient fileClient;
     private final PromptClient promptClient;
-    private final JobTaskRepository jobTaskRepository;
+    private final JobTaskJdbcRepository jobTaskJdbcRepository;
     private final JobPricingService jobPricingService;
     private final CreditCalculationService creditCalculationService;
     private final JobValidationResultMessageRepository jobValidationResultMessageRepository;
@@ -50,6 +57,9 @@ public class JobValidationWorker {
     
     @Value("${rabbitmq.queue.job-validation.name}")
     private String jobValidationQueueName;
+
+    @Value("${jobs.validation.insert-batch-size:1000}")
+    private int insertBatchSize;
     
     @RabbitListener(queues = "${rabbitmq.queue.job-validation.name}")
     public void processJobValidationMessage(JobValidationMessage validationMessage) {
@@ -76,68 +86,40 @@ public class JobValidationWorker {
 
     private boolean buildJobTasks(Job job) {
 
+        long startMillis = System.currentTimeMillis();
         PromptDto promptDto = promptClient.getPrompt(job.getPromptUuid(), null);
 
         int startRecordNumber = job.getStartRecordNumber() != null ? job.getStartRecordNumber() : 1;
         Integer maxRecords = job.getMaxRecords();
         
-        // Get file record count to determine how many records to process
-        int pageSize = 100; // Process records in batches of 100
-        int startPage = (startRecordNumber - 1) / pageSize; // Calculate the starting page based on startRecordNumber
-        
-        // Retrieve first page to get total count and start processing
-        Page<FileRecordDto> recordsPage = fileClient.getFileRecordsPaginated(
-            job.getFileUuid(), 
-            startPage, 
-            pageSize, 
-            "recordNumber", 
-            "asc", 
-            null
-        );
-        
-        if (recordsPage == null || recordsPage.getTotalElements() == 0) {
-            throw new JobSubmissionException("No records found for file: " + job.getFileUuid());
+        log.info("Processing records from file {} starting at record {}{}", job.getFileUuid(), startRecordNumber,
+            maxRecords != null ? ", up to " + maxRecords + " records" : "");
+
+        // Pricing and the credit rate are the same for every task, so they are looked up once
+        List<ModelCost> modelCosts = jobPricingService.getCurrentModelCosts(job.getModelId());
+        Double creditsPerUsd = creditCalculationService.getCreditsPerUsdRate(job.getModelId(), LocalDateTime.now());
+        if (creditsPerUsd == null) {
+            throw new JobSubmissionException("No credit rate found for model: " + job.getModelId());
         }
-        
-        // Calculate total records to process based on maxRecords and starting position
-        long totalRecords = recordsPage.getTotalElements();
-        long recordsToProcess = maxRecords != null 
-            ? Math.min(maxRecords, totalRecords - (startRecordNumber - 1)) 
-            : (totalRecords - (startRecordNumber - 1));
-
-        log.info("Processing {} records from file {} starting at record {}", recordsToProcess, job.getFileUuid(), startRecordNumber);
-
-            
-        if (recordsToProcess <= 0) {
-            throw new JobSubmissionException("No records to process based on startRecordNumber: " + startRecordNumber);
-        }        
-        // Placeholder for building job tasks
-        // This method should be implemented to create job tasks based on the job details
 
         double totalEstimatedCost = 0.0;
         double totalEstimatedCredits = 0.0;
         int failedCount = 0;
         int taskCount = 0;
+        List<JobTask> pendingTasks = new ArrayList<>(insertBatchSize);
+
+        // All records in the job's range arrive through a single streaming request. The range is
+        // bounded on the server, so the stream ends at maxRecords rather than being cut off here,
+        // which would leave the connection to read the rest of the file before it could be closed.
+        int toRecordNumber = maxRecords != null
+                ? (int) Math.min((long) startRecordNumber + maxRecords - 1, Integer.MAX_VALUE)
+                : Integer.MAX_VALUE;
+        int recordsRead = 0;
+        try (FileRecordStream records = fileClient.streamFileRecords(job.getFileUuid(), startRecordNumber, toRecordNumber, null)) {
+            while (records.hasNext()) {
+                FileRecordDto record = records.next();
+                recordsRead++;
 
-        while (recordsPage.getNumberOfElements() > 0) {
-            // Check if we have enough records to process
-            if (recordsToProcess <= 0) {
-                break;
-            }
-            
-            // Create job tasks for the first batch
-            for (int i = 0; i < recordsPage.getNumberOfElements(); i++) {
-                // Check if we've hit the max records limit
-                if (maxRecords != null && taskCount >= maxRecords) {
-                    break;
-                }
-                
-                FileRecordDto record = recordsPage.getContent().get(i);
-                // Skip records with record numbers less than startRecordNumber
-                if (record.getRecordNumber() < startRecordNumber) {
-                    continue;
-                }
-                
                 UUID jobTaskUuid = UUID.randomUUID();
                 
                 String promptText = createPromptText(job, promptDto, record);
@@ -150,18 +132,19 @@ public class JobValidationWorker {
                 int estimatedThinkingTokens = 0; // Placeholder for thinking tokens
 
                 // Estimate the cost
-                double estimatedCost = jobPricingService.calculateCost(
+                Double estimatedCost = jobPricingService.calculateCost(
+                    modelCosts,
                     job.getModelId(), 
                     estimatedPromptTokens, 
                     estimatedCompletionTokens, 
                     estimatedThinkingTokens
                 );
+                if (estimatedCost == null) {
+                    throw new JobSubmissionException("Could not estimate the cost of record " + record.getRecordNumber() +
+                            " for model: " + job.getModelId());
+                }
 
-                double estimatedCredits = creditCalculationService.calculateCreditUsage(
-                    job.getModelId(), 
-                    estimatedCost, 
-                    LocalDateTime.now()
-                );
+                double estimatedCredits = estimatedCost * creditsPerUsd;
 
                 totalEstimatedCost += estimatedCost;
                 totalEstimatedCredits += estimatedCredits;
@@ -181,40 +164,36 @@ public class JobValidationWorker {
                         .status(TaskStatus.SUBMITTED)
                         .build();
                         
-                jobTaskRepository.save(task);
+                pendingTasks.add(task);
+                if (pendingTasks.size() >= insertBatchSize) {
+                    jobTaskJdbcRepository.insertAll(pendingTasks);
+                    pendingTasks.clear();
+                }
 
                 taskCount++;
             }
-            
-            // Check if we need to process more pages
-            if (recordsToProcess > recordsPage.getNumberOfElements()) {
-                recordsToProcess -= recordsPage.getNumberOfElements();
-                startPage++;
-                
-                // If we've already processed maxRecords, no need to fetch more pages
-                if (maxRecords != null && taskCount >= maxRecords) {
-                    break;
-                }
-                
-                // Get the next page of records
-                recordsPage = fileClient.getFileRecordsPaginated(
-                    job.getFileUuid(), 
-                    startPage, 
-                    pageSize, 
-                    "recordNumber", 
-                    "asc", 
-                    null
-                );
-            } else {
-                break;
-            }
+        } catch (IOException e) {
+            throw new JobSubmissionException("Error reading records for file: " + job.getFileUuid(), e);
+        }
+
+        if (recordsRead == 0) {
+            throw new JobSubmissionException("No records found for file " + job.getFileUuid() + " starting at record " + startRecordNumber);
         }
+
+        if (!pendingTasks.isEmpty()) {
+            jobTaskJdbcRepository.insertAll(pendingTasks);
+        }
+
         // Update job with total estimated cost and credits
         job.setCostEstimate(totalEstimatedCost);
         job.setCreditEstimate(totalEstimatedCredits);
         job.setTaskCount(taskCount);
         log.info("Job tasks created for job: {}, total estimated cost: {}, total estimated credits: {}", 
             job.getJobUuid(), totalEstimatedCost, totalEstimatedCredits);
+
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - startMillis);
+        log.info("Validated {} records of job {} in {} ms ({} rows/s)",
+            taskCount + failedCount, job.getJobUuid(), elapsedMillis, (taskCount + failedCount) * 1000L / elapsedMillis);
             
         return failedCount == 0;
     }
@@ -242,9 +221,7 @@ public class JobValidationWorker {
         // 4. trim both sides, convert to lowercase and replace spaces with underscores
 
         // First, find all placeholders in the prompt text
-        String regex = "\\{\\{\\s*([^\\s]+)\\s*\\}\\}";
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(promptText);
+        Matcher matcher = PLACEHOLDER_PATTERN.matcher(promptText);
         while (matcher.find()) {
             String placeholder = matcher.group(0);
             String placeholderName = matcher.group(1).trim();
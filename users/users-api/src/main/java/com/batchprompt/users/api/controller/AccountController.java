@@ -134,6 +134,21 @@ public class AccountController {
                 .orElse(ResponseEntity.status(HttpStatus.UNAUTHORIZED).<AccountDto>build());
     }
     
+    @PostMapping("/credits/batch")
+    public ResponseEntity<Integer> addCreditsBatch(@RequestBody List<AccountCreditTransactionDto> transactionDtos) {
+        try {
+            List<AccountCreditTransaction> transactions = transactionDtos.stream()
+                    .map(transactionMapper::toEntity)
+                    .toList();
+
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .body(accountService.addCreditTransactions(transactions));
+        } catch (IllegalArgumentException e) {
+            log.warn("Failed to add credits batch: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     @PostMapping("/{accountUuid}/credits")
     public ResponseEntity<AccountCreditTransactionDto> addCredits(
             @PathVariable UUID accountUuid,
@@ -45,4 +45,12 @@ public interface AccountClient {
     ResponseEntity<AccountCreditTransactionDto> addCredits(
             @PathVariable("accountUuid") UUID accountUuid,
             @RequestBody AccountCreditTransactionDto transactionDto);
+
+    /**
+     * Record many credit transactions, each carrying its account UUID, in one request
+     *
+     * @return The number of transactions recorded
+     */
+    @PostMapping("/credits/batch")
+    ResponseEntity<Integer> addCreditsBatch(@RequestBody List<AccountCreditTransactionDto> transactionDtos);
 }
\ No newline at end of file
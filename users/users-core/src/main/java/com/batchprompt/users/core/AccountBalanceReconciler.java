@@ -0,0 +1,125 @@
+package com.batchprompt.users.core;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.batchprompt.users.core.model.Account;
+import com.batchprompt.users.core.model.AccountBalanceCheckpoint;
+import com.batchprompt.users.core.repository.AccountBalanceCheckpointRepository;
+import com.batchprompt.users.core.repository.AccountCreditTransactionRepository;
+import com.batchprompt.users.core.repository.AccountRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Verifies the maintained account balances against the credit transaction ledger.
+ * Each run rolls the account's latest checkpoint forward to a point safely in the
+ * past and only sums the transactions after it, so the cost does not grow with the
+ * age of the account. Balances that disagree with the ledger are corrected.
+ */
+@Service
+@Slf4j
+public class AccountBalanceReconciler {
+
+    private static final int PAGE_SIZE = 100;
+    private static final double TOLERANCE = 0.000001;
+
+    // Transactions still in flight may carry a timestamp up to this far in the past when they commit
+    private static final long CHECKPOINT_LAG_MINUTES = 5;
+
+    private final AccountRepository accountRepository;
+    private final AccountCreditTransactionRepository accountCreditTransactionRepository;
+    private final AccountBalanceCheckpointRepository accountBalanceCheckpointRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    public AccountBalanceReconciler(
+            AccountRepository accountRepository,
+            AccountCreditTransactionRepository accountCreditTransactionRepository,
+            AccountBalanceCheckpointRepository accountBalanceCheckpointRepository,
+            PlatformTransactionManager transactionManager) {
+        this.accountRepository = accountRepository;
+        this.accountCreditTransactionRepository = accountCreditTransactionRepository;
+        this.accountBalanceCheckpointRepository = accountBalanceCheckpointRepository;
+        // Read the balance and the ledger from one snapshot
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    }
+
+    @Scheduled(cron = "${users.balance-reconciliation.cron:0 0 4 * * *}")
+    public void reconcileAllAccounts() {
+        int accounts = 0;
+        int corrected = 0;
+        Pageable pageable = PageRequest.of(0, PAGE_SIZE);
+        Page<Account> page;
+        do {
+            page = accountRepository.findAll(pageable);
+            for (Account account : page) {
+                try {
+                    if (Boolean.TRUE.equals(transactionTemplate.execute(status -> reconcileAccount(account.getAccountUuid())))) {
+                        corrected++;
+                    }
+                    accounts++;
+                } catch (Exception e) {
+                    log.error("Error reconciling balance of account {}: {}", account.getAccountUuid(), e.getMessage(), e);
+                }
+            }
+            pageable = page.nextPageable();
+        } while (page.hasNext());
+
+        log.info("Reconciled balances of {} accounts, {} corrected", accounts, corrected);
+    }
+
+    /**
+     * @return true if the maintained balance had to be corrected
+     */
+    private boolean reconcileAccount(UUID accountUuid) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime checkpointTimestamp = now.minusMinutes(CHECKPOINT_LAG_MINUTES);
+
+        AccountBalanceCheckpoint previous = accountBalanceCheckpointRepository
+                .findFirstByAccountUuidOrderByCheckpointTimestampDesc(accountUuid)
+                .orElse(null);
+        LocalDateTime previousTimestamp = previous != null ? previous.getCheckpointTimestamp() : LocalDateTime.of(1970, 1, 1, 0, 0);
+        double previousBalance = previous != null ? previous.getBalance() : 0;
+
+        double checkpointBalance = previousBalance;
+        if (checkpointTimestamp.isAfter(previousTimestamp)) {
+            double changes = accountCreditTransactionRepository.sumChanges(accountUuid, previousTimestamp, checkpointTimestamp);
+            checkpointBalance += changes;
+            if (previous == null || changes != 0) {
+                accountBalanceCheckpointRepository.save(AccountBalanceCheckpoint.builder()
+                        .checkpointUuid(UUID.randomUUID())
+                        .accountUuid(accountUuid)
+                        .balance(checkpointBalance)
+                        .checkpointTimestamp(checkpointTimestamp)
+                        .createTimestamp(now)
+                        .build());
+            } else {
+                checkpointTimestamp = previousTimestamp;
+            }
+        } else {
+            checkpointTimestamp = previousTimestamp;
+        }
+
+        double ledgerBalance = checkpointBalance + accountCreditTransactionRepository.sumChangesAfter(accountUuid, checkpointTimestamp);
+        Double maintained = accountRepository.getBalance(accountUuid);
+        double maintainedBalance = maintained != null ? maintained : 0;
+
+        if (Math.abs(ledgerBalance - maintainedBalance) > TOLERANCE) {
+            log.error("Balance of account {} is {} but the ledger sums to {}, correcting",
+                    accountUuid, maintainedBalance, ledgerBalance);
+            accountRepository.addToBalance(accountUuid, ledgerBalance - maintainedBalance);
+            return true;
+        }
+        return false;
+    }
+}
@@ -1,8 +1,12 @@
 package com.batchprompt.users.core;
 
 import java.time.LocalDateTime;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 
 import org.springframework.data.domain.Page;
@@ -15,6 +19,7 @@ import com.batchprompt.users.core.model.Account;
 import com.batchprompt.users.core.model.AccountCreditTransaction;
 import com.batchprompt.users.core.model.AccountUser;
 import com.batchprompt.users.core.model.User;
+import com.batchprompt.users.core.repository.AccountCreditTransactionBatchRepository;
 import com.batchprompt.users.core.repository.AccountCreditTransactionRepository;
 import com.batchprompt.users.core.repository.AccountRepository;
 import com.batchprompt.users.core.repository.AccountUserRepository;
@@ -31,6 +36,7 @@ public class AccountService {
     private final AccountRepository accountRepository;
     private final AccountUserRepository accountUserRepository;
     private final AccountCreditTransactionRepository accountCreditTransactionRepository;
+    private final AccountCreditTransactionBatchRepository accountCreditTransactionBatchRepository;
     private final UserRepository userRepository;
     private final NotificationSender notificationSender;
     
@@ -159,6 +165,7 @@ public class AccountService {
         transaction.setReferenceId(referenceId);
         transaction.setCreateTimestamp(LocalDateTime.now());
 
+        accountRepository.addToBalance(accountUuid, amount);
         transaction = accountCreditTransactionRepository.save(transaction);
 
         // Send notification if we can find a user for the account
@@ -188,6 +195,7 @@ public class AccountService {
         transaction.setReferenceId(referenceId);
         transaction.setCreateTimestamp(LocalDateTime.now());
 
+        accountRepository.addToBalance(accountUuid, amount);
         transaction = accountCreditTransactionRepository.save(transaction);
 
         // Send notification if user is provided
@@ -199,11 +207,68 @@ public class AccountService {
         return transaction;
     }
     
+    /**
+     * Add many credit transactions (typically task debits) in one database round trip.
+     * Transactions that carry a UUID already recorded are skipped, so a retried batch
+     * is not applied twice. One balance notification is sent per account.
+     *
+     * @return The number of transactions recorded
+     */
+    @Transactional
+    public int addCreditTransactions(List<AccountCreditTransaction> transactions) {
+        Set<UUID> accountUuids = new LinkedHashSet<>();
+        for (AccountCreditTransaction transaction : transactions) {
+            if (transaction.getAccountUuid() == null || transaction.getChangeAmount() == null || transaction.getReason() == null) {
+                throw new IllegalArgumentException("Account, amount and reason are required for every transaction");
+            }
+            accountUuids.add(transaction.getAccountUuid());
+        }
+
+        List<Account> accounts = accountRepository.findAllById(accountUuids);
+        if (accounts.size() != accountUuids.size()) {
+            throw new IllegalArgumentException("Account not found");
+        }
+
+        // Always stamp with the server time, balance checkpoints rely on it
+        LocalDateTime now = LocalDateTime.now();
+        for (AccountCreditTransaction transaction : transactions) {
+            if (transaction.getTransactionUuid() == null) {
+                transaction.setTransactionUuid(UUID.randomUUID());
+            }
+            transaction.setCreateTimestamp(now);
+        }
+
+        boolean[] insertedFlags = accountCreditTransactionBatchRepository.insertAll(transactions);
+
+        // Apply the inserted changes to the balances, locking accounts in a fixed order
+        Map<UUID, Double> balanceChanges = new TreeMap<>();
+        int inserted = 0;
+        for (int i = 0; i < transactions.size(); i++) {
+            if (insertedFlags[i]) {
+                AccountCreditTransaction transaction = transactions.get(i);
+                balanceChanges.merge(transaction.getAccountUuid(), transaction.getChangeAmount(), Double::sum);
+                inserted++;
+            }
+        }
+        balanceChanges.forEach(accountRepository::addToBalance);
+
+        for (Account account : accounts) {
+            User user = getUserForAccount(account);
+            if (user != null) {
+                notificationSender.send("account/balance",
+                    new AccountBalanceDto(account.getAccountUuid(), getAccountBalance(account.getAccountUuid())), user.getUserId());
+            }
+        }
+
+        log.debug("Recorded {} of {} credit transactions for {} accounts", inserted, transactions.size(), accounts.size());
+        return inserted;
+    }
+
     /**
      * Get account balance
      */
     public Double getAccountBalance(UUID accountUuid) {
-        Double balance = accountCreditTransactionRepository.getAccountBalance(accountUuid);
+        Double balance = accountRepository.getBalance(accountUuid);
         return balance != null ? balance : 0;
     }
     
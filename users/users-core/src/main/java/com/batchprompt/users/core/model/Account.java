@@ -32,4 +32,8 @@ public class Account {
 
     @Column(name = "update_timestamp", nullable = false)
     private LocalDateTime updateTimestamp;
+
+    // Maintained by AccountRepository.addToBalance, never written through the entity
+    @Column(name = "balance", insertable = false, updatable = false)
+    private Double balance;
 }
\ No newline at end of file
@@ -0,0 +1,41 @@
+package com.batchprompt.users.core.model;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The sum of an account's credit transactions up to checkpointTimestamp
+ */
+@Data
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "account_balance_checkpoint")
+public class AccountBalanceCheckpoint {
+
+    @Id
+    @Column(name = "checkpoint_uuid")
+    private UUID checkpointUuid;
+
+    @Column(name = "account_uuid", nullable = false)
+    private UUID accountUuid;
+
+    @Column(name = "balance", nullable = false)
+    private Double balance;
+
+    @Column(name = "checkpoint_timestamp", nullable = false)
+    private LocalDateTime checkpointTimestamp;
+
+    @Column(name = "create_timestamp", nullable = false)
+    private LocalDateTime createTimestamp;
+}
@@ -0,0 +1,14 @@
+package com.batchprompt.users.core.repository;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import com.batchprompt.users.core.model.AccountBalanceCheckpoint;
+
+@Repository
+public interface AccountBalanceCheckpointRepository extends JpaRepository<AccountBalanceCheckpoint, UUID> {
+    Optional<AccountBalanceCheckpoint> findFirstByAccountUuidOrderByCheckpointTimestampDesc(UUID accountUuid);
+}
@@ -0,0 +1,87 @@
+package com.batchprompt.users.core.repository;
+
+import java.sql.Connection;
+import java.sql.Timestamp;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.batchprompt.users.core.model.AccountCreditTransaction;
+
+/**
+ * Bulk writes for credit transactions, used for high volume task debits. Each chunk is
+ * one multi-row INSERT over unnested arrays, and RETURNING reports exactly which rows
+ * were written, whatever batching options the datasource sets.
+ */
+@Repository
+public class AccountCreditTransactionBatchRepository {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String insertSql;
+
+    public AccountCreditTransactionBatchRepository(
+            JdbcTemplate jdbcTemplate,
+            @Value("${spring.jpa.properties.hibernate.default_schema}") String schema) {
+        this.jdbcTemplate = jdbcTemplate;
+        // Transactions already written (e.g. a retried request) are skipped
+        this.insertSql = "INSERT INTO " + schema + ".account_credit_transaction " +
+                "(transaction_uuid, account_uuid, change_amount, reason, reference_id, create_timestamp) " +
+                "SELECT * FROM unnest(?::uuid[], ?::uuid[], ?::numeric[], ?::varchar[], ?::varchar[], ?::timestamp[]) " +
+                "ON CONFLICT (transaction_uuid) DO NOTHING RETURNING transaction_uuid";
+    }
+
+    /**
+     * Insert transactions in chunks of BATCH_SIZE
+     *
+     * @param transactions The transactions to insert
+     * @return Whether each transaction was inserted, in the order given
+     */
+    public boolean[] insertAll(List<AccountCreditTransaction> transactions) {
+        boolean[] inserted = new boolean[transactions.size()];
+        for (int start = 0; start < transactions.size(); start += BATCH_SIZE) {
+            List<AccountCreditTransaction> chunk = transactions.subList(start, Math.min(start + BATCH_SIZE, transactions.size()));
+            Set<UUID> insertedUuids = new HashSet<>(insertChunk(chunk));
+            for (int i = 0; i < chunk.size(); i++) {
+                // Removed, so a uuid repeated within the request only counts once
+                inserted[start + i] = insertedUuids.remove(chunk.get(i).getTransactionUuid());
+            }
+        }
+        return inserted;
+    }
+
+    private List<UUID> insertChunk(List<AccountCreditTransaction> chunk) {
+        int size = chunk.size();
+        UUID[] transactionUuids = new UUID[size];
+        UUID[] accountUuids = new UUID[size];
+        Double[] changeAmounts = new Double[size];
+        String[] reasons = new String[size];
+        String[] referenceIds = new String[size];
+        Timestamp[] createTimestamps = new Timestamp[size];
+        for (int i = 0; i < size; i++) {
+            AccountCreditTransaction transaction = chunk.get(i);
+            transactionUuids[i] = transaction.getTransactionUuid();
+            accountUuids[i] = transaction.getAccountUuid();
+            changeAmounts[i] = transaction.getChangeAmount();
+            reasons[i] = transaction.getReason();
+            referenceIds[i] = transaction.getReferenceId();
+            createTimestamps[i] = Timestamp.valueOf(transaction.getCreateTimestamp());
+        }
+
+        return jdbcTemplate.query(insertSql, ps -> {
+            Connection connection = ps.getConnection();
+            ps.setArray(1, connection.createArrayOf("uuid", transactionUuids));
+            ps.setArray(2, connection.createArrayOf("uuid", accountUuids));
+            ps.setArray(3, connection.createArrayOf("float8", changeAmounts));
+            ps.setArray(4, connection.createArrayOf("varchar", reasons));
+            ps.setArray(5, connection.createArrayOf("varchar", referenceIds));
+            ps.setArray(6, connection.createArrayOf("timestamp", createTimestamps));
+        }, (rs, rowNum) -> rs.getObject("transaction_uuid", UUID.class));
+    }
+}
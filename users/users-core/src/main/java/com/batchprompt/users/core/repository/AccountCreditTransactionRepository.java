@@ -1,10 +1,12 @@
 package com.batchprompt.users.core.repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.UUID;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.batchprompt.users.core.model.AccountCreditTransaction;
@@ -13,6 +15,20 @@ import com.batchprompt.users.core.model.AccountCreditTransaction;
 public interface AccountCreditTransactionRepository extends JpaRepository<AccountCreditTransaction, UUID> {
     List<AccountCreditTransaction> findByAccountUuid(UUID accountUuid);
     
+    /**
+     * Sum the whole ledger of an account. Only used to verify the maintained balance;
+     * use AccountRepository.getBalance to read it.
+     */
     @Query("SELECT SUM(t.changeAmount) FROM AccountCreditTransaction t WHERE t.accountUuid = :accountUuid")
     Double getAccountBalance(UUID accountUuid);
+
+    @Query("SELECT COALESCE(SUM(t.changeAmount), 0) FROM AccountCreditTransaction t " +
+           "WHERE t.accountUuid = :accountUuid AND t.createTimestamp > :after AND t.createTimestamp <= :upTo")
+    Double sumChanges(@Param("accountUuid") UUID accountUuid,
+                      @Param("after") LocalDateTime after,
+                      @Param("upTo") LocalDateTime upTo);
+
+    @Query("SELECT COALESCE(SUM(t.changeAmount), 0) FROM AccountCreditTransaction t " +
+           "WHERE t.accountUuid = :accountUuid AND t.createTimestamp > :after")
+    Double sumChangesAfter(@Param("accountUuid") UUID accountUuid, @Param("after") LocalDateTime after);
 }
\ No newline at end of file
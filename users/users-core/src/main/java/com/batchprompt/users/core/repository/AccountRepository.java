@@ -4,6 +4,9 @@ import java.util.Optional;
 import java.util.UUID;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.batchprompt.users.core.model.Account;
@@ -11,4 +14,15 @@ import com.batchprompt.users.core.model.Account;
 @Repository
 public interface AccountRepository extends JpaRepository<Account, UUID> {
     Optional<Account> findByName(String name);
+
+    /**
+     * Atomically apply a change to the maintained balance. Must run in the same
+     * transaction as the insert of the credit transaction(s) it reflects.
+     */
+    @Modifying
+    @Query("UPDATE Account a SET a.balance = a.balance + :amount WHERE a.accountUuid = :accountUuid")
+    int addToBalance(@Param("accountUuid") UUID accountUuid, @Param("amount") Double amount);
+
+    @Query("SELECT a.balance FROM Account a WHERE a.accountUuid = :accountUuid")
+    Double getBalance(@Param("accountUuid") UUID accountUuid);
 }
\ No newline at end of file
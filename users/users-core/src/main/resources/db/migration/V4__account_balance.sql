@@ -0,0 +1,25 @@
+-- Use the users schema
+SET search_path TO users;
+
+-- Maintained balance, updated in the same transaction as each credit transaction
+ALTER TABLE account ADD COLUMN balance NUMERIC NOT NULL DEFAULT 0;
+
+UPDATE account a
+SET balance = COALESCE((
+    SELECT SUM(t.change_amount)
+    FROM account_credit_transaction t
+    WHERE t.account_uuid = a.account_uuid
+), 0);
+
+-- Balance of the ledger up to a point in time, so reconciliation only sums newer transactions
+CREATE TABLE account_balance_checkpoint (
+    checkpoint_uuid UUID PRIMARY KEY,
+    account_uuid UUID NOT NULL REFERENCES account(account_uuid) ON DELETE CASCADE,
+    balance NUMERIC NOT NULL,
+    checkpoint_timestamp TIMESTAMP NOT NULL,
+    create_timestamp TIMESTAMP NOT NULL
+);
+
+CREATE INDEX idx_account_balance_checkpoint_account ON account_balance_checkpoint (account_uuid, checkpoint_timestamp);
+
+CREATE INDEX idx_account_credit_transaction_account_timestamp ON account_credit_transaction (account_uuid, create_timestamp);